@@ -12,9 +12,15 @@ import javafx.scene.shape.Rectangle;
 import javafx.scene.text.Font;
 import javafx.scene.text.Text;
 import javafx.geometry.Point2D;
+import javafx.beans.InvalidationListener;
 import java.util.*;
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.AbstractMap;
 /**
  * 多人平台遊戲客戶端（修正版）
@@ -23,6 +29,11 @@ public class GameClient extends GameApplication {
 
     private static String SERVER_HOST = "127.0.0.1";
     private static int SERVER_PORT = 12345;
+    private static WireFormat WIRE_CODEC = WireFormat.BINARY;
+    private static boolean UDP_ENABLED = true;  // 伺服器有開 UDP 時是否使用
+    private static final long UDP_TIMEOUT_MS = 3000;  // 超過這段時間收不到 UDP 就改回 TCP
+    private static String MAP_CACHE_DIR = "map_cache";  // 地圖磁碟快取（以內容雜湊為檔名）
+    private static int CLIENT_FPS = 0;  // 畫面更新率上限，0 = 預設（物理固定 60 步/秒，不受影響）
     
     private Entity player;
     private List<Entity> platformEntities = new ArrayList<>();
@@ -31,9 +42,29 @@ public class GameClient extends GameApplication {
     private List<Entity> deathZones = new ArrayList<>();
     private List<Entity> safeZones = new ArrayList<>(); 
     private boolean zonesCreated = false;  
-    private Socket socket;
-    private ObjectOutputStream out;
-    private ObjectInputStream in;
+    // 連線與串流在轉址時整組替換：寫入與替換都在 sendLock 內，其他執行緒不會寫到已關閉的舊串流
+    private final Object sendLock = new Object();
+    private volatile Socket socket;
+    private volatile ObjectOutputStream out;
+    private volatile ObjectInputStream in;
+    private volatile OutputStream binaryOut;   // 二進位編碼啟用後的輸出
+    private volatile DataInputStream binaryIn;  // 收到伺服器確認後的輸入
+    private final SnapshotHistory snapshotHistory = new SnapshotHistory(32);  // 差分快照基準
+    // 地圖磁碟快取的讀寫放在自己的執行緒，網路執行緒不會因為磁碟而停住
+    private final ExecutorService mapCacheIo = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "map-cache");
+        t.setDaemon(true);
+        return t;
+    });
+    private static final int MAP_REQUEST_RETRIES = 2;  // 地圖內容與雜湊不符時重新索取的次數
+    private int mapRequestRetries = 0;                  // 只在網路執行緒使用
+    // UDP 旁路通道（位置與快照）
+    private DatagramChannel udpChannel;
+    private volatile boolean udpActive = false;
+    private long udpToken;
+    private final AtomicLong udpOutSequence = new AtomicLong();
+    private long udpInSequence = 0;           // 只在 UDP 接收執行緒使用
+    private volatile long lastUdpReceive = 0;
     private String myPlayerId;
     private Color myColor = Color.RED;
     private volatile boolean connected = false;
@@ -75,6 +106,7 @@ public class GameClient extends GameApplication {
     private boolean hasFinished = false;
     private boolean hasFailed = false;
     private boolean mapPlatformsLoaded = false;  // 標記地圖平台是否已加載
+    private final Map<Integer, Entity> levelEntities = new HashMap<>();  // 伺服器關卡編號 -> 實體
     private double deathRecoveryTimer = 0;  // 死亡恢復計時器
     private static final double DEATH_RECOVERY_TIME = 2.0;  // 2秒後恢復
     private enum UIState {
@@ -189,7 +221,7 @@ public class GameClient extends GameApplication {
         
         // 房間代碼輸入框
         roomCodeInput = new javafx.scene.control.TextField();
-        roomCodeInput.setPromptText("Enter 4-digit room code");
+        roomCodeInput.setPromptText("Enter room code");
         roomCodeInput.setFont(Font.font(20));
         roomCodeInput.setPrefWidth(400);
         roomCodeInput.setPrefHeight(50);
@@ -410,11 +442,7 @@ public class GameClient extends GameApplication {
         y >= 300 && y <= 370) {
         
         try {
-            synchronized (out) {
-                out.writeObject(new CreateRoomRequest(maxPlayers, RoomType.PUBLIC));
-                out.flush();
-                out.reset();
-            }
+            sendMessage(new CreateRoomRequest(maxPlayers, RoomType.PUBLIC));
             System.out.println("[CLIENT] Sent create public room request");
         } catch (Exception e) {
             System.err.println("[CLIENT ERROR] Failed to create room: " + e.getMessage());
@@ -425,11 +453,7 @@ public class GameClient extends GameApplication {
              y >= 400 && y <= 470) {
         
         try {
-            synchronized (out) {
-                out.writeObject(new CreateRoomRequest(maxPlayers, RoomType.PRIVATE));
-                out.flush();
-                out.reset();
-            }
+            sendMessage(new CreateRoomRequest(maxPlayers, RoomType.PRIVATE));
             System.out.println("[CLIENT] Sent create private room request");
         } catch (Exception e) {
             System.err.println("[CLIENT ERROR] Failed to create room: " + e.getMessage());
@@ -440,11 +464,7 @@ public class GameClient extends GameApplication {
              y >= 500 && y <= 570) {
         
         try {
-            synchronized (out) {
-                out.writeObject(new JoinRandomRoomRequest());
-                out.flush();
-                out.reset();
-            }
+            sendMessage(new JoinRandomRoomRequest());
             System.out.println("[CLIENT] Sent join random room request");
         } catch (Exception e) {
             System.err.println("[CLIENT ERROR] Failed to join random: " + e.getMessage());
@@ -476,11 +496,7 @@ public class GameClient extends GameApplication {
                 boolean currentReady = currentRoomInfo.readyStatus.getOrDefault(myPlayerId, false);
                 
                 try {
-                    synchronized (out) {
-                        out.writeObject(new PlayerReadyMessage(myPlayerId, !currentReady));
-                        out.flush();
-                        out.reset();
-                    }
+                    sendMessage(new PlayerReadyMessage(myPlayerId, !currentReady));
                     System.out.println("[CLIENT] Toggled ready status");
                 } catch (Exception e) {
                     System.err.println("[CLIENT ERROR] Failed to toggle ready: " + e.getMessage());
@@ -494,11 +510,7 @@ public class GameClient extends GameApplication {
                 y >= 700 && y <= 770) {
                 
                 try {
-                    synchronized (out) {
-                        out.writeObject(new StartGameRequest());
-                        out.flush();
-                        out.reset();
-                    }
+                    sendMessage(new StartGameRequest());
                     System.out.println("[CLIENT] Sent start game request");
                 } catch (Exception e) {
                     System.err.println("[CLIENT ERROR] Failed to start game: " + e.getMessage());
@@ -509,11 +521,7 @@ public class GameClient extends GameApplication {
         // 離開房間按鈕
         if (x >= 50 && x <= 250 && y >= SCREEN_HEIGHT - 100 && y <= SCREEN_HEIGHT - 50) {
             try {
-                synchronized (out) {
-                    out.writeObject(new LeaveRoomRequest());
-                    out.flush();
-                    out.reset();
-                }
+                sendMessage(new LeaveRoomRequest());
                 currentRoomInfo = null;
                 createMainMenu();
                 System.out.println("[CLIENT] Left room");
@@ -530,6 +538,12 @@ public class GameClient extends GameApplication {
         settings.setTitle("Multiplayer Platform Race");
         settings.setFullScreenAllowed(true);
         settings.setFullScreenFromStart(false);
+        
+        // 設定在視窗建立前就要讀取（畫面更新率）
+        loadServerConfig();
+        if (CLIENT_FPS > 0) {
+            settings.setTicksPerSecond(CLIENT_FPS);
+        }
     }
 
     @Override
@@ -538,9 +552,9 @@ public class GameClient extends GameApplication {
         createFixedPlatforms();
         createMiddlePlatform();
         player = FXGL.entityBuilder()
-                .at(100, 900)
+                .at(PhysicsCore.START_X, PhysicsCore.START_Y)
                 .view(new Circle(25, myColor))
-                .with(new PlayerControl(platformEntities))
+                .with(new PlayerControl(PhysicsClock.WORLD.grid))
                 .buildAndAttach();
         player.setVisible(false);
         createGameZones();
@@ -914,6 +928,26 @@ private void hideLeaderboard() {
                                     } catch (NumberFormatException e) {
                                         System.err.println("[CLIENT ERROR] Invalid port number: " + value);
                                     }
+                                } else if (key.equals("CLIENT_FPS")) {
+                                    try {
+                                        CLIENT_FPS = Integer.parseInt(value);
+                                        System.out.println("[CLIENT] Loaded CLIENT_FPS: " + CLIENT_FPS);
+                                    } catch (NumberFormatException e) {
+                                        System.err.println("[CLIENT ERROR] Invalid frame rate: " + value);
+                                    }
+                                } else if (key.equals("MAP_CACHE_DIR")) {
+                                    MAP_CACHE_DIR = value;
+                                    System.out.println("[CLIENT] Loaded MAP_CACHE_DIR: " + MAP_CACHE_DIR);
+                                } else if (key.equals("UDP_ENABLED")) {
+                                    UDP_ENABLED = Boolean.parseBoolean(value);
+                                    System.out.println("[CLIENT] Loaded UDP_ENABLED: " + UDP_ENABLED);
+                                } else if (key.equals("WIRE_CODEC")) {
+                                    try {
+                                        WIRE_CODEC = WireFormat.valueOf(value.toUpperCase());
+                                        System.out.println("[CLIENT] Loaded WIRE_CODEC: " + WIRE_CODEC);
+                                    } catch (IllegalArgumentException e) {
+                                        System.err.println("[CLIENT ERROR] Invalid wire codec: " + value);
+                                    }
                                 }
                             }
                         }
@@ -945,7 +979,12 @@ private void hideLeaderboard() {
     }
     
     private void connectToServer() {
-        loadServerConfig();  // 先讀取配置
+        // 配置已在 initSettings 讀取
+        openConnection();
+    }
+    
+    // 連到 SERVER_HOST:SERVER_PORT 並完成初始化握手
+    private void openConnection() {
         try {
             System.out.println("[CLIENT] Connecting to server at " + SERVER_HOST + ":" + SERVER_PORT + "...");
             
@@ -964,6 +1003,10 @@ private void hideLeaderboard() {
                 myColor = Color.web(initMsg.colorHex);
                 connected = true;
                 System.out.println("[CLIENT] Connected as " + myPlayerId + " with color " + initMsg.colorHex);
+                requestBinaryCodec(initMsg.wireCodecVersion);
+                if (UDP_ENABLED && initMsg.udpPort > 0) {
+                    startUdp(initMsg.udpPort, initMsg.udpToken);
+                }
                 
                 if (player != null && player.getViewComponent() != null && 
                     !player.getViewComponent().getChildren().isEmpty()) {
@@ -977,6 +1020,211 @@ private void hideLeaderboard() {
         }
     }
     
+    /**
+     * 伺服器支援相同版本時切換為二進位編碼
+     * 先用 Java 序列化送出切換請求，之後的輸出改用二進位框架；
+     * 輸入則等收到伺服器確認後才切換（見 startNetworkThread）
+     */
+    private void requestBinaryCodec(int serverVersion) throws IOException {
+        if (WIRE_CODEC != WireFormat.BINARY || serverVersion != WireCodec.VERSION) {
+            System.out.println("[CLIENT] Wire codec: JAVA");
+            return;
+        }
+        synchronized (sendLock) {
+            out.writeObject(new CodecSwitchMessage(WireCodec.VERSION));
+            out.flush();
+            binaryOut = new BufferedOutputStream(socket.getOutputStream());
+        }
+        System.out.println("[CLIENT] Wire codec: BINARY v" + WireCodec.VERSION);
+    }
+
+    /**
+     * 送出訊息到伺服器（依目前編碼選擇 Java 序列化或二進位框架）
+     */
+    private void sendMessage(Object obj) throws IOException {
+        synchronized (sendLock) {
+            if (binaryOut != null) {
+                WireCodec.writeFrame(binaryOut, obj);
+            } else {
+                out.writeObject(obj);
+                out.flush();
+                out.reset();
+            }
+        }
+    }
+
+    /**
+     * 開啟 UDP 旁路通道：送出 HELLO，收到 HELLO_ACK 後經 TCP 通知伺服器改用 UDP。
+     * 1 秒內沒有回應就維持 TCP。
+     */
+    private void startUdp(int port, long token) {
+        try {
+            udpToken = token;
+            udpInSequence = 0;
+            udpChannel = DatagramChannel.open();
+            udpChannel.connect(new InetSocketAddress(SERVER_HOST, port));
+        } catch (IOException e) {
+            System.out.println("[CLIENT] UDP unavailable (" + e.getMessage() + "), using TCP only");
+            closeUdp();
+            return;
+        }
+        
+        Thread receiver = new Thread(this::udpReceiveLoop, "udp-receiver");
+        receiver.setDaemon(true);
+        receiver.start();
+        
+        Thread handshake = new Thread(() -> {
+            try {
+                for (int i = 0; i < 5 && !udpActive && running; i++) {
+                    udpChannel.write(ByteBuffer.wrap(UdpPacket.control(UdpPacket.HELLO, udpToken)));
+                    Thread.sleep(200);
+                }
+            } catch (Exception e) {
+                // 連接埠不可達等錯誤，維持 TCP
+            }
+            if (!udpActive) {
+                System.out.println("[CLIENT] UDP unreachable, using TCP only");
+                closeUdp();
+            }
+        }, "udp-handshake");
+        handshake.setDaemon(true);
+        handshake.start();
+    }
+    
+    private void udpReceiveLoop() {
+        ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+        DatagramChannel channel = udpChannel;  // 轉址重連後舊的接收執行緒只負責結束
+        try {
+            while (running && channel != null && channel.isOpen()) {
+                buf.clear();
+                channel.read(buf);
+                buf.flip();
+                
+                UdpPacket packet;
+                try {
+                    packet = UdpPacket.parse(buf);
+                } catch (IOException e) {
+                    continue;
+                }
+                if (packet.token != udpToken) continue;
+                lastUdpReceive = System.currentTimeMillis();
+                
+                if (packet.type == UdpPacket.HELLO_ACK && !udpActive) {
+                    udpActive = true;
+                    sendMessage(new UdpStatusMessage(true));
+                    System.out.println("[CLIENT] UDP side channel active");
+                } else if (packet.type == UdpPacket.DATA) {
+                    // 過期的封包直接丟棄
+                    if (packet.seq <= udpInSequence) continue;
+                    udpInSequence = packet.seq;
+                    Object msg = packet.decodeMessage();
+                    if (msg instanceof RoomSnapshot snapshot) {
+                        handleRoomSnapshot(snapshot);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            if (running && channel == udpChannel) fallBackToTcp(e.getMessage());
+        }
+    }
+    
+    /**
+     * UDP 不通時改回 TCP，並通知伺服器之後的快照改走 TCP
+     */
+    private void fallBackToTcp(String reason) {
+        if (udpActive) {
+            udpActive = false;
+            System.out.println("[CLIENT] UDP lost (" + reason + "), falling back to TCP");
+            try {
+                sendMessage(new UdpStatusMessage(false));
+            } catch (IOException e) {
+                // TCP 也斷了，由網路執行緒處理
+            }
+        }
+        closeUdp();
+    }
+    
+    private void closeUdp() {
+        DatagramChannel channel = udpChannel;
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // 忽略
+            }
+        }
+    }
+    
+    /**
+     * 可遺失的訊息（位置、快照確認）：UDP 啟用時走 UDP，否則走 TCP
+     */
+    private void sendUnreliable(Object obj) throws IOException {
+        if (udpActive) {
+            try {
+                byte[] frame = WireCodec.encodeFrame(obj);
+                udpChannel.write(ByteBuffer.wrap(UdpPacket.data(udpToken, udpOutSequence.incrementAndGet(), frame)));
+                return;
+            } catch (IOException e) {
+                fallBackToTcp(e.getMessage());
+            }
+        }
+        sendMessage(obj);
+    }
+    
+    /**
+     * 房間在其他節點：關閉目前連線，改連到指定節點後以房間代碼加入
+     * 在網路執行緒呼叫，之後的 readMessage 讀的是新連線。
+     * 整個替換過程持有 sendLock，其他執行緒的 sendMessage 會等到新連線送出 JoinRoomRequest 之後
+     */
+    private void followRedirect(RoomRedirectMessage redirect) throws IOException {
+        System.out.println("[CLIENT] Room " + redirect.roomCode + " is on " + redirect.host + ":" + 
+                          redirect.port + ", reconnecting");
+        udpActive = false;
+        closeUdp();
+        synchronized (sendLock) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // 忽略
+            }
+            SERVER_HOST = redirect.host;
+            SERVER_PORT = redirect.port;
+            binaryIn = null;
+            binaryOut = null;
+            openConnection();
+            if (!connected) {
+                throw new IOException("Cannot connect to " + redirect.host + ":" + redirect.port);
+            }
+            sendMessage(new JoinRoomRequest(redirect.roomCode));
+        }
+    }
+    
+    /**
+     * 收到地圖公告：先找磁碟快取，沒有才向伺服器索取內容（在 map-cache 執行緒執行）
+     */
+    private void loadAnnouncedMap(MapAnnounceMessage announce) {
+        List<PlatformPlacement> cached = new MapDiskCache(MAP_CACHE_DIR).load(announce.mapHash);
+        if (cached != null) {
+            System.out.println("[CLIENT] Map " + announce.mapHash.substring(0, 8) + " loaded from cache: " + cached.size());
+            javafx.application.Platform.runLater(() -> reloadMapPlatforms(cached));
+            return;
+        }
+        System.out.println("[CLIENT] Map " + announce.mapHash.substring(0, 8) + " not cached, requesting " +
+                           announce.platformCount + " platforms");
+        try {
+            sendMessage(new MapRequest(announce.mapHash));
+        } catch (IOException e) {
+            System.err.println("[CLIENT ERROR] Failed to request map: " + e.getMessage());
+        }
+    }
+    
+    private Object readMessage() throws IOException, ClassNotFoundException {
+        if (binaryIn != null) {
+            return WireCodec.readFrame(binaryIn);
+        }
+        return in.readObject();
+    }
+
     private void showConnectionError() {
         // 清空所有UI
         clearAllUI();
@@ -1050,39 +1298,40 @@ private void hideLeaderboard() {
         new Thread(() -> {
             try {
                 while (running && connected) {
-                    Object obj = in.readObject();
+                    Object obj = readMessage();
                     
-                    if (obj instanceof PhaseChangeMessage phaseMsg) {
+                    if (obj instanceof CodecSwitchMessage) {
+                        // 伺服器確認切換，之後的輸入都是二進位框架
+                        binaryIn = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                        System.out.println("[CLIENT] Server confirmed binary codec");
+                    }
+                    else if (obj instanceof PhaseChangeMessage phaseMsg) {
                         System.out.println("[CLIENT] Received phase change: " + phaseMsg.phase);
                         javafx.application.Platform.runLater(() -> {
                             handlePhaseChange(phaseMsg.phase);
                         });
                     }
+                    else if (obj instanceof MapAnnounceMessage announce) {
+                        mapRequestRetries = 0;
+                        mapCacheIo.execute(() -> loadAnnouncedMap(announce));
+                    }
+                    else if (obj instanceof MapDataMessage mapData) {
+                        System.out.println("[CLIENT] Received map platforms: " + mapData.platforms.size());
+                        if (!MapDiskCache.matches(mapData.mapHash, mapData.platforms)) {
+                            // 內容壞掉就不套用，重新索取；一直不符就中斷連線
+                            if (mapRequestRetries++ >= MAP_REQUEST_RETRIES) {
+                                throw new IOException("Map content does not match hash " + mapData.mapHash);
+                            }
+                            System.err.println("[CLIENT ERROR] Map content does not match hash " + mapData.mapHash + ", requesting again");
+                            sendMessage(new MapRequest(mapData.mapHash));
+                            continue;
+                        }
+                        mapCacheIo.execute(() -> new MapDiskCache(MAP_CACHE_DIR).store(mapData.mapHash, mapData.platforms));
+                        javafx.application.Platform.runLater(() -> reloadMapPlatforms(mapData.platforms));
+                    }
                     else if (obj instanceof RandomPlatformsMessage mapMsg) {
                         System.out.println("[CLIENT] Received map platforms: " + mapMsg.randomPlatforms.size());
-                        javafx.application.Platform.runLater(() -> {
-                            // 游戲重新開始時重置地圖加載狀態
-                            if (mapPlatformsLoaded) {
-                                System.out.println("[CLIENT] Game restarting, clearing old map platforms");
-                                // 清除舊地圖平台
-                                List<Entity> toRemove = new ArrayList<>();
-                                for (Entity platform : platformEntities) {
-                                    // 保留起點、終點、地板和標籤
-                                    if (platform != startPlatform && platform != endPlatform && 
-                                        platform != groundPlatform && platform != middlePlatform &&
-                                        platformEntities.indexOf(platform) > 3) {
-                                        toRemove.add(platform);
-                                    }
-                                }
-                                for (Entity e : toRemove) {
-                                    e.removeFromWorld();
-                                    platformEntities.remove(e);
-                                }
-                                mapPlatformsLoaded = false;
-                                System.out.println("[CLIENT] Old map cleared, ready for new map");
-                            }
-                            handleMapPlatforms(mapMsg.randomPlatforms);
-                        });
+                        javafx.application.Platform.runLater(() -> reloadMapPlatforms(mapMsg.randomPlatforms));
                     }
                     else if (obj instanceof ObjectListMessage objListMsg) {
                         System.out.println("[CLIENT] Received object list: " + objListMsg.objects.size() + " objects");
@@ -1104,6 +1353,9 @@ private void hideLeaderboard() {
                             handlePlacement(placementMsg);
                         });
                     }
+                    else if (obj instanceof RoomSnapshot snapshot) {
+                        handleRoomSnapshot(snapshot);
+                    }
                     else if (obj instanceof PlayerInfo info) {
                         javafx.application.Platform.runLater(() -> {
                             updateOtherPlayer(info);
@@ -1211,6 +1463,7 @@ private void hideLeaderboard() {
                             
                             // 重置地圖加載狀態,以便下一回合重新加載地圖平台
                             mapPlatformsLoaded = false;
+                            levelEntities.clear();
                             System.out.println("[CLIENT] Reset mapPlatformsLoaded to allow reloading in next round");
                             
                             // 清除所有子彈
@@ -1244,6 +1497,12 @@ private void hideLeaderboard() {
                             roomUIEntities.add(msgEntity);
                         });
                     }
+                    else if (obj instanceof LevelSnapshot level) {
+                        javafx.application.Platform.runLater(() -> applyLevelSnapshot(level));
+                    }
+                    else if (obj instanceof RoomRedirectMessage redirect) {
+                        followRedirect(redirect);
+                    }
                                 
                 }
             } catch (Exception e) {
@@ -1264,18 +1523,18 @@ private void hideLeaderboard() {
                     // 只在遊戲中且玩家可見時發送位置
                     if (connected && uiState == UIState.PLAYING && 
                         player != null && player.isVisible() ) {
-                        synchronized (out) {
-                            PlayerControl pc = player.getComponent(PlayerControl.class);
-                            PlayerInfo info = new PlayerInfo(
-                                myPlayerId, toHex(myColor),
-                                player.getX(), player.getY(),
-                                pc.isCrouching(),
-                                player.getTransformComponent().getScaleY()
-                            );
-                            out.writeObject(info);
-                            out.flush();
-                            out.reset();
-                        }
+                        PlayerControl pc = player.getComponent(PlayerControl.class);
+                        PlayerInfo info = new PlayerInfo(
+                            myPlayerId, toHex(myColor),
+                            player.getX(), player.getY(),
+                            pc.isCrouching(),
+                            player.getTransformComponent().getScaleY()
+                        );
+                        sendUnreliable(info);
+                    }
+                    // 伺服器每秒都會送 UDP 心跳，太久沒收到就改回 TCP
+                    if (udpActive && System.currentTimeMillis() - lastUdpReceive > UDP_TIMEOUT_MS) {
+                        fallBackToTcp("no datagrams for " + UDP_TIMEOUT_MS + "ms");
                     }
                     Thread.sleep(50);
                 } catch (Exception e) {
@@ -1296,20 +1555,16 @@ private void hideLeaderboard() {
                     if (connected && uiState == UIState.PLAYING && 
                         previewPlatform != null && myPlacement == null && selectedObj != null) {
                         
-                        synchronized (out) {
-                            PlatformPlacement preview = new PlatformPlacement(
-                                selectedObj.id,
-                                previewPlatform.getX(),
-                                previewPlatform.getY(),
-                                selectedObj.width,
-                                selectedObj.height,
-                                selectedObj.color,
-                                currentRotation
-                            );
-                            out.writeObject(new PlacementMessage(myPlayerId, preview, false));
-                            out.flush();
-                            out.reset();
-                        }
+                        PlatformPlacement preview = new PlatformPlacement(
+                            selectedObj.id,
+                            previewPlatform.getX(),
+                            previewPlatform.getY(),
+                            selectedObj.width,
+                            selectedObj.height,
+                            selectedObj.color,
+                            currentRotation
+                        );
+                        sendMessage(new PlacementMessage(myPlayerId, preview, false));
                     }
                     Thread.sleep(100);
                 } catch (Exception e) {
@@ -1424,33 +1679,11 @@ private void handlePhaseChange(GamePhase newPhase) {
             }
             otherPreviewEntities.clear();
             
-            // 創建所有玩家本回合放置的物件（依照物件類型建立行為）
-            System.out.println("[CLIENT] ========== PLAYING Phase Objects ==========");
-            System.out.println("[CLIENT] Total map platforms loaded: " + (mapPlatformsLoaded ? "Yes" : "No"));
-            System.out.println("[CLIENT] Current platformEntities count: " + platformEntities.size());
-            System.out.println("[CLIENT] Player placed objects to create:");
-            System.out.println("[CLIENT]   - My placement: " + (myPlacement != null));
-            System.out.println("[CLIENT]   - Other placements: " + otherPlacements.size());
-            
-            for (Map.Entry<String, PlatformPlacement> entry : otherPlacements.entrySet()) {
-                PlatformPlacement p = entry.getValue();
-                System.out.println("[CLIENT] Creating OTHER player object: player=" + entry.getKey() + 
-                                 ", id=" + p.id + ", at (" + p.x + "," + p.y + "), rotation=" + p.rotation);
-                createPlacedObject(p);
-            }
-            if (myPlacement != null) {
-                System.out.println("[CLIENT] Creating MY object: id=" + myPlacement.id + 
-                                 ", at (" + myPlacement.x + "," + myPlacement.y + "), rotation=" + myPlacement.rotation);
-                createPlacedObject(myPlacement);
-            }
-            
-            System.out.println("[CLIENT] After creating placed objects, platformEntities count: " + platformEntities.size());
-            System.out.println("[CLIENT] =============================================");
-            
+            // 本回合放置的物件由之後的 LevelSnapshot 一次建立
             otherPlacements.clear();
             
             player.setVisible(true);
-            player.setPosition(100, 900);
+            player.setPosition(PhysicsCore.START_X, PhysicsCore.START_Y);
             player.getComponent(PlayerControl.class).reset();
             gameStartTime = System.currentTimeMillis();
             break;
@@ -1475,6 +1708,34 @@ private void handlePhaseChange(GamePhase newPhase) {
         }
     }
     
+    /**
+     * 遊戲開始時收到地圖（快取命中或伺服器送來），先清掉上一場的地圖平台
+     */
+    private void reloadMapPlatforms(List<PlatformPlacement> mapPlatforms) {
+        // 游戲重新開始時重置地圖加載狀態
+        if (mapPlatformsLoaded) {
+            System.out.println("[CLIENT] Game restarting, clearing old map platforms");
+            // 清除舊地圖平台
+            List<Entity> toRemove = new ArrayList<>();
+            for (Entity platform : platformEntities) {
+                // 保留起點、終點、地板和標籤
+                if (platform != startPlatform && platform != endPlatform && 
+                    platform != groundPlatform && platform != middlePlatform &&
+                    platformEntities.indexOf(platform) > 3) {
+                    toRemove.add(platform);
+                }
+            }
+            for (Entity e : toRemove) {
+                e.removeFromWorld();
+                platformEntities.remove(e);
+            }
+            mapPlatformsLoaded = false;
+            levelEntities.clear();
+            System.out.println("[CLIENT] Old map cleared, ready for new map");
+        }
+        handleMapPlatforms(mapPlatforms);
+    }
+    
     private void handleMapPlatforms(List<PlatformPlacement> mapPlatforms) {
         // 只在遊戲開始時加載地圖平台一次
         if (mapPlatformsLoaded) {
@@ -1483,13 +1744,42 @@ private void handlePhaseChange(GamePhase newPhase) {
         }
         
         System.out.println("[CLIENT] Loading map with " + mapPlatforms.size() + " platforms");
-        for (PlatformPlacement placement : mapPlatforms) {
-            createPlacedObject(placement);
+        // 地圖平台的關卡編號就是在地圖中的順序
+        levelEntities.clear();
+        for (int i = 0; i < mapPlatforms.size(); i++) {
+            Entity e = createPlacedObject(mapPlatforms.get(i));
+            if (e != null) levelEntities.put(i, e);
         }
         mapPlatformsLoaded = true;
         System.out.println("[CLIENT] Map platforms loaded successfully");
     }
     
+    /**
+     * 套用伺服器算好的回合關卡：移除被橡皮擦擦掉的物件，再一次建立本回合的新物件
+     */
+    private void applyLevelSnapshot(LevelSnapshot level) {
+        int removed = 0;
+        if (level.removedIds != null) {
+            for (int id : level.removedIds) {
+                Entity e = levelEntities.remove(id);
+                if (e == null) continue;
+                e.removeFromWorld();
+                platformEntities.remove(e);
+                deathZones.remove(e);
+                removed++;
+            }
+        }
+        if (level.added != null) {
+            for (int i = 0; i < level.added.size(); i++) {
+                Entity e = createPlacedObject(level.added.get(i));
+                if (e != null) levelEntities.put(level.addedIds[i], e);
+            }
+        }
+        System.out.println("[CLIENT] Level round " + level.round + ": +" + 
+                          (level.added != null ? level.added.size() : 0) + " -" + removed + 
+                          " (" + levelEntities.size() + "/" + level.objectCount + " objects)");
+    }
+    
     private void updateOtherPreview(String playerId, PlatformPlacement placement) {
         Entity preview = otherPreviewEntities.get(playerId);
         
@@ -1511,6 +1801,39 @@ private void handlePhaseChange(GamePhase newPhase) {
         preview.setRotation(placement.rotation);
     }
     
+    /**
+     * 解出差分快照並回覆確認（在網路執行緒執行）
+     * 找不到差分基準時回覆 0，伺服器下一個 tick 會改送完整快照
+     */
+    private synchronized void handleRoomSnapshot(RoomSnapshot snapshot) throws IOException {
+        SnapshotState latest = snapshotHistory.latest();
+        if (latest != null && snapshot.tick <= latest.tick && snapshot.baseTick != 0) {
+            // 過期或重送的快照，只重新確認
+            sendUnreliable(new SnapshotAck(latest.tick));
+            return;
+        }
+        SnapshotState state;
+        try {
+            state = SnapshotCodec.decode(snapshot, snapshotHistory.get(snapshot.baseTick));
+        } catch (IOException e) {
+            System.out.println("[CLIENT] Snapshot " + snapshot.tick + " rejected (" + e.getMessage() + "), requesting full");
+            sendUnreliable(new SnapshotAck(0));
+            return;
+        }
+        snapshotHistory.put(state);
+        sendUnreliable(new SnapshotAck(state.tick));
+        
+        List<PlayerInfo> players = state.toPlayerInfos();
+        javafx.application.Platform.runLater(() -> {
+            for (PlayerInfo info : players) {
+                // 快照包含自己的位置，略過
+                if (!info.playerId.equals(myPlayerId)) {
+                    updateOtherPlayer(info);
+                }
+            }
+        });
+    }
+    
     private void updateOtherPlayer(PlayerInfo info) {
         Entity otherPlayer = otherPlayers.get(info.playerId);
         
@@ -1575,19 +1898,11 @@ private void handlePhaseChange(GamePhase newPhase) {
         Rectangle rect = new Rectangle(p.width, p.height, color);
         Entity e;
         
-        // 詳細日誌：顯示正在創建的物件
-        System.out.println("[CLIENT] Creating object: id=" + p.id + ", color=" + p.color + 
-                         ", pos=(" + p.x + "," + p.y + "), size=" + p.width + "x" + p.height + 
-                         ", hasInfo=" + (info != null) + (info != null ? ", type=" + info.type : ""));
-        
         // 如果沒有 info，說明這是地圖平台，根據顏色決定類型
         if (info == null) {
-            System.out.println("[CLIENT] No info found, treating as map platform with color: " + p.color);
-            
             // 根據顏色判斷平台類型
             if (p.color.equalsIgnoreCase("#FF0000") || p.color.equalsIgnoreCase("FF0000")) {
                 // 紅色 = 死亡區
-                System.out.println("[CLIENT] Creating DEATH platform from map");
                 rect.setFill(Color.RED);  // 確保紅色
                 e = FXGL.entityBuilder()
                         .at(p.x, p.y)
@@ -1598,11 +1913,9 @@ private void handlePhaseChange(GamePhase newPhase) {
                 e.setRotation(p.rotation);
                 deathZones.add(e);
                 platformEntities.add(e);
-                System.out.println("[CLIENT] Added death zone to list, total: " + deathZones.size());
                 return e;
             } else if (p.color.equalsIgnoreCase("#00FF00")) {
                 // 綠色 = 彈跳
-                System.out.println("[CLIENT] Creating BOUNCE platform from map");
                 e = FXGL.entityBuilder()
                         .at(p.x, p.y)
                         .view(rect)
@@ -1614,7 +1927,6 @@ private void handlePhaseChange(GamePhase newPhase) {
                 return e;
             } else if (p.color.equalsIgnoreCase("#00AAFF")) {
                 // 藍色 = 水平移動
-                System.out.println("[CLIENT] Creating MOVING_H platform from map");
                 e = FXGL.entityBuilder()
                         .at(p.x, p.y)
                         .view(rect)
@@ -1626,7 +1938,6 @@ private void handlePhaseChange(GamePhase newPhase) {
                 return e;
             } else if (p.color.equalsIgnoreCase("#AA00FF")) {
                 // 紫色 = 垂直移動
-                System.out.println("[CLIENT] Creating MOVING_V platform from map");
                 e = FXGL.entityBuilder()
                         .at(p.x, p.y)
                         .view(rect)
@@ -1638,13 +1949,11 @@ private void handlePhaseChange(GamePhase newPhase) {
                 return e;
             } else {
                 // 預設為普通平台
-                System.out.println("[CLIENT] Creating NORMAL platform from map");
                 return createPlatformWithRotation(p.x, p.y, p.width, p.height, color, p.rotation);
             }
         }
         
         // 有 info，說明是玩家選擇的物件
-        System.out.println("[CLIENT] Creating player-selected object of type: " + info.type);
         switch (info.type) {
             case MOVING_H: {
                 e = FXGL.entityBuilder()
@@ -1714,47 +2023,9 @@ private void handlePhaseChange(GamePhase newPhase) {
                 platformEntities.add(e);  // 加入平台列表，可以踩
                 return e;
             }
-            case ERASER: {
-                // ERASER 不顯示方塊，清除範圍內的所有平台和死亡區
-                double eraserLeft = p.x;
-                double eraserRight = p.x + p.width;
-                double eraserTop = p.y;
-                double eraserBottom = p.y + p.height;
-                
-                System.out.println("[CLIENT] ERASER at (" + p.x + "," + p.y + ") size " + p.width + "x" + p.height);
-                
-                List<Entity> toRemove = new ArrayList<>();
-                
-                // 檢查platformEntities中與橡皮擦重疊的平台(碰到邊緣就算)
-                for (Entity platform : platformEntities) {
-                    double platformLeft = platform.getX();
-                    double platformRight = platform.getX() + platform.getWidth();
-                    double platformTop = platform.getY();
-                    double platformBottom = platform.getY() + platform.getHeight();
-                    
-                    // AABB 碰撞檢測 - 只要有任何重疊就清除
-                    boolean overlaps = !(eraserRight < platformLeft || 
-                                        eraserLeft > platformRight || 
-                                        eraserBottom < platformTop || 
-                                        eraserTop > platformBottom);
-                    
-                    if (overlaps) {
-                        toRemove.add(platform);
-                        System.out.println("[CLIENT] ERASER marked platform at (" + platform.getX() + "," + platform.getY() + ") for removal");
-                    }
-                }
-                
-                // 移除所有標記的平台
-                for (Entity entity : toRemove) {
-                    entity.setVisible(false);  // 先設為不可見
-                    entity.removeFromWorld();  // 然後從世界移除
-                    platformEntities.remove(entity);
-                    deathZones.remove(entity);  // 如果是死亡區也要移除
-                }
-                
-                System.out.println("[CLIENT] ERASER cleared " + toRemove.size() + " platforms/zones");
+            case ERASER:
+                // 橡皮擦由伺服器在 LevelSnapshot 中套用，不會出現在這裡
                 return null;
-            }
             case NORMAL:
             default:
                 return createPlatformWithRotation(p.x, p.y, p.width, p.height, color, p.rotation);
@@ -1791,13 +2062,10 @@ private void handlePhaseChange(GamePhase newPhase) {
         if (uiState == UIState.MENU && roomCodeInput != null && roomCodeInput.isVisible()) {
             String code = roomCodeInput.getText().trim();
             
-            if (code.length() == 4 && code.matches("\\d{4}")) {
+            // 房間代碼 4-6 位數，伺服器使用率高時會變長
+            if (code.matches("\\d{4,6}")) {
                 try {
-                    synchronized (out) {
-                        out.writeObject(new JoinRoomRequest(code));
-                        out.flush();
-                        out.reset();
-                    }
+                    sendMessage(new JoinRoomRequest(code));
                     System.out.println("[CLIENT] Sent join room request: " + code);
                     roomCodeInput.setVisible(false);
                     roomCodeInput.clear();
@@ -2029,11 +2297,7 @@ private void handlePhaseChange(GamePhase newPhase) {
                 }
                 
                 try {
-                    synchronized (out) {
-                        out.writeObject(new SelectionMessage(myPlayerId, obj.id));
-                        out.flush();
-                        out.reset();
-                    }
+                    sendMessage(new SelectionMessage(myPlayerId, obj.id));
                     System.out.println("[CLIENT] Sent selection to server");
                 } catch (Exception e) {
                     System.err.println("[CLIENT ERROR] Failed to send selection: " + e.getMessage());
@@ -2106,11 +2370,7 @@ private void handlePhaseChange(GamePhase newPhase) {
                              myPlacement.y + ") rotation=" + currentRotation);
             
             try {
-                synchronized (out) {
-                    out.writeObject(new PlacementMessage(myPlayerId, myPlacement, true));
-                    out.flush();
-                    out.reset();
-                }
+                sendMessage(new PlacementMessage(myPlayerId, myPlacement, true));
                 System.out.println("[CLIENT] Sent confirmed placement to server");
             } catch (Exception e) {
                 System.err.println("[CLIENT ERROR] Failed to send placement: " + e.getMessage());
@@ -2138,6 +2398,9 @@ private void handlePhaseChange(GamePhase newPhase) {
     
     @Override
     protected void onUpdate(double tpf) {
+        // 物理以固定步長推進（玩家、移動平台、子彈），與畫面更新率無關
+        PhysicsClock.WORLD.advance(tpf);
+        
         // 處理拖曳（允許在本地 PLACING 或 SELECTING 狀態拖曳）
         if (isDragging && previewPlatform != null && myPlacement == null) {
             Point2D mousePos = FXGL.getInput().getMousePositionWorld();
@@ -2179,11 +2442,7 @@ private void handlePhaseChange(GamePhase newPhase) {
                 if (bullet.checkHit(player.getX(), player.getY(), 25)) {
                     // 被子彈擊中 - 發送失敗訊息
                     try {
-                        synchronized (out) {
-                            out.writeObject(new FailMessage(myPlayerId));
-                            out.flush();
-                            out.reset();
-                        }
+                        sendMessage(new FailMessage(myPlayerId));
                         hasFailed = true;
                         player.setVisible(false);
                         // 禁用玩家移動,但允許觀戰
@@ -2232,7 +2491,7 @@ private void handlePhaseChange(GamePhase newPhase) {
                 // 檢查玩家是否在平台上方範圍內,且底部接近平台頂部
                 boolean isOnTopOfPlatform = (playerX > platformLeft && playerX < platformRight &&
                                             Math.abs(playerBottom - platformTop) < 5 &&
-                                            pc.velocityY >= 0);  // 向下移動或靜止
+                                            pc.getVelocityY() >= 0);  // 向下移動或靜止
                 
                 if (isOnTopOfPlatform) {
                     isStandingOnDeathPlatform = true;
@@ -2244,11 +2503,7 @@ private void handlePhaseChange(GamePhase newPhase) {
             if (isStandingOnDeathPlatform) {
                 try {
                     System.out.println("[CLIENT] Sending FailMessage to server for player: " + myPlayerId);
-                    synchronized (out) {
-                        out.writeObject(new FailMessage(myPlayerId));
-                        out.flush();
-                        out.reset();
-                    }
+                    sendMessage(new FailMessage(myPlayerId));
                     hasFailed = true;
                     // 玩家變扁,並開始恢復計時
                     player.setScaleY(0.2);
@@ -2273,11 +2528,7 @@ private void handlePhaseChange(GamePhase newPhase) {
             
             try {
                 long finishTime = System.currentTimeMillis() - gameStartTime;
-                synchronized (out) {
-                    out.writeObject(new FinishMessage(myPlayerId, finishTime));
-                    out.flush();
-                    out.reset();
-                }
+                sendMessage(new FinishMessage(myPlayerId, finishTime));
                 hasFinished = true;
                 
                 // 禁用玩家移動,但不移動攝影機(回合結束時統一移動)
@@ -2292,11 +2543,7 @@ private void handlePhaseChange(GamePhase newPhase) {
         // 檢查掉出地圖(上下邊界)
         if (playerY > SCREEN_HEIGHT + 100 || playerY < -100) {
             try {
-                synchronized (out) {
-                    out.writeObject(new FailMessage(myPlayerId));
-                    out.flush();
-                    out.reset();
-                }
+                sendMessage(new FailMessage(myPlayerId));
                 hasFailed = true;
                 player.setVisible(false);
                 // 禁用玩家移動,但允許觀戰
@@ -2313,6 +2560,7 @@ private void handlePhaseChange(GamePhase newPhase) {
         System.out.println("[CLIENT] Cleaning up...");
         running = false;
         connected = false;
+        closeUdp();
         try {
             Thread.sleep(100);
             if (out != null) out.close();
@@ -2366,16 +2614,53 @@ class SmoothPlayerComponent extends Component {
 }
 
 /**
- * 修復後的碰撞檢測 - 放在 GameClient.java 中的 PlatformComponent 類別
+ * 平台元件 - PlatformBody 的畫面端
+ * 碰撞、變換快取與彈跳都在 PlatformBody（見 PhysicsCore.java），這裡只把 entity 的位置與角度同步過去，
+ * 並在加入與移除時登記到 PhysicsClock 的寬相位格子。
  */
 class PlatformComponent extends Component {
-    private double width;
-    private double height;
+    private final double width;
+    private final double height;
+    private PlatformBody body;
+    private final InvalidationListener moved = o -> {
+        // 移動平台由模擬驅動，entity 的座標只是內插後的畫面
+        if (body.isMoving()) return;
+        body.setPosition(entity.getX(), entity.getY());
+        PhysicsClock.WORLD.grid.update(body);
+    };
+    private final InvalidationListener turned = o -> {
+        body.setRotation(entity.getRotation());
+        PhysicsClock.WORLD.grid.update(body);
+    };
 
     public PlatformComponent(double width, double height) {
         this.width = width;
         this.height = height;
     }
+    
+    /**
+     * 加入世界時登記到寬相位格子，之後位置或角度改變（移動平台、放置後 setRotation）才更新格子
+     */
+    @Override
+    public void onAdded() {
+        body = new PlatformBody(entity.getX(), entity.getY(), width, height, entity.getRotation());
+        PhysicsClock.WORLD.grid.insert(body);
+        entity.xProperty().addListener(moved);
+        entity.yProperty().addListener(moved);
+        entity.angleProperty().addListener(turned);
+    }
+    
+    @Override
+    public void onRemoved() {
+        entity.xProperty().removeListener(moved);
+        entity.yProperty().removeListener(moved);
+        entity.angleProperty().removeListener(turned);
+        PhysicsClock.WORLD.grid.remove(body);
+    }
+    
+    PlatformBody getBody() {
+        return body;
+    }
 
     public double getWidth() {
         return width;
@@ -2384,246 +2669,185 @@ class PlatformComponent extends Component {
     public double getHeight() {
         return height;
     }
+}
 
+/**
+ * 固定步長模擬的物體
+ */
+interface FixedStepBody {
     /**
-     * 修復後的碰撞檢測 - 支持旋轉平台
+     * 前進一個固定步長（秒）
      */
-    public CollisionInfo checkCollision(double playerX, double playerY, double radius, double velocityY) {
-        // 如果平台有旋轉，使用旋轉碰撞檢測
-        if (Math.abs(entity.getRotation()) > 0.1) {
-            return checkRotatedCollision(playerX, playerY, radius, velocityY);
-        }
-        
-        // 無旋轉的平台使用原本的 AABB 碰撞檢測
-        double platformLeft = entity.getX();
-        double platformRight = entity.getX() + width;
-        double platformTop = entity.getY();
-        double platformBottom = entity.getY() + height;
-
-        double playerLeft = playerX - radius;
-        double playerRight = playerX + radius;
-        double playerTop = playerY - radius;
-        double playerBottom = playerY + radius;
-
-        boolean overlapping = !(playerRight < platformLeft || 
-                                playerLeft > platformRight || 
-                                playerBottom < platformTop || 
-                                playerTop > platformBottom);
-
-        if (!overlapping) {
-            return new CollisionInfo(false, CollisionSide.NONE);
-        }
-
-        double overlapLeft = playerRight - platformLeft;
-        double overlapRight = platformRight - playerLeft;
-        double overlapTop = playerBottom - platformTop;
-        double overlapBottom = platformBottom - playerTop;
-
-        double minOverlap = Math.min(Math.min(overlapLeft, overlapRight), 
-                                     Math.min(overlapTop, overlapBottom));
+    void step(double dt);
+    
+    /**
+     * 每幀模擬完成後呼叫：畫面位置 = 上一步與目前這步之間的內插（alpha 介於 0 與 1）
+     */
+    void interpolate(double alpha);
+}
 
-        CollisionSide side = CollisionSide.NONE;
-        
-        if (minOverlap == overlapTop && velocityY >= 0) {
-            side = CollisionSide.TOP;
-        } else if (minOverlap == overlapBottom && velocityY <= 0) {
-            side = CollisionSide.BOTTOM;
-        } else if (minOverlap == overlapLeft) {
-            side = CollisionSide.LEFT;
-        } else if (minOverlap == overlapRight) {
-            side = CollisionSide.RIGHT;
+/**
+ * 固定步長的物理時鐘
+ * 每幀把 tpf 累加起來，每滿 STEP 秒就讓所有物體前進一步，剩下的零頭用來內插畫面位置。
+ * 模擬速度與畫面更新率無關：畫面降到 30 fps 時每幀跑兩步，結果與 60 fps 相同。
+ * 同一步內依階段執行：先移動平台，再子彈，最後玩家（玩家看到的是平台這一步的位置）。
+ * 只在 FX 執行緒使用，由 GameClient.onUpdate 推進。
+ */
+class PhysicsClock {
+    static final PhysicsClock WORLD = new PhysicsClock();
+    
+    static final double STEP = PhysicsCore.STEP;     // 原本每幀的數值（重力、速度）都是以 60 fps 調的
+    private static final int MAX_STEPS_PER_FRAME = 5; // 卡頓後最多補這麼多步，其餘丟掉，避免越補越慢
+    
+    static final int PHASE_PLATFORMS = 0;
+    static final int PHASE_PROJECTILES = 1;
+    static final int PHASE_PLAYERS = 2;
+    
+    final PlatformGrid grid = new PlatformGrid();    // 場上所有平台（PlatformComponent 加入時登記）
+    
+    private final List<List<FixedStepBody>> phases = List.of(new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
+    private FixedStepBody[] snapshot = new FixedStepBody[64];
+    private double accumulator = 0;
+    private long steps = 0;
+    
+    void add(FixedStepBody body, int phase) {
+        phases.get(phase).add(body);
+    }
+    
+    void remove(FixedStepBody body) {
+        for (List<FixedStepBody> list : phases) {
+            if (list.remove(body)) return;
         }
-
-        return new CollisionInfo(true, side);
     }
     
     /**
-     * 旋轉平台的碰撞檢測（修復版本）
-     * 使用圓形與旋轉矩形的精確碰撞檢測
+     * 推進一幀：執行累積的固定步長，再更新所有物體的畫面位置
      */
-    private CollisionInfo checkRotatedCollision(double playerX, double playerY, double radius, double velocityY) {
-    // 新方法：使用局部座標 + 單純頂面判定，避免高速旋轉穿透
-    double angleDeg = entity.getRotation();
-    double centerX = entity.getX() + width / 2.0;
-    double centerY = entity.getY() + height / 2.0;
-    double angle = Math.toRadians(-angleDeg);
-
-    // 玩家底部點（更貼近踩踏感）
-    double playerBottomX = playerX;
-    double playerBottomY = playerY + radius * 0.6; // 若半徑 25，採底部偏上些減少誤判
-
-    double dx = playerBottomX - centerX;
-    double dy = playerBottomY - centerY;
-    double localX = dx * Math.cos(angle) - dy * Math.sin(angle);
-    double localY = dx * Math.sin(angle) + dy * Math.cos(angle);
-
-    double halfW = width / 2.0;
-    double halfH = height / 2.0;
-
-    // 是否在矩形投影範圍內（含少量邊界緩衝）
-    double padding = 4.0;
-    boolean insideProj = localX >= -halfW - padding && localX <= halfW + padding &&
-                         localY >= -halfH - padding && localY <= halfH + padding;
-    if (!insideProj) {
-        return new CollisionInfo(false, CollisionSide.NONE);
+    void advance(double tpf) {
+        accumulator += tpf;
+        int n = 0;
+        while (accumulator >= STEP && n < MAX_STEPS_PER_FRAME) {
+            for (List<FixedStepBody> list : phases) {
+                // 子彈在步長中可能移出世界而被移除，走訪複本
+                int count = copy(list);
+                for (int i = 0; i < count; i++) {
+                    snapshot[i].step(STEP);
+                }
+            }
+            accumulator -= STEP;
+            steps++;
+            n++;
+        }
+        if (n == MAX_STEPS_PER_FRAME && accumulator >= STEP) {
+            accumulator = 0;
+        }
+        double alpha = accumulator / STEP;
+        for (List<FixedStepBody> list : phases) {
+            int count = copy(list);
+            for (int i = 0; i < count; i++) {
+                snapshot[i].interpolate(alpha);
+            }
+        }
     }
-
-    // 僅處理頂面著地：玩家局部座標需要在頂面上方且正在下落
-    boolean falling = velocityY >= 0;
-    boolean aboveTopSurface = localY <= -halfH + 6; // 距離頂面容忍值
-    if (falling && aboveTopSurface) {
-        return new CollisionInfo(true, CollisionSide.TOP);
+    
+    long getSteps() {
+        return steps;
     }
-
-    // 其餘僅當作側面/底面簡化：不改變 Y，但阻擋 X（此處不細分，回傳一般碰撞）
-    return new CollisionInfo(true, CollisionSide.NONE);
+    
+    private int copy(List<FixedStepBody> list) {
+        int count = list.size();
+        if (count > snapshot.length) {
+            snapshot = new FixedStepBody[Math.max(count, snapshot.length * 2)];
+        }
+        for (int i = 0; i < count; i++) {
+            snapshot[i] = list.get(i);
+        }
+        return count;
     }
 }
 
 /**
  * 修復後的玩家控制 - 放在 GameClient.java 中
+ * 移動與碰撞由 PlayerBody 在 PhysicsClock 的固定步長中計算，entity 的位置只是內插後的畫面
  */
-class PlayerControl extends Component {
-    private double speed = 8.0;
-    private double velocityX = 0;
-    public double velocityY = 0;  // 改為public以便死亡檢測使用
-    private double jumpStrength = 20.0;
-    private double gravity = 1.0;
-    private boolean onGround = false;
+class PlayerControl extends Component implements FixedStepBody {
+    private final PlayerBody body = new PlayerBody();
+    private final PlatformGrid platforms;
     private boolean crouching = false;
-    private List<Entity> platforms;
-    private double playerRadius = 25;
     private boolean enabled = true;  // 控制玩家是否可移動
-    
-    private final double LEFT_BOUNDARY = playerRadius;
-    private final double RIGHT_BOUNDARY = 5000 - playerRadius; // 使用整個關卡寬度 FINISH_X
-    private final double TOP_BOUNDARY = playerRadius;
-    private final double MAX_VELOCITY_Y = 25;
+    private double inputX = 0;        // 這一幀按住的左右移動，整幀的每一步都套用
+    private boolean inputConsumed = false;
 
-    public PlayerControl(List<Entity> platforms) {
+    public PlayerControl(PlatformGrid platforms) {
         this.platforms = platforms;
     }
     
+    @Override
+    public void onAdded() {
+        syncFromEntity();
+        PhysicsClock.WORLD.add(this, PhysicsClock.PHASE_PLAYERS);
+    }
+    
+    @Override
+    public void onRemoved() {
+        PhysicsClock.WORLD.remove(this);
+    }
+    
+    // 外部直接設定位置後（例如回合開始放回起點）讓模擬從那裡開始，不做內插
+    private void syncFromEntity() {
+        body.reset(entity.getX(), entity.getY());
+    }
+    
     public void setEnabled(boolean enabled) {
         this.enabled = enabled;
         if (!enabled) {
-            velocityX = 0;
-            velocityY = 0;
+            body.stop();
         }
     }
     
     public void reset() {
-        velocityX = 0;
-        velocityY = 0;
-        onGround = false;
+        inputX = 0;
         crouching = false;
         enabled = true;
+        syncFromEntity();
     }
-   @Override
-public void onUpdate(double tpf) {
-    if (!enabled) return;  // 如果禁用，不處理任何移動
-    
-    velocityY += gravity;
-    
-    if (velocityY > MAX_VELOCITY_Y) velocityY = MAX_VELOCITY_Y;
-    if (velocityY < -MAX_VELOCITY_Y) velocityY = -MAX_VELOCITY_Y;
-    
-    // 先移動X
-    double oldX = entity.getX();
-    entity.setX(entity.getX() + velocityX);
     
-    // 檢查X方向碰撞
-    boolean xCollision = false;
-    for (Entity platform : platforms) {
-        if (!platform.hasComponent(PlatformComponent.class)) continue;
-        
-        PlatformComponent pc = platform.getComponent(PlatformComponent.class);
-        CollisionInfo collision = pc.checkCollision(entity.getX(), entity.getY(), playerRadius, velocityY);
-        
-        if (collision.collided && (collision.side == CollisionSide.LEFT || collision.side == CollisionSide.RIGHT)) {
-            entity.setX(oldX);  // 恢復到舊位置
-            velocityX = 0;
-            xCollision = true;
-            break;
-        }
+    /**
+     * 垂直速度（死亡平台判定用，向下為正）
+     */
+    public double getVelocityY() {
+        return body.getVelocityY();
     }
     
-    // 再移動Y
-    double oldY = entity.getY();
-    entity.setY(entity.getY() + velocityY);
-    
-    onGround = false;
-    
-    // 檢查Y方向碰撞
-  for (Entity platform : platforms) {
-        if (!platform.hasComponent(PlatformComponent.class)) continue;
-        
-        PlatformComponent pc = platform.getComponent(PlatformComponent.class);
-        CollisionInfo collision = pc.checkCollision(entity.getX(), entity.getY(), playerRadius, velocityY);
-        
-        if (collision.collided) {
-            switch (collision.side) {
-                case TOP:
-                    // 站立在平台上
-                    entity.setY(platform.getY() - playerRadius);
-                    
-                    if (velocityY > 0) velocityY = 0;
-                    onGround = true;
-                    
-                    // 在這裡添加彈跳平台檢測
-                    if (platform.hasComponent(BouncePlatformComponent.class)) {
-                        BouncePlatformComponent bounce = platform.getComponent(BouncePlatformComponent.class);
-                        velocityY = -bounce.getBounceStrength();
-                        onGround = false;  // 彈跳時離地
-                    }
-                    break;
-                    
-                case BOTTOM:
-                    entity.setY(oldY);
-                    if (velocityY < 0) velocityY = 0;
-                    break;
-                    
-                case LEFT:
-                case RIGHT:
-                    if (!xCollision) {
-                        entity.setX(oldX);
-                        velocityX = 0;
-                    }
-                    break;
-            }
-        }
+    @Override
+    public void step(double dt) {
+        if (!enabled) return;  // 如果禁用，不處理任何移動
+        body.step(platforms, inputX);
+        inputConsumed = true;
     }
     
-    // 邊界檢查
-    if (entity.getX() < LEFT_BOUNDARY) {
-        entity.setX(LEFT_BOUNDARY);
-        velocityX = 0;
-    }
-    if (entity.getX() > RIGHT_BOUNDARY) {
-        entity.setX(RIGHT_BOUNDARY);
-        velocityX = 0;
-    }
-    if (entity.getY() < TOP_BOUNDARY) {
-        entity.setY(TOP_BOUNDARY);
-        velocityY = 0;
+    @Override
+    public void interpolate(double alpha) {
+        if (!enabled) return;
+        entity.setPosition(body.getPrevX() + (body.getX() - body.getPrevX()) * alpha,
+                           body.getPrevY() + (body.getY() - body.getPrevY()) * alpha);
+        // 按鍵每幀重新設定；這一幀沒有跑到任何一步時保留到下一步
+        if (inputConsumed) {
+            inputX = 0;
+            inputConsumed = false;
+        }
     }
-    
-    velocityX = 0;
-}
 
     public void moveLeft() {
-        velocityX = -speed;
+        inputX = -PlayerBody.SPEED;
     }
 
     public void moveRight() {
-        velocityX = speed;
+        inputX = PlayerBody.SPEED;
     }
 
     public void jump() {
-        if (onGround) {
-            velocityY = -jumpStrength;
-            onGround = false;
-        }
+        body.jump();
     }
 
     public void crouch(boolean crouching) {
@@ -2635,12 +2859,11 @@ public void onUpdate(double tpf) {
         return crouching;
     }
 }
-// 移動平台組件
-class MovingPlatformComponent extends Component {
-    private double startX, startY;
-    private double moveSpeed, moveRange;
-    private boolean horizontal;
-    private double elapsed = 0;
+// 移動平台組件（PlatformBody 在固定步長中移動並做碰撞，畫面位置內插）
+class MovingPlatformComponent extends Component implements FixedStepBody {
+    private final double moveSpeed, moveRange;
+    private final boolean horizontal;
+    private PlatformBody body;
     
     public MovingPlatformComponent(boolean horizontal, double speed, double range) {
         this.horizontal = horizontal;
@@ -2650,27 +2873,54 @@ class MovingPlatformComponent extends Component {
     
     @Override
     public void onAdded() {
-        startX = entity.getX();
-        startY = entity.getY();
+        // 建立時 PlatformComponent 已經先加入
+        if (entity.hasComponent(PlatformComponent.class)) {
+            body = entity.getComponent(PlatformComponent.class).getBody();
+            body.setMotion(horizontal, moveSpeed, moveRange);
+            PhysicsClock.WORLD.add(this, PhysicsClock.PHASE_PLATFORMS);
+        }
     }
     
     @Override
-    public void onUpdate(double tpf) {
-        elapsed += tpf;
-        double offset = Math.sin(elapsed * moveSpeed) * moveRange / 2;
-        
-        if (horizontal) {
-            entity.setX(startX + offset);
-        } else {
-            entity.setY(startY + offset);
+    public void onRemoved() {
+        if (body != null) {
+            PhysicsClock.WORLD.remove(this);
+            body.clearMotion();
         }
     }
+    
+    @Override
+    public void step(double dt) {
+        body.stepMotion(dt);
+        PhysicsClock.WORLD.grid.update(body);
+    }
+    
+    @Override
+    public void interpolate(double alpha) {
+        entity.setPosition(body.getPrevX() + (body.getX() - body.getPrevX()) * alpha,
+                           body.getPrevY() + (body.getY() - body.getPrevY()) * alpha);
+    }
 }
 
 // 彈跳平台組件
 class BouncePlatformComponent extends Component {
     private static final double BOUNCE_STRENGTH = 30.0;
     
+    // 建立時 PlatformComponent 已經先加入，設定到 PlatformBody 後碰撞直接取用
+    @Override
+    public void onAdded() {
+        if (entity.hasComponent(PlatformComponent.class)) {
+            entity.getComponent(PlatformComponent.class).getBody().setBounceStrength(BOUNCE_STRENGTH);
+        }
+    }
+    
+    @Override
+    public void onRemoved() {
+        if (entity.hasComponent(PlatformComponent.class)) {
+            entity.getComponent(PlatformComponent.class).getBody().setBounceStrength(0);
+        }
+    }
+    
     public double getBounceStrength() {
         return BOUNCE_STRENGTH;
     }
@@ -2731,24 +2981,42 @@ class TurretComponent extends Component {
     }
 }
 
-// 子彈組件
-class BulletComponent extends Component {
+// 子彈組件（在固定步長中移動，畫面位置內插）
+class BulletComponent extends Component implements FixedStepBody {
     private double speed = 300;
     private double dirX, dirY;
+    private double posX, posY, prevX, prevY;
     public BulletComponent(double dirX, double dirY) {
         double len = Math.sqrt(dirX*dirX + dirY*dirY);
         if (len == 0) { this.dirX = 1; this.dirY = 0; }
         else { this.dirX = dirX/len; this.dirY = dirY/len; }
     }
     @Override
-    public void onUpdate(double tpf) {
-        entity.translateX(dirX * speed * tpf);
-        entity.translateY(dirY * speed * tpf);
+    public void onAdded() {
+        posX = prevX = entity.getX();
+        posY = prevY = entity.getY();
+        PhysicsClock.WORLD.add(this, PhysicsClock.PHASE_PROJECTILES);
+    }
+    @Override
+    public void onRemoved() {
+        PhysicsClock.WORLD.remove(this);
+    }
+    @Override
+    public void step(double dt) {
+        prevX = posX;
+        prevY = posY;
+        posX += dirX * speed * dt;
+        posY += dirY * speed * dt;
         int appH = FXGL.getAppHeight();
-        if (entity.getX() < -200 || entity.getX() > 10000 || entity.getY() < -200 || entity.getY() > appH + 200) {
+        if (posX < -200 || posX > 10000 || posY < -200 || posY > appH + 200) {
+            PhysicsClock.WORLD.remove(this);
             entity.removeFromWorld();
         }
     }
+    @Override
+    public void interpolate(double alpha) {
+        entity.setPosition(prevX + (posX - prevX) * alpha, prevY + (posY - prevY) * alpha);
+    }
     public boolean checkHit(double playerX, double playerY, double radius) {
         double dx = entity.getX() - playerX;
         double dy = entity.getY() - playerY;
@@ -2794,19 +3062,3 @@ class DeathZoneComponent extends Component {
         return distanceSquared < (playerRadius * playerRadius);
     }
 }
-
-// 碰撞方向枚舉
-enum CollisionSide {
-    NONE, TOP, BOTTOM, LEFT, RIGHT
-}
-
-// 碰撞資訊類別
-class CollisionInfo {
-    boolean collided;
-    CollisionSide side;
-    
-    public CollisionInfo(boolean collided, CollisionSide side) {
-        this.collided = collided;
-        this.side = side;
-    }
-}
\ No newline at end of file
@@ -1,7 +1,13 @@
 import java.io.*;
 import java.net.*;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.*;
+import java.security.SecureRandom;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 多人平台遊戲伺服器（完整版 - 含房間系統）
@@ -10,6 +16,20 @@ import java.util.concurrent.ConcurrentHashMap;
 public class GameServer {
 
     private static int PORT = 5000; // 預設端口,可從設定檔讀取
+    private static TransportMode TRANSPORT = TransportMode.BLOCKING; // 傳輸模式,可從設定檔讀取
+    private static int IO_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors())); // NIO I/O 執行緒數
+    private static WireFormat WIRE_CODEC = WireFormat.BINARY; // 握手時提供的編碼,可從設定檔讀取
+    private static ThreadMode THREAD_MODE = ThreadMode.PLATFORM; // 執行緒模式,可從設定檔或啟動參數讀取
+    private static int STATS_INTERVAL = 60; // 統計輸出間隔(秒),0 表示關閉
+    private static int OUTBOUND_QUEUE_LIMIT = 256; // 每條連線輸出佇列上限
+    private static OverflowPolicy OUTBOUND_OVERFLOW = OverflowPolicy.DROP_OLDEST_POSITION; // 佇列滿時的處理方式
+    private static int ROOM_TICK_RATE = 20; // 房間快照頻率(Hz),範圍 10-60
+    private static int UDP_PORT = 0; // UDP 旁路通道埠,0 表示關閉
+    private static int ROOM_CODE_LENGTH = RoomCodeAllocator.MIN_LENGTH; // 房間代碼位數,使用率高時自動增加
+    private static String ROOM_DIRECTORY = null; // 多節點共用的房間目錄,null 表示單機
+    private static String NODE_HOST = "127.0.0.1"; // 其他節點轉址時告訴客戶端的主機位址
+    private static boolean FINISH_VALIDATION = true; // 以物理核心檢查 FinishMessage 的完成時間
+    private static UdpServer udpServer = null;
     private static final Map<String, ClientHandler> clients = new ConcurrentHashMap<>();
     private static final String[] COLORS = {
         "#FF0000", "#00FF00", "#0000FF", "#FFFF00", 
@@ -17,6 +37,40 @@ public class GameServer {
     };
     private static int colorIndex = 0;
     
+    // 是否允許客戶端切換到二進位編碼
+    static boolean isBinaryCodecEnabled() {
+        return WIRE_CODEC == WireFormat.BINARY;
+    }
+    
+    static int getRoomTickRate() {
+        return ROOM_TICK_RATE;
+    }
+    
+    static boolean isFinishValidationEnabled() {
+        return FINISH_VALIDATION;
+    }
+    
+    // 建立一條連線的輸出佇列
+    static OutboundQueue newOutboundQueue() {
+        return new OutboundQueue(OUTBOUND_QUEUE_LIMIT, OUTBOUND_OVERFLOW);
+    }
+    
+    // 各客戶端輸出佇列狀況（供 [STATS] 使用）
+    static String describeOutboundQueues() {
+        StringBuilder sb = new StringBuilder("outbound:");
+        if (clients.isEmpty()) sb.append(" -");
+        for (ClientHandler handler : clients.values()) {
+            ClientConnection conn = handler.connection;
+            if (conn == null) continue;
+            OutboundQueue queue = conn.getOutboundQueue();
+            sb.append(' ').append(handler.getPlayerId())
+              .append("[depth=").append(queue.size())
+              .append(" dropped=").append(queue.getDropped())
+              .append(" coalesced=").append(queue.getCoalesced()).append(']');
+        }
+        return sb.toString();
+    }
+    
     // 獲取客戶端處理器
     public static ClientHandler getClientHandler(String playerId) {
         return clients.get(playerId);
@@ -37,16 +91,98 @@ public class GameServer {
                             continue;
                         }
                         
-                        // 解析 SERVER_PORT
-                        if (line.startsWith("SERVER_PORT=")) {
-                            String[] parts = line.split("=", 2);
-                            if (parts.length == 2) {
-                                try {
-                                    PORT = Integer.parseInt(parts[1].trim());
-                                    System.out.println("[SERVER] Port loaded from config: " + PORT);
-                                } catch (NumberFormatException e) {
-                                    System.err.println("[SERVER ERROR] Invalid port number in config, using default: " + PORT);
-                                }
+                        // 解析 KEY=VALUE 格式
+                        String[] parts = line.split("=", 2);
+                        if (parts.length != 2) continue;
+                        String key = parts[0].trim();
+                        String value = parts[1].trim();
+                        
+                        if (key.equals("SERVER_PORT")) {
+                            try {
+                                PORT = Integer.parseInt(value);
+                                System.out.println("[SERVER] Port loaded from config: " + PORT);
+                            } catch (NumberFormatException e) {
+                                System.err.println("[SERVER ERROR] Invalid port number in config, using default: " + PORT);
+                            }
+                        } else if (key.equals("SERVER_TRANSPORT")) {
+                            try {
+                                TRANSPORT = TransportMode.valueOf(value.toUpperCase());
+                                System.out.println("[SERVER] Transport loaded from config: " + TRANSPORT);
+                            } catch (IllegalArgumentException e) {
+                                System.err.println("[SERVER ERROR] Invalid transport in config, using default: " + TRANSPORT);
+                            }
+                        } else if (key.equals("NIO_IO_THREADS")) {
+                            try {
+                                IO_THREADS = Math.max(1, Integer.parseInt(value));
+                                System.out.println("[SERVER] NIO I/O threads loaded from config: " + IO_THREADS);
+                            } catch (NumberFormatException e) {
+                                System.err.println("[SERVER ERROR] Invalid NIO_IO_THREADS in config, using default: " + IO_THREADS);
+                            }
+                        } else if (key.equals("WIRE_CODEC")) {
+                            try {
+                                WIRE_CODEC = WireFormat.valueOf(value.toUpperCase());
+                                System.out.println("[SERVER] Wire codec loaded from config: " + WIRE_CODEC);
+                            } catch (IllegalArgumentException e) {
+                                System.err.println("[SERVER ERROR] Invalid WIRE_CODEC in config, using default: " + WIRE_CODEC);
+                            }
+                        } else if (key.equals("THREAD_MODE")) {
+                            try {
+                                THREAD_MODE = ThreadMode.valueOf(value.toUpperCase());
+                                System.out.println("[SERVER] Thread mode loaded from config: " + THREAD_MODE);
+                            } catch (IllegalArgumentException e) {
+                                System.err.println("[SERVER ERROR] Invalid THREAD_MODE in config, using default: " + THREAD_MODE);
+                            }
+                        } else if (key.equals("STATS_INTERVAL")) {
+                            try {
+                                STATS_INTERVAL = Integer.parseInt(value);
+                                System.out.println("[SERVER] Stats interval loaded from config: " + STATS_INTERVAL + "s");
+                            } catch (NumberFormatException e) {
+                                System.err.println("[SERVER ERROR] Invalid STATS_INTERVAL in config, using default: " + STATS_INTERVAL);
+                            }
+                        } else if (key.equals("ROOM_TICK_RATE")) {
+                            try {
+                                ROOM_TICK_RATE = Math.max(10, Math.min(60, Integer.parseInt(value)));
+                                System.out.println("[SERVER] Room tick rate loaded from config: " + ROOM_TICK_RATE + " Hz");
+                            } catch (NumberFormatException e) {
+                                System.err.println("[SERVER ERROR] Invalid ROOM_TICK_RATE in config, using default: " + ROOM_TICK_RATE);
+                            }
+                        } else if (key.equals("ROOM_CODE_LENGTH")) {
+                            try {
+                                ROOM_CODE_LENGTH = Math.max(RoomCodeAllocator.MIN_LENGTH,
+                                    Math.min(RoomCodeAllocator.MAX_LENGTH, Integer.parseInt(value)));
+                                System.out.println("[SERVER] Room code length loaded from config: " + ROOM_CODE_LENGTH);
+                            } catch (NumberFormatException e) {
+                                System.err.println("[SERVER ERROR] Invalid ROOM_CODE_LENGTH in config, using default: " + ROOM_CODE_LENGTH);
+                            }
+                        } else if (key.equals("ROOM_DIRECTORY")) {
+                            ROOM_DIRECTORY = value.isEmpty() ? null : value;
+                            System.out.println("[SERVER] Room directory loaded from config: " + ROOM_DIRECTORY);
+                        } else if (key.equals("NODE_HOST")) {
+                            NODE_HOST = value;
+                            System.out.println("[SERVER] Node host loaded from config: " + NODE_HOST);
+                        } else if (key.equals("FINISH_VALIDATION")) {
+                            FINISH_VALIDATION = Boolean.parseBoolean(value);
+                            System.out.println("[SERVER] Finish validation loaded from config: " + FINISH_VALIDATION);
+                        } else if (key.equals("UDP_PORT")) {
+                            try {
+                                UDP_PORT = Integer.parseInt(value);
+                                System.out.println("[SERVER] UDP port loaded from config: " + UDP_PORT);
+                            } catch (NumberFormatException e) {
+                                System.err.println("[SERVER ERROR] Invalid UDP_PORT in config, UDP disabled");
+                            }
+                        } else if (key.equals("OUTBOUND_QUEUE_LIMIT")) {
+                            try {
+                                OUTBOUND_QUEUE_LIMIT = Math.max(1, Integer.parseInt(value));
+                                System.out.println("[SERVER] Outbound queue limit loaded from config: " + OUTBOUND_QUEUE_LIMIT);
+                            } catch (NumberFormatException e) {
+                                System.err.println("[SERVER ERROR] Invalid OUTBOUND_QUEUE_LIMIT in config, using default: " + OUTBOUND_QUEUE_LIMIT);
+                            }
+                        } else if (key.equals("OUTBOUND_OVERFLOW")) {
+                            try {
+                                OUTBOUND_OVERFLOW = OverflowPolicy.valueOf(value.toUpperCase());
+                                System.out.println("[SERVER] Outbound overflow policy loaded from config: " + OUTBOUND_OVERFLOW);
+                            } catch (IllegalArgumentException e) {
+                                System.err.println("[SERVER ERROR] Invalid OUTBOUND_OVERFLOW in config, using default: " + OUTBOUND_OVERFLOW);
                             }
                         }
                     }
@@ -64,111 +200,233 @@ public class GameServer {
         // 讀取伺服器配置
         loadServerConfig();
         
+        // 啟動參數優先於設定檔
+        for (String arg : args) {
+            if (arg.equals("--virtual-threads")) {
+                THREAD_MODE = ThreadMode.VIRTUAL;
+            } else if (arg.equals("--platform-threads")) {
+                THREAD_MODE = ThreadMode.PLATFORM;
+            }
+        }
+        ServerExecutors.init(THREAD_MODE);
+        RoomManager.configureRoomCodes(ROOM_CODE_LENGTH);
+        joinRoomDirectory();
+        ServerExecutors.addStatsSource(BroadcastFrame::describe);
+        ServerExecutors.addStatsSource(GameServer::describeOutboundQueues);
+        ServerExecutors.addStatsSource(RoomManager::describe);
+        ServerExecutors.addStatsSource(MapCache::describe);
+        MapCache.get();  // 先載入預設地圖，第一場遊戲不用等讀檔
+        MapCache.startWatching();
+        startUdpServer();
+        ServerExecutors.startStatsReporter(STATS_INTERVAL);
+        
         System.out.println("=================================");
         System.out.println("  Multiplayer Platform Race Server");
         System.out.println("  Port: " + PORT);
         System.out.println("  Room System Enabled");
+        System.out.println("  Transport: " + TRANSPORT + 
+                          (TRANSPORT == TransportMode.NIO ? " (" + IO_THREADS + " I/O threads)" : ""));
+        System.out.println("  Threads: " + THREAD_MODE);
+        System.out.println("  Wire codec: " + WIRE_CODEC);
+        System.out.println("  Room tick: " + ROOM_TICK_RATE + " Hz");
+        System.out.println("  UDP: " + (udpServer != null ? "port " + udpServer.getPort() : "disabled"));
+        System.out.println("  Outbound queue: " + OUTBOUND_QUEUE_LIMIT + " (" + OUTBOUND_OVERFLOW + ")");
+        System.out.println("  Federation: " + (RoomManager.isFederated() ? 
+                          "node " + RoomManager.getLocalNode() + " via " + ROOM_DIRECTORY : "disabled"));
+        System.out.println("  Finish validation: " + (FINISH_VALIDATION ? 
+                          "at least " + PhysicsCore.minimumFinishMillis() + "ms" : "disabled"));
         System.out.println("=================================");
 
+        if (TRANSPORT == TransportMode.NIO) {
+            runNioServer();
+        } else {
+            runBlockingServer();
+        }
+    }
+    
+    // 阻塞模式：每個連線一個 client-handler 工作
+    private static void runBlockingServer() {
+        ServerExecutors.initShards(null);
         try (ServerSocket serverSocket = new ServerSocket(PORT)) {
             while (true) {
                 Socket socket = serverSocket.accept();
                 socket.setTcpNoDelay(true);
                 
-                String playerId = UUID.randomUUID().toString().substring(0, 8);
-                String color = COLORS[colorIndex++ % COLORS.length];
+                ClientHandler handler = registerClient(socket);
+                ServerExecutors.clientHandlers().execute(handler);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+    
+    // NIO 模式：連線平均分配到固定數量的事件迴圈，每個迴圈也是一個房間分片
+    private static void runNioServer() {
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            NioEventLoop[] loops = new NioEventLoop[IO_THREADS];
+            for (int i = 0; i < loops.length; i++) {
+                loops[i] = new NioEventLoop("nio-io-" + i);
+                Thread t = new Thread(loops[i], "nio-io-" + i);
+                t.setDaemon(true);
+                t.start();
+            }
+            ServerExecutors.initShards(loops);
+            
+            serverChannel.bind(new InetSocketAddress(PORT));
+            int next = 0;
+            while (true) {
+                SocketChannel channel = serverChannel.accept();
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
                 
-                System.out.println("[CONNECT] Client: " + playerId + " | Color: " + color);
-
-                ClientHandler handler = new ClientHandler(socket, playerId, color);
-                clients.put(playerId, handler);
-                new Thread(handler).start();
+                ClientHandler handler = registerClient(null);
+                loops[next++ % loops.length].register(channel, handler);
             }
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
+    
+    // 加入多節點房間目錄（失敗時以單機模式執行）
+    private static void joinRoomDirectory() {
+        if (ROOM_DIRECTORY == null) return;
+        try {
+            RoomDirectory directory = RoomDirectory.open(ROOM_DIRECTORY);
+            RoomManager.configureFederation(directory, new NodeAddress(NODE_HOST, PORT));
+            ServerExecutors.addStatsSource(directory::describe);
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("[SERVER ERROR] Cannot open room directory " + ROOM_DIRECTORY + ", running standalone: " + e.getMessage());
+        }
+    }
+    
+    // 開啟 UDP 旁路通道（失敗時只用 TCP）
+    private static void startUdpServer() {
+        if (UDP_PORT <= 0) return;
+        try {
+            udpServer = new UdpServer(UDP_PORT);
+            Thread t = new Thread(udpServer, "udp-server");
+            t.setDaemon(true);
+            t.start();
+            udpServer.startHeartbeat();
+            ServerExecutors.addStatsSource(udpServer::describe);
+        } catch (IOException e) {
+            System.err.println("[SERVER ERROR] Cannot open UDP port " + UDP_PORT + ", using TCP only: " + e.getMessage());
+            udpServer = null;
+        }
+    }
+    
+    // 分配玩家ID與顏色並登記處理器
+    private static ClientHandler registerClient(Socket socket) {
+        String playerId = UUID.randomUUID().toString().substring(0, 8);
+        String color = COLORS[colorIndex++ % COLORS.length];
+        
+        System.out.println("[CONNECT] Client: " + playerId + " | Color: " + color);
+
+        ClientHandler handler = new ClientHandler(socket, playerId, color);
+        clients.put(playerId, handler);
+        if (udpServer != null) {
+            udpServer.register(handler);
+        }
+        return handler;
+    }
 
     static class ClientHandler implements Runnable {
-        private Socket socket;
+        private Socket socket;  // 僅阻塞模式使用
+        private ClientConnection connection;
         private String playerId;
         private String color;
-        private ObjectOutputStream out;
-        private ObjectInputStream in;
         private volatile boolean running = true;
-        private Room currentRoom = null;
-        private volatile boolean roundMonitorRunning = false;
-
-        private GamePhase currentPhase = GamePhase.SELECTING;
+        private volatile Room currentRoom = null;
+        
+        // UDP 旁路通道狀態
+        private static final SecureRandom TOKEN_RANDOM = new SecureRandom();
+        private final long udpToken = TOKEN_RANDOM.nextLong();
+        private volatile SocketAddress udpAddress;  // 收到 HELLO 後才有
+        private volatile boolean udpActive = false; // 客戶端經 TCP 確認後才用 UDP 送快照
+        private final AtomicLong udpOutSequence = new AtomicLong();
+        private long udpInSequence = 0;             // 只在 UDP 接收執行緒使用
+        
         public ClientHandler(Socket socket, String playerId, String color) {
             this.socket = socket;
             this.playerId = playerId;
             this.color = color;
         }
+        
+        public String getPlayerId() {
+            return playerId;
+        }
+        
+        // NIO 模式由事件迴圈注入連線
+        void attach(ClientConnection connection) {
+            this.connection = connection;
+        }
+        
+        // 連線建立後發送初始化訊息
+        void onConnected() {
+            sendObject(new InitMessage(playerId, color, isBinaryCodecEnabled() ? WireCodec.VERSION : 0,
+                                       udpServer != null ? udpServer.getPort() : 0, udpToken));
+        }
+        
+        long getUdpToken() {
+            return udpToken;
+        }
+        
+        SocketAddress getUdpAddress() {
+            return udpAddress;
+        }
+        
+        void setUdpAddress(SocketAddress address) {
+            this.udpAddress = address;
+        }
+        
+        boolean isUdpActive() {
+            return udpActive;
+        }
+        
+        long nextUdpSequence() {
+            return udpOutSequence.incrementAndGet();
+        }
+        
+        // 序號比上一個舊的封包直接丟棄
+        boolean acceptUdpSequence(long seq) {
+            if (seq <= udpInSequence) return false;
+            udpInSequence = seq;
+            return true;
+        }
+        
+        /**
+         * UDP 收到的訊息只接受位置與快照確認，其餘一律走 TCP
+         */
+        void handleDatagram(Object obj) {
+            if (obj instanceof PlayerInfo || obj instanceof SnapshotAck) {
+                handleMessage(obj);
+            }
+        }
+        
+        /**
+         * 可遺失的訊息：UDP 啟用時走 UDP，否則（或送不出去時）走 TCP
+         */
+        boolean sendUnreliable(BroadcastFrame frame) {
+            SocketAddress address = udpAddress;
+            if (udpActive && address != null && udpServer != null && udpServer.send(this, address, frame)) {
+                return true;
+            }
+            return sendFrame(frame);
+        }
 
         @Override
         public void run() {
             try {
-                out = new ObjectOutputStream(socket.getOutputStream());
-                out.flush();
-                in = new ObjectInputStream(socket.getInputStream());
+                BlockingConnection conn = new BlockingConnection(socket, isBinaryCodecEnabled(), newOutboundQueue());
+                attach(conn);
+                conn.startWriter(ServerExecutors.clientWriters(), playerId);
 
                 // 發送初始化訊息
-                sendObject(new InitMessage(playerId, color));
+                onConnected();
 
                 // 接收客戶端訊息
                 while (running) {
                     try {
-                        Object obj = in.readObject();
-                        
-                        // 房間相關訊息
-                        if (obj instanceof CreateRoomRequest createReq) {
-                            handleCreateRoom(createReq);
-                        }
-                        else if (obj instanceof JoinRoomRequest joinReq) {
-                            handleJoinRoom(joinReq);
-                        }
-                        else if (obj instanceof PlayerReadyMessage readyMsg) {
-                            handlePlayerReady(readyMsg);
-                        }
-                        else if (obj instanceof StartGameRequest) {
-                            handleStartGame();
-                        }
-                        else if (obj instanceof LeaveRoomRequest) {
-                            handleLeaveRoom();
-                        }
-                        // 遊戲相關訊息
-                        else if (obj instanceof PlayerInfo info) {
-                            if (currentRoom != null && currentRoom.getState() == RoomState.PLAYING) {
-                                info.playerId = playerId;
-                                info.colorHex = color;
-                                broadcastToRoom(info, playerId);
-                            }
-                        } 
-                        else if (obj instanceof SelectionMessage selectionMsg) {
-                            if (currentRoom != null) {
-                                handleSelection(selectionMsg);
-                            }
-                        }
-                        else if (obj instanceof PlacementMessage placementMsg) {
-                            if (currentRoom != null) {
-                                handlePlacement(placementMsg);
-                            }
-                        }
-                        else if (obj instanceof FinishMessage finishMsg) {
-                            if (currentRoom != null) {
-                                handleFinish(finishMsg);
-                            }
-                        }
-                        else if (obj instanceof FailMessage failMsg) {
-                            if (currentRoom != null) {
-                                handleFail(failMsg);
-                            }
-                        }
-                       
-else if (obj instanceof JoinRandomRoomRequest) {
-    handleJoinRandomRoom();
-}
+                        handleMessage(conn.readObject());
                     } catch (EOFException | SocketException e) {
                         System.out.println("[DISCONNECT] Client: " + playerId);
                         break;
@@ -184,6 +442,84 @@ else if (obj instanceof JoinRandomRoomRequest) {
             }
         }
         
+        /**
+         * 分派客戶端訊息（阻塞與 NIO 模式共用）
+         */
+        void handleMessage(Object obj) {
+            // 房間相關訊息
+            if (obj instanceof CreateRoomRequest createReq) {
+                handleCreateRoom(createReq);
+            }
+            else if (obj instanceof JoinRoomRequest joinReq) {
+                handleJoinRoom(joinReq);
+            }
+            else if (obj instanceof PlayerReadyMessage readyMsg) {
+                handlePlayerReady(readyMsg);
+            }
+            else if (obj instanceof StartGameRequest) {
+                handleStartGame();
+            }
+            else if (obj instanceof LeaveRoomRequest) {
+                handleLeaveRoom();
+            }
+            // 遊戲相關訊息
+            else if (obj instanceof UdpStatusMessage udpStatus) {
+                udpActive = udpStatus.enabled && udpAddress != null;
+                System.out.println("[UDP] Client " + playerId + (udpActive ? " using UDP" : " fell back to TCP"));
+            }
+            else if (obj instanceof SnapshotAck ack) {
+                if (currentRoom != null) {
+                    currentRoom.ackSnapshot(playerId, ack.tick);
+                }
+            }
+            else if (obj instanceof PlayerInfo info) {
+                if (currentRoom != null) {
+                    info.playerId = playerId;
+                    info.colorHex = color;
+                    // 不再立即轉發，由房間 tick 合併成 RoomSnapshot
+                    currentRoom.updatePosition(info);
+                }
+            } 
+            else if (obj instanceof SelectionMessage selectionMsg) {
+                if (currentRoom != null) {
+                    currentRoom.selectObject(playerId, selectionMsg.objectId);
+                }
+            }
+            else if (obj instanceof PlacementMessage placementMsg) {
+                if (currentRoom != null) {
+                    currentRoom.placePlatform(playerId, placementMsg);
+                }
+            }
+            else if (obj instanceof FinishMessage finishMsg) {
+                if (currentRoom != null) {
+                    currentRoom.playerFinished(playerId, finishMsg.finishTime);
+                }
+            }
+            else if (obj instanceof FailMessage failMsg) {
+                if (currentRoom != null) {
+                    currentRoom.playerFailed(playerId);
+                }
+            }
+            else if (obj instanceof JoinRandomRoomRequest) {
+                handleJoinRandomRoom();
+            }
+            else if (obj instanceof MapRequest mapReq) {
+                handleMapRequest(mapReq);
+            }
+        }
+        
+        /**
+         * 客戶端快取沒有公告的地圖，回覆地圖內容（共用已編碼的訊框）
+         */
+        private void handleMapRequest(MapRequest req) {
+            LoadedMap map = MapCache.byHash(req.mapHash);
+            if (map == null) {
+                System.out.println("[MAP] Player " + playerId + " requested unknown map " + req.mapHash);
+                return;
+            }
+            sendFrame(map.data);
+        }
+        
         /**
          * 創建房間
          */
@@ -194,15 +530,20 @@ else if (obj instanceof JoinRandomRoomRequest) {
             }
             
             currentRoom = RoomManager.createRoom(playerId, req.maxPlayers, req.roomType);  // 加入 roomType
-            sendObject(new CreateRoomResponse(true, currentRoom.getInfo().roomCode, "Room created successfully"));
-            sendObject(new RoomUpdateMessage(currentRoom.getInfo()));
+            if (currentRoom == null) {
+                sendObject(new CreateRoomResponse(false, null, "Server is full, try again later"));
+                return;
+            }
+            sendObject(new CreateRoomResponse(true, currentRoom.getRoomCode(), "Room created successfully"));
+            sendFrame(currentRoom.getView().updateFrame());
+            followRoom(currentRoom);
             
             System.out.println("[ROOM] " + playerId + " created " + req.roomType + " room " + 
-                            currentRoom.getInfo().roomCode);
+                            currentRoom.getRoomCode());
         }
         
         /**
-         * 加入房間
+         * 加入房間（由房間信箱處理，結果在房間執行緒回覆）
          */
         private void handleJoinRoom(JoinRoomRequest req) {
             if (currentRoom != null) {
@@ -210,19 +551,30 @@ else if (obj instanceof JoinRandomRoomRequest) {
                 return;
             }
             
-            currentRoom = RoomManager.joinRoom(playerId, req.roomCode);
-            
-            if (currentRoom == null) {
-                sendObject(new JoinRoomResponse(false, "Room not found or full", null));
-                return;
-            }
-            
-            sendObject(new JoinRoomResponse(true, "Joined successfully", currentRoom.getInfo()));
-            
-            // 通知房間所有玩家
-            broadcastRoomUpdate();
-            
-            System.out.println("[ROOM] " + playerId + " joined room " + req.roomCode);
+            RoomManager.joinRoom(playerId, req.roomCode, room -> {
+                if (room == null) {
+                    if (RoomManager.isFederated() && RoomManager.getRoom(req.roomCode) == null) {
+                        redirectToRoom(req.roomCode);
+                    } else {
+                        sendObject(new JoinRoomResponse(false, "Room not found or full", null));
+                    }
+                    return;
+                }
+                
+                if (!running) {
+                    // 等待回覆期間已經斷線
+                    RoomManager.leaveRoom(playerId);
+                    return;
+                }
+                currentRoom = room;
+                sendObject(new JoinRoomResponse(true, "Joined successfully", room.getInfo()));
+                followRoom(room);
+                
+                // 通知房間所有玩家
+                room.broadcastRoomUpdate();
+                
+                System.out.println("[ROOM] " + playerId + " joined room " + req.roomCode);
+            });
         }
         
         /**
@@ -230,697 +582,1142 @@ else if (obj instanceof JoinRandomRoomRequest) {
          */
         private void handlePlayerReady(PlayerReadyMessage msg) {
             if (currentRoom == null) return;
-            
             currentRoom.setPlayerReady(playerId, msg.ready);
-            broadcastRoomUpdate();
-            
-            System.out.println("[ROOM] " + playerId + " ready status: " + msg.ready);
         }
         
         /**
-         * 開始遊戲（僅房主）
+         * 開始遊戲（僅房主，由房間檢查）
          */
         private void handleStartGame() {
             if (currentRoom == null) return;
-            if (!currentRoom.getHostId().equals(playerId)) {
-                System.out.println("[ROOM] Non-host " + playerId + " tried to start game");
-                return;
-            }
-            
-            if (!currentRoom.allPlayersReady()) {
-                System.out.println("[ROOM] Not all players ready");
-                return;
-            }
-            
-            currentRoom.startGame();
-            System.out.println("[ROOM] Game started in room " + currentRoom.getInfo().roomCode + 
-                             " (Round 1/5)");
-            
-            // 發送地圖配置（只在遊戲開始時發送一次）
-            currentRoom.sendMapConfig();
-            
-            // 開始第一輪
-            startNewRound();
+            currentRoom.requestStart(playerId);
         }
         
-        /**
-         * 開始新一輪遊戲
-         */
-                private void startNewRound() {
-                    if (currentRoom == null) return;
-                    // 生成供玩家選擇的物件
-                    List<GameObjectInfo> newList = generateNewObjects();
-                    synchronized (currentRoom) {
-                        currentRoom.availableObjects.clear();
-                        currentRoom.availableObjects.addAll(newList);
-                    }
-            
-            // 初始化回合狀態
-            currentRoom.playerSelections.clear();
-            currentRoom.playerPlacements.clear();
-            currentRoom.playerPreviewPlacements.clear();
-            currentRoom.finishRecords.clear();
-            currentRoom.failedPlayers.clear();
-            currentRoom.completedPlayers.clear();
-            
-            // 發送選擇階段訊息和物件列表
-            PhaseChangeMessage phaseMsg = new PhaseChangeMessage(GamePhase.SELECTING);
-            ObjectListMessage objMsg = new ObjectListMessage(new ArrayList<>(currentRoom.availableObjects));
-            
-            for (String pid : currentRoom.getPlayerIds()) {
-                ClientHandler handler = clients.get(pid);
-                if (handler != null) {
-                    handler.sendObject(phaseMsg);
-                    handler.sendObject(objMsg);
-                }
+        private void handleJoinRandomRoom() {
+            if (currentRoom != null) {
+                sendObject(new JoinRoomResponse(false, "Already in a room", null));
+                return;
             }
             
-            // 啟動回合監控
-            startRoundMonitor();
-        }
-        
-
-            private void handleJoinRandomRoom() {
-                if (currentRoom != null) {
-                    sendObject(new JoinRoomResponse(false, "Already in a room", null));
+            RoomManager.joinRandomPublicRoom(playerId, room -> {
+                if (room == null) {
+                    if (RoomManager.isFederated() && !RoomManager.isInRoom(playerId)) {
+                        redirectToOpenRoom();
+                    } else {
+                        sendObject(new JoinRoomResponse(false, "No public rooms available", null));
+                    }
                     return;
                 }
                 
-                currentRoom = RoomManager.joinRandomPublicRoom(playerId);
-                
-                if (currentRoom == null) {
-                    sendObject(new JoinRoomResponse(false, "No public rooms available", null));
+                if (!running) {
+                    // 等待回覆期間已經斷線
+                    RoomManager.leaveRoom(playerId);
                     return;
                 }
-                
-                sendObject(new JoinRoomResponse(true, "Joined public room", currentRoom.getInfo()));
+                currentRoom = room;
+                sendObject(new JoinRoomResponse(true, "Joined public room", room.getInfo()));
+                followRoom(room);
                 
                 // 通知房間所有玩家
-                broadcastRoomUpdate();
+                room.broadcastRoomUpdate();
                 
                 System.out.println("[ROOM] " + playerId + " randomly joined public room " + 
-                                currentRoom.getInfo().roomCode);
-            }
-        /**
-         * 回合監控線程
-         */
-        private void startRoundMonitor() {
-            if (roundMonitorRunning) return; // 防止重複啟動
-            roundMonitorRunning = true;
-
-            new Thread(() -> {
-                try {
-                    GamePhase currentPhase = GamePhase.SELECTING;
-                    long gameStartTime = 0;
-                    final long GAME_DURATION = 120000; // 120秒
-                    System.out.println("[DEBUG] RoundMonitor started. RoomState=" + currentRoom.getState());
-                    while (currentRoom != null && currentRoom.getState() == RoomState.PLAYING) {
-                        Thread.sleep(100);
-                        
-                        if (currentPhase == GamePhase.SELECTING) {
-                            // 所有玩家都選擇了
-                            if (currentRoom.playerSelections.size() == currentRoom.getPlayerIds().size()) {
-                                currentPhase = GamePhase.PLACING;
-                                PhaseChangeMessage msg = new PhaseChangeMessage(GamePhase.PLACING);
-                                for (String pid : currentRoom.getPlayerIds()) {
-                                    ClientHandler handler = clients.get(pid);
-                                    if (handler != null) handler.sendObject(msg);
-                                }
-                                System.out.println("[ROUND] Phase -> PLACING");
-                            }
-                        }
-                        else if (currentPhase == GamePhase.PLACING) {
-                            // 所有玩家都放置了
-                            if (currentRoom.playerPlacements.size() == currentRoom.getPlayerIds().size()) {
-                                currentPhase = GamePhase.PLAYING;
-                                gameStartTime = System.currentTimeMillis();
-                                
-                                PhaseChangeMessage msg = new PhaseChangeMessage(GamePhase.PLAYING);
-                                for (String pid : currentRoom.getPlayerIds()) {
-                                    ClientHandler handler = clients.get(pid);
-                                    if (handler != null) {
-                                        handler.sendObject(msg);
-                                        // 發送所有玩家平台放置
-                                        for (Map.Entry<String, PlatformPlacement> entry : currentRoom.playerPlacements.entrySet()) {
-                                            handler.sendObject(new PlacementMessage(entry.getKey(), entry.getValue(), true));
-                                        }
-                                    }
-                                }
-                                System.out.println("[ROUND] Phase -> PLAYING");
-                            }
-                        }
-                    else if (currentPhase == GamePhase.PLAYING) {
-                        long elapsed = System.currentTimeMillis() - gameStartTime;
-// System.out.println("[DEBUG] completedPlayers=" + currentRoom.completedPlayers);
-                    // System.out.println("[DEBUG] failedPlayers=" + currentRoom.failedPlayers);
-                        boolean allFinished = currentRoom.completedPlayers.size() == currentRoom.getPlayerIds().size();
-                        boolean allFailed = currentRoom.failedPlayers.size() == currentRoom.getPlayerIds().size();
-                        boolean timeUp = elapsed >= GAME_DURATION;
-                    
-                    //  System.out.println("[DEBUG] allFinished=" + allFinished +
-                    //                    ", allFailed=" + allFailed +
-                    //                    ", timeUp=" + timeUp);
-                        if (allFinished || allFailed || timeUp) {
-                            System.out.println("[ROUND] Ending round - " +
-                                (allFinished ? "all finished" : allFailed ? "all failed" : "time up"));
-
-                            endCurrentRound();
-                            return;
-                        }
-                    }
-
-                    }
-                } catch (Exception e) {
-                    e.printStackTrace();
-                } finally {
-            roundMonitorRunning = false; // 執行完畢後釋放
-        }
-            }).start();
+                                room.getRoomCode());
+            });
         }
         
         /**
-         * 結束當前回合
+         * 房間不在本節點：查詢目錄，找到時請客戶端改連到擁有房間的節點
          */
-        private void endCurrentRound() {
-            if (currentRoom == null) return;
-            
-            // 計算分數
-            Map<String, Integer> roundScores = calculateRoundScores();
-            
-            // 更新總分
-            for (Map.Entry<String, Integer> entry : roundScores.entrySet()) {
-                String pid = entry.getKey();
-                int score = entry.getValue();
-                currentRoom.playerTotalScores.put(pid, 
-                    currentRoom.playerTotalScores.getOrDefault(pid, 0) + score);
-            }
-            
-            // 準備完成順序
-            List<String> finishOrder = new ArrayList<>();
-            for (FinishRecord record : currentRoom.finishRecords) {
-                finishOrder.add(record.playerId);
-            }
-            for (String pid : currentRoom.failedPlayers) {
-                if (!finishOrder.contains(pid)) finishOrder.add(pid);
-            }
-            for (String pid : currentRoom.getPlayerIds()) {
-                if (!finishOrder.contains(pid)) finishOrder.add(pid);
-            }
-            
-            // 發送回合結束訊息
-            RoundEndMessage roundEndMsg = new RoundEndMessage(
-                roundScores,
-                new HashMap<>(currentRoom.playerTotalScores),
-                 finishOrder,
-              currentRoom.getInfo().currentRound,
-currentRoom.getInfo().totalRounds
-
-            );
-            
-            for (String pid : currentRoom.getPlayerIds()) {
-                ClientHandler handler = clients.get(pid);
-                if (handler != null) {
-                    handler.sendObject(roundEndMsg);
-                }
-            }
-            
-            System.out.println("[ROUND] Round " + currentRoom.getCurrentRound() + " ended");
-            printLeaderboard(roundScores);
-            
-            // 等待後決定下一步
-            new Thread(() -> {
-                try {
-                    Thread.sleep(3000); // 3秒顯示排行榜
-                    
-                    if (currentRoom == null) return;
-                    
-                    // 檢查是否完成5輪
-                    if (currentRoom.isGameComplete()) {
-                        // 遊戲結束，返回房間
-                        currentRoom.returnToWaiting();
-                        
-                        ReturnToRoomMessage returnMsg = new ReturnToRoomMessage(
-                            "Game Complete! 5 rounds finished. Ready up for another game!");
-                        
-                        for (String pid : currentRoom.getPlayerIds()) {
-                            ClientHandler handler = clients.get(pid);
-                            if (handler != null) {
-                                handler.sendObject(returnMsg);
-                                handler.sendObject(new RoomUpdateMessage(currentRoom.getInfo()));
-                            }
-                        }
-                        
-                        System.out.println("[GAME] Complete! Room " + currentRoom.getInfo().roomCode + 
-                                         " returned to waiting");
-                    } else {
-                        // 繼續下一輪
-                        currentRoom.nextRound();
-                        System.out.println("[GAME] Starting round " + currentRoom.getCurrentRound() + "/5");
-                        startNewRound();
-                    }
-                } catch (Exception e) {
-                    e.printStackTrace();
+        private void redirectToRoom(String roomCode) {
+            RoomManager.findRemoteRoom(roomCode, node -> {
+                if (node == null) {
+                    sendObject(new JoinRoomResponse(false, "Room not found or full", null));
+                    return;
                 }
-            }).start();
+                sendObject(new RoomRedirectMessage(node.host, node.port, roomCode));
+                System.out.println("[ROOM] Redirecting " + playerId + " to room " + roomCode + " on " + node);
+            });
         }
         
         /**
-         * 計算回合分數
+         * 本節點沒有可加入的公共房間：從目錄挑其他節點的房間
          */
-        private Map<String, Integer> calculateRoundScores() {
-            Map<String, Integer> scores = new HashMap<>();
-            
-            // 排序完成記錄
-            Collections.sort(currentRoom.finishRecords, Comparator.comparingLong(r -> r.finishTime));
-            
-            // 分配分數
-            for (int i = 0; i < currentRoom.finishRecords.size(); i++) {
-                String pid = currentRoom.finishRecords.get(i).playerId;
-                int score = (i == 0) ? 100 : (i == 1) ? 70 : (i == 2) ? 50 : 30;
-                scores.put(pid, score);
-            }
-            
-            // 失敗和未完成的玩家得0分
-            for (String pid : currentRoom.getPlayerIds()) {
-                scores.putIfAbsent(pid, 0);
-            }
-            
-            return scores;
+        private void redirectToOpenRoom() {
+            RoomManager.findRemoteOpenRoom(entry -> {
+                if (entry == null) {
+                    sendObject(new JoinRoomResponse(false, "No public rooms available", null));
+                    return;
+                }
+                sendObject(new RoomRedirectMessage(entry.node.host, entry.node.port, entry.roomCode));
+                System.out.println("[ROOM] Redirecting " + playerId + " to public room " + entry.roomCode + " on " + entry.node);
+            });
         }
         
         /**
-         * 列印排行榜
+         * 離開房間
          */
-        private void printLeaderboard(Map<String, Integer> roundScores) {
-            System.out.println("\n========== LEADERBOARD ==========");
+        private void handleLeaveRoom() {
+            if (currentRoom == null) return;
             
-            List<Map.Entry<String, Integer>> sorted = new ArrayList<>(currentRoom.playerTotalScores.entrySet());
-            sorted.sort((a, b) -> b.getValue().compareTo(a.getValue()));
+            RoomManager.leaveRoom(playerId);
+            currentRoom = null;
             
-            int rank = 1;
-            for (Map.Entry<String, Integer> entry : sorted) {
-                String pid = entry.getKey();
-                int total = entry.getValue();
-                int round = roundScores.getOrDefault(pid, 0);
-                
-                System.out.printf("%d. %s | Round: +%d | Total: %d\n", rank++, pid, round, total);
-            }
-            System.out.println("=================================\n");
+            System.out.println("[ROOM] " + playerId + " left the room");
         }
         
-        /**
-         * 處理選擇
-         */
-        private void handleSelection(SelectionMessage msg) {
-            if (currentRoom == null) return;
-            if (currentPhase != GamePhase.SELECTING) return;  // 階段檢查
-            
-            // 檢查物件是否已被選擇
-            GameObjectInfo obj = currentRoom.availableObjects.stream()
-                .filter(o -> o.id == msg.objectId)
-                .findFirst()
-                .orElse(null);
-                
-            if (obj != null && !obj.selected) {
-                obj.selected = true;
-                currentRoom.playerSelections.put(playerId, msg.objectId);
-                
-                // 廣播更新的物件列表給所有玩家
-                ObjectListMessage objMsg = new ObjectListMessage(new ArrayList<>(currentRoom.availableObjects));
-                broadcastToRoom(objMsg, null);
-                
-                System.out.println("[SELECT] " + playerId + " chose platform " + msg.objectId);
+        // 連線搬到房間所在的分片，之後房間的讀寫都不必跨執行緒
+        private void followRoom(Room room) {
+            ClientConnection conn = connection;
+            if (conn != null) {
+                conn.moveTo(room.getShard());
             }
         }
         
-        /**
-         * 處理放置
-         */
-        private void handlePlacement(PlacementMessage msg) {
-            if (currentRoom == null) return;
+        boolean sendObject(Object obj) {
+            ClientConnection conn = connection;
+            return conn != null && conn.send(obj);
+        }
+
+        boolean sendFrame(BroadcastFrame frame) {
+            ClientConnection conn = connection;
+            return conn != null && conn.sendFrame(frame);
+        }
+
+        void cleanup() {
+            running = false;
+            clients.remove(playerId);
+            if (udpServer != null) {
+                udpServer.unregister(this);
+            }
             
+            Room room = currentRoom;
+            if (room != null) {
+                currentRoom = null;
+                RoomManager.leaveRoom(playerId);
+                // 信箱依序處理，廣播時玩家已經移除
+                room.execute(() -> {
+                    room.broadcastRoomUpdate();
+                    room.broadcast(new DisconnectMessage(playerId), null);
+                });
+            }
+            
+            if (connection != null) {
+                connection.close();
+            } else if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // 忽略
+                }
+            }
+        }
+    }
+}
+
+/**
+ * Room 類別擴展（添加遊戲狀態）
+ *
+ * 每個房間是一個 actor：所有變更（加入/離開、準備、選擇、放置、完成、位置與快照 tick、回合期限）
+ * 都透過 execute() 放進房間信箱，依序在房間執行緒上處理，房間狀態因此不需要鎖或並行集合。
+ * 其他執行緒只讀取每次變更後發布的不可變 RoomView。
+ */
+class Room {
+    private static final long GAME_DURATION = 120000; // 120秒
+    private static final long INTERMISSION_MILLIS = 3000; // 回合結束後顯示排行榜的時間
+    private static final long FINISH_SLACK_MILLIS = 1000; // 伺服器經過時間的容許量（客戶端計時誤差）
+    
+    private final RoomShard shard;
+    private final RoomMailbox mailbox;
+    private volatile RoomView view;
+    private long version = 0;  // 每次發布加一
+    
+    // 以下欄位只在房間執行緒使用
+    private final String roomCode;
+    private final int maxPlayers;
+    private final RoomType roomType;
+    private final int totalRounds = 5;
+    private String hostId;
+    private final List<String> playerIds = new ArrayList<>();  // 加入順序（房主轉移用）
+    private RoomState state = RoomState.WAITING;
+    private int currentRound = 0;
+    private boolean closed = false;  // 清空後從 RoomManager 移除，之後的加入一律失敗
+    
+    // 玩家加入時分配 slot，之後的玩家狀態都是以 slot 為索引的陣列或位元遮罩，
+    // 字串只在訊息進來時查一次 slot；「全員完成」之類的檢查變成 popcount 比較。
+    static final int MAX_SLOTS = 64;
+    private final Map<String, Integer> slotOf = new HashMap<>();
+    private final String[] slotPlayer;
+    private long occupiedMask = 0;
+    private long readyMask = 0;
+    
+    // 遊戲狀態
+    private final int[] selections;                      // 選擇的物件 id
+    private long selectedMask = 0;
+    private final PlatformPlacement[] placements;
+    private long placedMask = 0;
+    private final PlatformPlacement[] previewPlacements;
+    private final int[] totalScores;
+    private long completedMask = 0;
+    private long failedMask = 0;
+    private final int[] finishOrder;                     // 依完成先後排列的 slot
+    private final long[] finishTimes;                    // 以 slot 為索引
+    private int finishCount = 0;
+    private long playingStartedAt = 0;                   // 進入 PLAYING 的時間（System.nanoTime）
+    private final List<GameObjectInfo> availableObjects = new ArrayList<>();
+    
+    // 位置快照：收到的 PlayerInfo 只記錄最新一筆，由固定頻率的 tick 一次送出
+    private static final int SNAPSHOT_HISTORY = 32;       // 保留幾個快照當差分基準
+    private static final int SNAPSHOT_RESEND_TICKS = 10;  // 幾個 tick 沒確認就重送
+    private final PlayerInfo[] latestPositions;
+    private final long[] snapshotAcks;
+    private long fullSnapshotRequests = 0;               // 要求完整快照的 slot
+    private boolean positionsDirty = false;
+    private final SnapshotHistory snapshotHistory = new SnapshotHistory(SNAPSHOT_HISTORY);
+    private final long[] lastSentTick;                   // 最後送出的快照 tick
+    private final int[] ticksSinceSent;                  // 之後經過的 tick 數
+    private long snapshotTick = 0;
+    private ScheduledFuture<?> tickTask;
+    
+    // 回合階段：由玩家動作推進，PLAYING 的時間上限與排行榜停留都登記在共用時間輪
+    private GamePhase phase = null;            // null 表示不在回合中
+    private TimerWheel.Timeout roundTimer;     // 同一時間最多一個
+    private long timerGeneration = 0;          // 取消或重新排程後，已經入列的到期工作會被忽略
+    private final LevelState level = new LevelState();  // 本場遊戲的關卡幾何
+    
+    public Room(String roomCode, String hostId, int maxPlayers, RoomType roomType, RoomShard shard) {
+        this.shard = shard;
+        this.mailbox = new RoomMailbox("Room " + roomCode, shard);
+        this.roomCode = roomCode;
+        this.hostId = hostId;
+        this.maxPlayers = Math.max(1, Math.min(MAX_SLOTS, maxPlayers));
+        this.roomType = roomType;
+        int slots = this.maxPlayers;
+        slotPlayer = new String[slots];
+        selections = new int[slots];
+        placements = new PlatformPlacement[slots];
+        previewPlacements = new PlatformPlacement[slots];
+        totalScores = new int[slots];
+        finishOrder = new int[slots];
+        finishTimes = new long[slots];
+        latestPositions = new PlayerInfo[slots];
+        snapshotAcks = new long[slots];
+        lastSentTick = new long[slots];
+        ticksSinceSent = new int[slots];
+        assignSlot(hostId);
+        publish();
+        updateMatchmaking();
+    }
+    
+    /**
+     * 把工作放進房間信箱
+     */
+    public void execute(Runnable task) {
+        mailbox.execute(task);
+    }
+    
+    // ==================== 唯讀存取（任何執行緒） ====================
+    
+    public RoomView getView() {
+        return view;
+    }
+    
+    public RoomShard getShard() {
+        return shard;
+    }
+    
+    /**
+     * 目前版本共用的 RoomInfo，呼叫端不可修改
+     */
+    public RoomInfo getInfo() {
+        return view.info();
+    }
+    
+    public String getRoomCode() {
+        return roomCode;
+    }
+    
+    public boolean isEmpty() {
+        return view.playerIds.isEmpty();
+    }
+    
+    public String getHostId() {
+        return view.hostId;
+    }
+    
+    /**
+     * 不可變清單，不需要複製
+     */
+    public List<String> getPlayerIds() {
+        return view.playerIds;
+    }
+    
+    public RoomState getState() {
+        return view.state;
+    }
+    
+    public int getCurrentRound() {
+        return view.currentRound;
+    }
+    
+    public GamePhase getPhase() {
+        return view.phase;
+    }
+    
+    /**
+     * 每次變更後重新發布快照（只在房間執行緒呼叫）
+     */
+    private void publish() {
+        Map<String, Boolean> readyStatus = new HashMap<>();
+        for (String pid : playerIds) {
+            readyStatus.put(pid, (readyMask & bit(slotOf.get(pid))) != 0);
+        }
+        RoomView next = new RoomView(++version, roomCode, hostId, List.copyOf(playerIds), maxPlayers, state,
+                                     currentRound, totalRounds, Map.copyOf(readyStatus), roomType, phase);
+        next.inheritEncoded(view);
+        view = next;
+    }
+    
+    // ==================== 玩家訊息（任何執行緒，放進信箱處理） ====================
+    
+    public void setPlayerReady(String playerId, boolean ready) {
+        execute(() -> {
+            Integer slot = slotOf.get(playerId);
+            if (slot == null) return;
+            readyMask = ready ? readyMask | bit(slot) : readyMask & ~bit(slot);
+            publish();
+            broadcastRoomUpdate();
+            System.out.println("[ROOM] " + playerId + " ready status: " + ready);
+        });
+    }
+    
+    /**
+     * 開始遊戲（僅房主）
+     */
+    public void requestStart(String playerId) {
+        execute(() -> {
+            if (!hostId.equals(playerId)) {
+                System.out.println("[ROOM] Non-host " + playerId + " tried to start game");
+                return;
+            }
+            if (!allPlayersReady()) {
+                System.out.println("[ROOM] Not all players ready");
+                return;
+            }
+            if (state == RoomState.PLAYING) return;
+            
+            startGame();
+            System.out.println("[ROOM] Game started in room " + roomCode + " (Round 1/5)");
+            
+            // 發送地圖配置（只在遊戲開始時發送一次）
+            sendMapConfig();
+            
+            // 開始第一輪
+            startNewRound();
+        });
+    }
+    
+    public void updatePosition(PlayerInfo playerInfo) {
+        execute(() -> {
+            Integer slot = slotOf.get(playerInfo.playerId);
+            if (state != RoomState.PLAYING || slot == null) return;
+            // 只記錄最新位置，下一個 tick 才送出
+            latestPositions[slot] = playerInfo;
+            positionsDirty = true;
+        });
+    }
+    
+    /**
+     * 客戶端確認收到的快照，之後的差分以它為基準；tick 為 0 表示要求完整快照
+     */
+    public void ackSnapshot(String playerId, long tick) {
+        execute(() -> {
+            Integer slot = slotOf.get(playerId);
+            if (slot == null) return;
+            if (tick <= 0) {
+                snapshotAcks[slot] = 0;
+                fullSnapshotRequests |= bit(slot);
+            } else {
+                snapshotAcks[slot] = Math.max(snapshotAcks[slot], tick);
+            }
+        });
+    }
+    
+    /**
+     * 處理選擇
+     */
+    public void selectObject(String playerId, int objectId) {
+        execute(() -> {
+            if (phase != GamePhase.SELECTING) return;  // 階段檢查
+            Integer slot = slotOf.get(playerId);
+            if (slot == null || (selectedMask & bit(slot)) != 0) return;
+            
+            // 檢查物件是否已被選擇
+            GameObjectInfo obj = null;
+            for (GameObjectInfo o : availableObjects) {
+                if (o.id == objectId) {
+                    obj = o;
+                    break;
+                }
+            }
+            if (obj == null || obj.selected) return;
+            
+            obj.selected = true;
+            selections[slot] = objectId;
+            selectedMask |= bit(slot);
+            
+            // 廣播更新的物件列表給所有玩家
+            broadcast(new ObjectListMessage(new ArrayList<>(availableObjects)), null);
+            
+            System.out.println("[SELECT] " + playerId + " chose platform " + objectId);
+            checkRoundProgress();
+        });
+    }
+    
+    /**
+     * 處理放置
+     */
+    public void placePlatform(String playerId, PlacementMessage msg) {
+        execute(() -> {
+            Integer slot = slotOf.get(playerId);
+            if (slot == null) return;
             msg.playerId = playerId;
             
             if (msg.confirmed) {
-                currentRoom.playerPlacements.put(playerId, msg.placement);
-                currentRoom.playerPreviewPlacements.remove(playerId);
+                placements[slot] = msg.placement;
+                placedMask |= bit(slot);
+                previewPlacements[slot] = null;
                 System.out.printf("[PLACE] %s confirmed at (%.0f, %.0f) rotation=%.0f°\n", 
                     playerId, msg.placement.x, msg.placement.y, msg.placement.rotation);
                 
                 // 廣播確認放置
-                broadcastToRoom(msg, null);
+                broadcast(msg, null);
+                checkRoundProgress();
             } else {
-                currentRoom.playerPreviewPlacements.put(playerId, msg.placement);
+                previewPlacements[slot] = msg.placement;
                 // 廣播預覽
-                broadcastToRoom(msg, playerId);
+                broadcast(msg, playerId);
+            }
+        });
+    }
+    
+    /**
+     * 處理完成（只在 PLAYING 階段有效，其他階段收到的是上一回合遲到或偽造的訊息）
+     * 完成時間由客戶端回報，開啟 FINISH_VALIDATION 時以物理核心檢查是否可能（見 PhysicsCore.isPossibleFinish），
+     * 不可能的完成當作失敗；通過檢查的時間原樣採用，不依伺服器量到的時間改寫。
+     */
+    public void playerFinished(String playerId, long finishTime) {
+        execute(() -> {
+            Integer slot = slotOf.get(playerId);
+            if (phase != GamePhase.PLAYING || slot == null || (completedMask & bit(slot)) != 0) return;
+            
+            if (GameServer.isFinishValidationEnabled()) {
+                long elapsed = (System.nanoTime() - playingStartedAt) / 1_000_000;
+                if (!PhysicsCore.isPossibleFinish(finishTime, elapsed, FINISH_SLACK_MILLIS)) {
+                    completedMask |= bit(slot);
+                    failedMask |= bit(slot);
+                    System.out.printf("[FINISH] Rejected %s: reported %.2fs, %.2fs into the round, course takes at least %.2fs\n",
+                        playerId, finishTime / 1000.0, elapsed / 1000.0, PhysicsCore.minimumFinishMillis() / 1000.0);
+                    checkRoundProgress();
+                    return;
+                }
             }
-        }
-        
-        /**
-         * 處理完成
-         */
-        private void handleFinish(FinishMessage msg) {
-            if (currentRoom == null) return;
-            if (currentRoom.completedPlayers.contains(playerId)) return;
             
-            currentRoom.completedPlayers.add(playerId);
-            currentRoom.finishRecords.add(new FinishRecord(playerId, msg.finishTime));
+            completedMask |= bit(slot);
+            finishTimes[slot] = finishTime;
+            finishOrder[finishCount++] = slot;
             
             System.out.printf("[FINISH] %s completed! Rank: %d | Time: %.2fs\n", 
-                playerId, currentRoom.finishRecords.size(), msg.finishTime / 1000.0);
-        }
-        
-        /**
-         * 處理失敗
-         */
-        private void handleFail(FailMessage msg) {
-            if (currentRoom == null) return;
-            if (currentRoom.completedPlayers.contains(playerId)) return;
+                playerId, finishCount, finishTime / 1000.0);
+            checkRoundProgress();
+        });
+    }
+    
+    /**
+     * 處理失敗（只在 PLAYING 階段有效）
+     */
+    public void playerFailed(String playerId) {
+        execute(() -> {
+            Integer slot = slotOf.get(playerId);
+            if (phase != GamePhase.PLAYING || slot == null || (completedMask & bit(slot)) != 0) return;
             
-            currentRoom.completedPlayers.add(playerId);
-            currentRoom.failedPlayers.add(playerId);
+            completedMask |= bit(slot);
+            failedMask |= bit(slot);
             System.out.println("[FAIL] " + playerId + " fell off the map!");
+            checkRoundProgress();
+        });
+    }
+    
+    /**
+     * 總分（以玩家 id 為鍵的副本，給訊息與日誌使用）
+     */
+    public Map<String, Integer> getTotalScores() {
+        Map<String, Integer> scores = new HashMap<>();
+        for (String pid : playerIds) {
+            scores.put(pid, totalScores[slotOf.get(pid)]);
         }
+        return scores;
+    }
+    
+    // ==================== 成員變更（只在房間執行緒呼叫，由 RoomManager 放進信箱） ====================
+    
+    boolean addPlayer(String playerId) {
+        if (closed || state != RoomState.WAITING) return false;
+        if (playerIds.size() >= maxPlayers) return false;
+        if (slotOf.containsKey(playerId)) return false;
         
-        /**
-         * 離開房間
-         */
-        private void handleLeaveRoom() {
-            if (currentRoom == null) return;
-            
-            RoomManager.leaveRoom(playerId);
-            currentRoom = null;
-            
-            System.out.println("[ROOM] " + playerId + " left the room");
+        assignSlot(playerId);
+        publish();
+        updateMatchmaking();
+        return true;
+    }
+    
+    /**
+     * 移除玩家，回傳房間是否因此清空（清空後房間關閉）
+     */
+    boolean removePlayer(String playerId) {
+        Integer slot = slotOf.remove(playerId);
+        if (slot == null) return playerIds.isEmpty();
+        playerIds.remove(playerId);
+        releaseSlot(slot);
+        
+        if (playerIds.isEmpty()) {
+            closed = true;
+            stopTick();
+            phase = null;
+            cancelRoundTimer();
+            publish();
+            updateMatchmaking();
+            return true;
         }
         
-        /**
-         * 廣播房間更新
-         */
-        private void broadcastRoomUpdate() {
-            if (currentRoom == null) return;
-            
-            RoomUpdateMessage msg = new RoomUpdateMessage(currentRoom.getInfo());
-            for (String pid : currentRoom.getPlayerIds()) {
-                ClientHandler handler = clients.get(pid);
-                if (handler != null) {
-                    handler.sendObject(msg);
-                }
-            }
+        if (playerId.equals(hostId)) {
+            hostId = playerIds.get(0);
+            System.out.println("[ROOM] Host transferred to " + hostId);
+        }
+        publish();
+        updateMatchmaking();
+        // 剩下的人可能已經滿足階段條件
+        checkRoundProgress();
+        return false;
+    }
+    
+    private static long bit(int slot) {
+        return 1L << slot;
+    }
+    
+    private void assignSlot(String playerId) {
+        int slot = Long.numberOfTrailingZeros(~occupiedMask);
+        occupiedMask |= bit(slot);
+        slotOf.put(playerId, slot);
+        slotPlayer[slot] = playerId;
+        playerIds.add(playerId);
+        shard.playerJoined();
+        totalScores[slot] = 0;
+        snapshotAcks[slot] = 0;
+        lastSentTick[slot] = 0;
+        ticksSinceSent[slot] = 0;
+    }
+    
+    /**
+     * 清掉 slot 上的所有狀態，之後可以分配給新玩家
+     */
+    private void releaseSlot(int slot) {
+        long clear = ~bit(slot);
+        occupiedMask &= clear;
+        readyMask &= clear;
+        selectedMask &= clear;
+        placedMask &= clear;
+        completedMask &= clear;
+        failedMask &= clear;
+        fullSnapshotRequests &= clear;
+        slotPlayer[slot] = null;
+        shard.playerLeft();
+        placements[slot] = null;
+        previewPlacements[slot] = null;
+        latestPositions[slot] = null;
+        // 已完成名單中的 slot 一併移除
+        int kept = 0;
+        for (int i = 0; i < finishCount; i++) {
+            if (finishOrder[i] != slot) finishOrder[kept++] = finishOrder[i];
         }
+        finishCount = kept;
+    }
+    
+    /**
+     * 遮罩涵蓋所有在房間內的玩家
+     */
+    private boolean coversAll(long mask) {
+        return Long.bitCount(mask & occupiedMask) == Long.bitCount(occupiedMask);
+    }
+    
+    private boolean allPlayersReady() {
+        if (occupiedMask == 0) return false;
+        // 房主略過
+        return coversAll(readyMask | bit(slotOf.get(hostId)));
+    }
+    
+    private void startGame() {
+        state = RoomState.PLAYING;
+        currentRound = 1;
+        // 清空舊遊戲的分數
+        Arrays.fill(totalScores, 0);
+        readyMask = 0;
+        startTick();
+        publish();
+        updateMatchmaking();
+    }
+    
+    private void returnToWaiting() {
+        state = RoomState.WAITING;
+        currentRound = 0;
+        readyMask = 0;
+        stopTick();
+        phase = null;
+        cancelRoundTimer();
+        publish();
+        updateMatchmaking();
+    }
+    
+    /**
+     * 公共房間把是否可加入與空位數回報給 RoomManager 的索引
+     */
+    private void updateMatchmaking() {
+        if (roomType != RoomType.PUBLIC) return;
+        RoomManager.updateOpenRoom(this, !closed && state == RoomState.WAITING, maxPlayers - playerIds.size());
+    }
+    
+    // ==================== 回合流程 ====================
+    
+    /**
+     * 開始新一輪遊戲
+     */
+    private void startNewRound() {
+        // 生成供玩家選擇的物件
+        availableObjects.clear();
+        availableObjects.addAll(generateNewObjects());
         
-        /**
-         * 廣播訊息給房間內所有玩家（可排除某玩家）
-         */
-        private void broadcastToRoom(Object obj, String excludeId) {
-            if (currentRoom == null) return;
+        // 初始化回合狀態
+        selectedMask = 0;
+        placedMask = 0;
+        completedMask = 0;
+        failedMask = 0;
+        finishCount = 0;
+        playingStartedAt = 0;
+        Arrays.fill(placements, null);
+        Arrays.fill(previewPlacements, null);
+        clearPositions();
+        
+        // 之後的階段轉換由玩家動作觸發
+        cancelRoundTimer();
+        phase = GamePhase.SELECTING;
+        publish();
+        
+        // 發送選擇階段訊息和物件列表
+        broadcast(new PhaseChangeMessage(GamePhase.SELECTING), null);
+        broadcast(new ObjectListMessage(new ArrayList<>(availableObjects)), null);
+    }
+    
+    /**
+     * 檢查回合進度
+     * 由選擇、放置、完成、失敗與離開事件直接呼叫，條件成立時立刻廣播階段變更。
+     */
+    private void checkRoundProgress() {
+        if (state != RoomState.PLAYING || occupiedMask == 0) return;
+        
+        // 所有玩家都選擇了
+        if (phase == GamePhase.SELECTING && coversAll(selectedMask)) {
+            phase = GamePhase.PLACING;
+            publish();
+            broadcast(new PhaseChangeMessage(GamePhase.PLACING), null);
+            System.out.println("[ROUND] Phase -> PLACING");
+        }
+        
+        // 所有玩家都放置了
+        if (phase == GamePhase.PLACING && coversAll(placedMask)) {
+            phase = GamePhase.PLAYING;
+            playingStartedAt = System.nanoTime();
+            publish();
             
-            for (String pid : currentRoom.getPlayerIds()) {
-                if (excludeId != null && pid.equals(excludeId)) continue;
-                
-                ClientHandler handler = clients.get(pid);
-                if (handler != null) {
-                    handler.sendObject(obj);
-                }
+            // 本回合的關卡只計算一次，每個玩家收到相同的兩個訊框
+            List<PlatformPlacement> roundPlacements = new ArrayList<>();
+            for (long m = placedMask & occupiedMask; m != 0; m &= m - 1) {
+                roundPlacements.add(placements[Long.numberOfTrailingZeros(m)]);
             }
+            Map<Integer, ObjectType> typeById = new HashMap<>();
+            for (GameObjectInfo info : availableObjects) {
+                typeById.put(info.id, info.type);
+            }
+            LevelSnapshot levelSnapshot = level.applyRound(currentRound, roundPlacements, typeById);
+            broadcast(new PhaseChangeMessage(GamePhase.PLAYING), null);
+            broadcast(levelSnapshot, null);
+            System.out.println("[ROUND] Level: +" + levelSnapshot.addedIds.length + " -" + 
+                levelSnapshot.removedIds.length + " (" + level.size() + " objects)");
+            scheduleRoundTimer(GAME_DURATION, () -> {
+                if (phase != GamePhase.PLAYING) return;
+                System.out.println("[ROUND] Ending round - time up");
+                endCurrentRound();
+            });
+            System.out.println("[ROUND] Phase -> PLAYING");
         }
         
-        /**
-         * 生成新物件
-         */
-        private List<GameObjectInfo> generateNewObjects() {
-            List<GameObjectInfo> objects = new ArrayList<>();
-            Random rand = new Random();
-        // 原始數量 8-10，現在加倍 => 16-20
-        int originalCount = 8 + rand.nextInt(3);
-        int targetCount = Math.min(20, originalCount * 2); // 上限 20
-
-    // 為避免"重疊"（此處解讀為重複屬性）採用唯一性鍵值 (type+width+height) 防止相同規格重複
-    Set<String> uniqueness = new HashSet<>();
-    int idCounter = 0;
-    int attempts = 0;
-    while (objects.size() < targetCount && attempts < 400) {
-        attempts++;
-        ObjectType type = ObjectType.values()[rand.nextInt(ObjectType.values().length)];
-        int width, height; String color; double moveSpeed = 0, moveRange = 0, fireRate = 0, rotateSpeed = 0;
-        switch(type) {
-            case DEATH -> {
-                width = 100 + rand.nextInt(80);
-                height = 20 + rand.nextInt(10);
-                color = "#FF0000";
-            }
-            case ERASER -> {
-                width = 150; height = 150; color = "#FFAAFF";
-            }
-            case MOVING_H -> {
-                width = 120 + rand.nextInt(50); height = 20 + rand.nextInt(10); color = "#00AAFF";
-                moveSpeed = 2 + rand.nextDouble() * 2; moveRange = 200 + rand.nextInt(200);
-            }
-            case MOVING_V -> {
-                width = 120 + rand.nextInt(50); height = 20 + rand.nextInt(10); color = "#AA00FF";
-                moveSpeed = 2 + rand.nextDouble() * 2; moveRange = 150 + rand.nextInt(150);
-            }
-            case BOUNCE -> {
-                width = 100 + rand.nextInt(60); height = 25 + rand.nextInt(10); color = "#00FF00";
-            }
-            case TURRET -> {
-                width = 80; height = 80; color = "#FF6600"; fireRate = 2 + rand.nextDouble() * 2;
-            }
-            default -> { // NORMAL
-                width = 80 + rand.nextInt(150); height = 15 + rand.nextInt(20);
-                color = String.format("#%06X", rand.nextInt(0xFFFFFF) | 0x800000);
-            }
-        }
-        String key = type + ":" + width + "x" + height;
-        if (uniqueness.contains(key)) continue; // 避免重複規格
-        uniqueness.add(key);
-        GameObjectInfo obj = new GameObjectInfo(idCounter++, width, height, color, type, moveSpeed, moveRange, fireRate);
-        objects.add(obj);
-    }
-    return objects;
-}
-
-        boolean sendObject(Object obj) {
-            try {
-                synchronized (out) {
-                    out.writeObject(obj);
-                    out.flush();
-                    out.reset();
-                }
-                return true;
-            } catch (IOException e) {
-                return false;
+        if (phase == GamePhase.PLAYING) {
+            boolean allFinished = coversAll(completedMask);
+            boolean allFailed = coversAll(failedMask);
+            if (allFinished || allFailed) {
+                System.out.println("[ROUND] Ending round - " +
+                    (allFailed ? "all failed" : "all finished"));
+                endCurrentRound();
             }
         }
-
-        private void cleanup() {
-            running = false;
-            clients.remove(playerId);
+    }
+    
+    /**
+     * 結束當前回合
+     */
+    private void endCurrentRound() {
+        phase = null;
+        cancelRoundTimer();
+        publish();
+        
+        // 計算分數並更新總分
+        int[] roundScores = calculateRoundScores();
+        for (int slot = 0; slot < totalScores.length; slot++) {
+            totalScores[slot] += roundScores[slot];
+        }
+        
+        // 準備完成順序：完成的玩家、失敗的玩家、其餘玩家
+        List<String> finishOrderIds = new ArrayList<>();
+        for (int i = 0; i < finishCount; i++) {
+            finishOrderIds.add(slotPlayer[finishOrder[i]]);
+        }
+        for (long m = failedMask & occupiedMask; m != 0; m &= m - 1) {
+            finishOrderIds.add(slotPlayer[Long.numberOfTrailingZeros(m)]);
+        }
+        for (String pid : playerIds) {
+            if ((completedMask & bit(slotOf.get(pid))) == 0) finishOrderIds.add(pid);
+        }
+        
+        // 發送回合結束訊息（以玩家 id 為鍵的地圖只在這裡建立一次）
+        Map<String, Integer> roundScoreMap = new HashMap<>();
+        for (String pid : playerIds) {
+            roundScoreMap.put(pid, roundScores[slotOf.get(pid)]);
+        }
+        broadcast(new RoundEndMessage(roundScoreMap, getTotalScores(), finishOrderIds,
+                                      currentRound, totalRounds), null);
+        
+        System.out.println("[ROUND] Round " + currentRound + " ended");
+        printLeaderboard(roundScores);
+        
+        // 3秒顯示排行榜後決定下一步（由時間輪觸發）
+        scheduleRoundTimer(INTERMISSION_MILLIS, this::continueAfterRound);
+    }
+    
+    /**
+     * 排行榜停留結束：進入下一輪或返回房間
+     */
+    private void continueAfterRound() {
+        if (state != RoomState.PLAYING) return;
+        
+        // 檢查是否完成5輪
+        if (currentRound >= totalRounds) {
+            // 遊戲結束，返回房間
+            returnToWaiting();
             
-            if (currentRoom != null) {
-                RoomManager.leaveRoom(playerId);
-                broadcastRoomUpdate();
-                
-                DisconnectMessage disconnectMsg = new DisconnectMessage(playerId);
-                broadcastToRoom(disconnectMsg, null);
-            }
+            broadcast(new ReturnToRoomMessage(
+                "Game Complete! 5 rounds finished. Ready up for another game!"), null);
+            broadcastRoomUpdate();
             
-            try {
-                if (out != null) out.close();
-                if (in != null) in.close();
-                socket.close();
-            } catch (IOException e) {
-                // 忽略
+            System.out.println("[GAME] Complete! Room " + roomCode + " returned to waiting");
+        } else {
+            // 繼續下一輪
+            currentRound++;
+            System.out.println("[GAME] Starting round " + currentRound + "/5");
+            startNewRound();
+        }
+    }
+    
+    /**
+     * 計算回合分數（以 slot 為索引）
+     */
+    private int[] calculateRoundScores() {
+        int[] scores = new int[totalScores.length];
+        
+        // 依完成時間排序（人數很少，插入排序即可）
+        for (int i = 1; i < finishCount; i++) {
+            int slot = finishOrder[i];
+            int j = i - 1;
+            while (j >= 0 && finishTimes[finishOrder[j]] > finishTimes[slot]) {
+                finishOrder[j + 1] = finishOrder[j];
+                j--;
             }
+            finishOrder[j + 1] = slot;
+        }
+        
+        // 分配分數，失敗和未完成的玩家得0分
+        for (int i = 0; i < finishCount; i++) {
+            scores[finishOrder[i]] = (i == 0) ? 100 : (i == 1) ? 70 : (i == 2) ? 50 : 30;
         }
+        
+        return scores;
     }
     
-    static class FinishRecord {
-        String playerId;
-        long finishTime;
+    /**
+     * 列印排行榜
+     */
+    private void printLeaderboard(int[] roundScores) {
+        System.out.println("\n========== LEADERBOARD ==========");
         
-        FinishRecord(String playerId, long finishTime) {
-            this.playerId = playerId;
-            this.finishTime = finishTime;
+        List<String> sorted = new ArrayList<>(playerIds);
+        sorted.sort((a, b) -> Integer.compare(totalScores[slotOf.get(b)], totalScores[slotOf.get(a)]));
+        
+        int rank = 1;
+        for (String pid : sorted) {
+            int slot = slotOf.get(pid);
+            System.out.printf("%d. %s | Round: +%d | Total: %d\n", rank++, pid, roundScores[slot], totalScores[slot]);
         }
+        System.out.println("=================================\n");
     }
-}
-
-/**
- * Room 類別擴展（添加遊戲狀態）
- */
-class Room {
-    private final RoomInfo info;
-    private final Object lock = new Object();
     
-    // 遊戲狀態
-    final Map<String, Integer> playerSelections = new ConcurrentHashMap<>();
-    final Map<String, PlatformPlacement> playerPlacements = new ConcurrentHashMap<>();
-    final Map<String, PlatformPlacement> playerPreviewPlacements = new ConcurrentHashMap<>();
-    final Map<String, Integer> playerTotalScores = new ConcurrentHashMap<>();
-    final List<GameServer.FinishRecord> finishRecords = Collections.synchronizedList(new ArrayList<>());
-    final Set<String> failedPlayers = ConcurrentHashMap.newKeySet();
-    final Set<String> completedPlayers = ConcurrentHashMap.newKeySet();
-    final List<GameObjectInfo> availableObjects = Collections.synchronizedList(new ArrayList<>());
-    
-    public Room(String roomCode, String hostId, int maxPlayers, RoomType roomType) {
-    this.info = new RoomInfo(roomCode, hostId, maxPlayers, roomType);
-    // 初始化分數
-    playerTotalScores.put(hostId, 0);
-}
+    /**
+     * 在時間輪上排程回合計時；到期時放回房間信箱執行。
+     * 取消或被新的計時取代後，已經入列的到期工作會因世代不符而忽略。
+     */
+    private void scheduleRoundTimer(long delayMillis, Runnable task) {
+        cancelRoundTimer();
+        long generation = timerGeneration;
+        roundTimer = ServerExecutors.timers().schedule(delayMillis, TimeUnit.MILLISECONDS,
+            () -> execute(() -> {
+                if (generation != timerGeneration) return;
+                roundTimer = null;
+                task.run();
+            }));
+    }
     
-    public boolean addPlayer(String playerId) {
-        synchronized (lock) {
-            if (info.state != RoomState.WAITING) return false;
-            if (info.playerIds.size() >= info.maxPlayers) return false;
-            if (!info.playerIds.contains(playerId)) {
-                info.playerIds.add(playerId);
-                info.readyStatus.put(playerId, false);
-                playerTotalScores.put(playerId, 0);
-                return true;
-            }
-            return false;
+    private void cancelRoundTimer() {
+        timerGeneration++;
+        if (roundTimer != null) {
+            roundTimer.cancel();
+            roundTimer = null;
         }
     }
     
-    public void removePlayer(String playerId) {
-        synchronized (lock) {
-            info.playerIds.remove(playerId);
-            info.readyStatus.remove(playerId);
-            playerTotalScores.remove(playerId);
-            
-            if (playerId.equals(info.hostId) && !info.playerIds.isEmpty()) {
-                info.hostId = info.playerIds.get(0);
-                System.out.println("[ROOM] Host transferred to " + info.hostId);
+    /**
+     * 生成新物件
+     */
+    private static List<GameObjectInfo> generateNewObjects() {
+        List<GameObjectInfo> objects = new ArrayList<>();
+        Random rand = new Random();
+        // 原始數量 8-10，現在加倍 => 16-20
+        int originalCount = 8 + rand.nextInt(3);
+        int targetCount = Math.min(20, originalCount * 2); // 上限 20
+
+        // 為避免"重疊"（此處解讀為重複屬性）採用唯一性鍵值 (type+width+height) 防止相同規格重複
+        Set<String> uniqueness = new HashSet<>();
+        int idCounter = 0;
+        int attempts = 0;
+        while (objects.size() < targetCount && attempts < 400) {
+            attempts++;
+            ObjectType type = ObjectType.values()[rand.nextInt(ObjectType.values().length)];
+            int width, height; String color; double moveSpeed = 0, moveRange = 0, fireRate = 0, rotateSpeed = 0;
+            switch(type) {
+                case DEATH -> {
+                    width = 100 + rand.nextInt(80);
+                    height = 20 + rand.nextInt(10);
+                    color = "#FF0000";
+                }
+                case ERASER -> {
+                    width = 150; height = 150; color = "#FFAAFF";
+                }
+                case MOVING_H -> {
+                    width = 120 + rand.nextInt(50); height = 20 + rand.nextInt(10); color = "#00AAFF";
+                    moveSpeed = 2 + rand.nextDouble() * 2; moveRange = 200 + rand.nextInt(200);
+                }
+                case MOVING_V -> {
+                    width = 120 + rand.nextInt(50); height = 20 + rand.nextInt(10); color = "#AA00FF";
+                    moveSpeed = 2 + rand.nextDouble() * 2; moveRange = 150 + rand.nextInt(150);
+                }
+                case BOUNCE -> {
+                    width = 100 + rand.nextInt(60); height = 25 + rand.nextInt(10); color = "#00FF00";
+                }
+                case TURRET -> {
+                    width = 80; height = 80; color = "#FF6600"; fireRate = 2 + rand.nextDouble() * 2;
+                }
+                default -> { // NORMAL
+                    width = 80 + rand.nextInt(150); height = 15 + rand.nextInt(20);
+                    color = String.format("#%06X", rand.nextInt(0xFFFFFF) | 0x800000);
+                }
             }
+            String key = type + ":" + width + "x" + height;
+            if (uniqueness.contains(key)) continue; // 避免重複規格
+            uniqueness.add(key);
+            GameObjectInfo obj = new GameObjectInfo(idCounter++, width, height, color, type, moveSpeed, moveRange, fireRate);
+            objects.add(obj);
         }
+        return objects;
     }
     
-    public void setPlayerReady(String playerId, boolean ready) {
-        synchronized (lock) {
-            info.readyStatus.put(playerId, ready);
-        }
-    }
+    // ==================== 廣播 ====================
     
- public boolean allPlayersReady() {
-    synchronized (lock) {
-        if (info.playerIds.isEmpty()) return false;
-        for (String pid : info.playerIds) {
-            if (pid.equals(info.hostId)) continue; // 房主略過
-            if (!info.readyStatus.getOrDefault(pid, false)) return false;
-        }
-        return true;
+    /**
+     * 廣播房間更新；同一版本重複廣播共用已編碼的訊框
+     */
+    void broadcastRoomUpdate() {
+        broadcastFrame(view.updateFrame());
     }
-}
-
     
-    public void startGame() {
-        synchronized (lock) {
-            info.state = RoomState.PLAYING;
-            info.currentRound = 1;
-            // 清空舊遊戲的分數
-            playerTotalScores.clear();
-            for (String pid : info.playerIds) {
-                info.readyStatus.put(pid, false);
-                playerTotalScores.put(pid, 0);
+    /**
+     * 廣播已經建立好的共用訊框
+     */
+    void broadcastFrame(BroadcastFrame frame) {
+        for (String pid : view.playerIds) {
+            GameServer.ClientHandler handler = GameServer.getClientHandler(pid);
+            if (handler != null) {
+                handler.sendFrame(frame);
             }
         }
     }
     
-    // 加載並發送地圖配置
-    public void sendMapConfig() {
-        try {
-            MapConfig mapConfig = new MapConfig();
-            mapConfig.load();
-            List<MapPlatform> platforms = mapConfig.getPlatforms();
+    /**
+     * 廣播訊息給房間內所有玩家（可排除某玩家）
+     * 訊息只編碼一次，所有收件者共用同一份位元組
+     */
+    void broadcast(Object obj, String excludeId) {
+        BroadcastFrame frame = new BroadcastFrame(obj);
+        for (String pid : view.playerIds) {
+            if (excludeId != null && pid.equals(excludeId)) continue;
             
-            if (!platforms.isEmpty()) {
-                // 轉換為 PlatformPlacement 列表
-                List<PlatformPlacement> mapPlacements = new ArrayList<>();
-                for (MapPlatform mp : platforms) {
-                    mapPlacements.add(new PlatformPlacement(-1, mp.x, mp.y, 
-                                                           mp.width, mp.height, 
-                                                           mp.color, mp.rotation));
-                }
-                
-                // 發送給房間內所有玩家
-                RandomPlatformsMessage mapMsg = new RandomPlatformsMessage(mapPlacements);
-                for (String pid : info.playerIds) {
-                    GameServer.ClientHandler handler = GameServer.getClientHandler(pid);
-                    if (handler != null) {
-                        handler.sendObject(mapMsg);
-                    }
-                }
-                System.out.println("[ROOM] Sent map config with " + platforms.size() + " platforms");
-            } else {
-                System.out.println("[ROOM] No map config found, using empty map");
+            GameServer.ClientHandler handler = GameServer.getClientHandler(pid);
+            if (handler != null) {
+                handler.sendFrame(frame);
             }
-        } catch (Exception e) {
-            System.out.println("[ROOM] Failed to load map config: " + e.getMessage());
         }
     }
     
-    public void nextRound() {
-        synchronized (lock) {
-            info.currentRound++;
-        }
+    // ==================== 位置快照 tick ====================
+    
+    private void clearPositions() {
+        Arrays.fill(latestPositions, null);
+        positionsDirty = false;
+    }
+    
+    private void startTick() {
+        if (tickTask != null) return;
+        long periodMicros = 1_000_000L / GameServer.getRoomTickRate();
+        // 排程執行緒只負責把 tick 放進信箱
+        tickTask = ServerExecutors.roomTicks().scheduleAtFixedRate(
+            () -> execute(this::tick), periodMicros, periodMicros, TimeUnit.MICROSECONDS);
     }
     
-    public boolean isGameComplete() {
-        synchronized (lock) {
-            return info.currentRound >= info.totalRounds;
+    private void stopTick() {
+        if (tickTask != null) {
+            tickTask.cancel(false);
+            tickTask = null;
         }
+        clearPositions();
     }
     
-    public void returnToWaiting() {
-        synchronized (lock) {
-            info.state = RoomState.WAITING;
-            info.currentRound = 0;
-            for (String pid : info.playerIds) {
-                info.readyStatus.put(pid, false);
+    /**
+     * 每個 tick 把所有玩家的最新位置量化成一個快照，
+     * 依各客戶端確認過的基準送出差分（同一基準的玩家共用同一份編碼）。
+     * 沒有基準、基準太舊或玩家名單變動時送完整快照。
+     */
+    private void tick() {
+        if (tickTask == null) return;  // 停止後仍在信箱中的 tick
+        if (positionsDirty) {
+            positionsDirty = false;
+            List<PlayerInfo> players = new ArrayList<>();
+            for (long m = occupiedMask; m != 0; m &= m - 1) {
+                PlayerInfo p = latestPositions[Long.numberOfTrailingZeros(m)];
+                if (p != null) players.add(p);
             }
+            if (!players.isEmpty()) {
+                snapshotHistory.put(SnapshotState.capture(++snapshotTick, players));
+            }
+        }
+        SnapshotState current = snapshotHistory.latest();
+        if (current == null) return;
+        
+        Map<Long, BroadcastFrame> framesByBase = new HashMap<>();
+        for (long m = occupiedMask; m != 0; m &= m - 1) {
+            int slot = Long.numberOfTrailingZeros(m);
+            boolean forceFull = (fullSnapshotRequests & bit(slot)) != 0;
+            fullSnapshotRequests &= ~bit(slot);
+            long acked = forceFull ? 0 : snapshotAcks[slot];
+            if (acked >= current.tick) continue;  // 已經是最新
+            
+            // 新快照立即送出；遲遲沒有確認時定期重送
+            if (!forceFull && lastSentTick[slot] >= current.tick && ++ticksSinceSent[slot] < SNAPSHOT_RESEND_TICKS) continue;
+            
+            GameServer.ClientHandler handler = GameServer.getClientHandler(slotPlayer[slot]);
+            if (handler == null) continue;
+            SnapshotState base = snapshotHistory.get(acked);
+            SnapshotState delta = current.sameRoster(base) ? base : null;
+            BroadcastFrame frame = framesByBase.computeIfAbsent(delta == null ? 0L : delta.tick,
+                k -> new BroadcastFrame(SnapshotCodec.encode(current, delta)));
+            handler.sendUnreliable(frame);
+            lastSentTick[slot] = current.tick;
+            ticksSinceSent[slot] = 0;
         }
     }
     
-    public RoomInfo getInfo() {
-    synchronized (lock) {
-        RoomInfo copy = new RoomInfo(info.roomCode, info.hostId, info.maxPlayers, info.roomType);
-        copy.playerIds = new ArrayList<>(info.playerIds);
-        copy.state = info.state;
-        copy.currentRound = info.currentRound;
-        copy.totalRounds = info.totalRounds;
-        copy.readyStatus = new HashMap<>(info.readyStatus);
-        return copy;
+    // 發送地圖配置（地圖由 MapCache 載入一次，所有房間共用同一個已編碼的訊框）
+    // 只公告內容雜湊，客戶端快取沒有這張地圖時再以 MapRequest 取回
+    private void sendMapConfig() {
+        LoadedMap map = MapCache.get();
+        level.reset(map.placements);
+        if (map.isEmpty()) {
+            System.out.println("[ROOM] No map config found, using empty map");
+            return;
+        }
+        broadcastFrame(map.announce);
+        System.out.println("[ROOM] Announced map v" + map.version + " (" + map.hash.substring(0, 8) + ") with " +
+                           map.placements.size() + " platforms");
     }
 }
+
+/**
+ * 伺服器端的關卡幾何：地圖平台加上之前回合留下的玩家物件
+ * 進入 PLAYING 時由房間執行緒套用本回合的放置，橡皮擦在這裡就移除重疊的物件，
+ * 結果是一則 LevelSnapshot（只有差異），所有客戶端共用同一個訊框。
+ * 固定的起點、終點與中間平台只在客戶端，不會被擦掉。
+ */
+class LevelState {
+    private final Map<Integer, PlatformPlacement> objects = new LinkedHashMap<>();  // levelId -> 物件
+    private int nextId = 0;
     
-    public boolean isEmpty() {
-        synchronized (lock) {
-            return info.playerIds.isEmpty();
+    /**
+     * 新遊戲：只剩地圖平台，編號依地圖順序
+     */
+    void reset(List<PlatformPlacement> mapPlatforms) {
+        objects.clear();
+        nextId = 0;
+        for (PlatformPlacement p : mapPlatforms) {
+            objects.put(nextId++, p);
         }
     }
     
-    public String getHostId() {
-        synchronized (lock) {
-            return info.hostId;
+    /**
+     * 套用一個回合的放置
+     * 先加入所有非橡皮擦物件，再套用橡皮擦，結果與放置的先後順序無關；
+     * 重疊判斷與原本客戶端相同（未旋轉的矩形，邊緣相碰也算）
+     */
+    LevelSnapshot applyRound(int round, List<PlatformPlacement> placements, Map<Integer, ObjectType> typeById) {
+        List<PlatformPlacement> erasers = new ArrayList<>();
+        Map<Integer, PlatformPlacement> added = new LinkedHashMap<>();
+        for (PlatformPlacement p : placements) {
+            if (typeById.get(p.id) == ObjectType.ERASER) {
+                erasers.add(p);
+            } else {
+                added.put(nextId, p);
+                objects.put(nextId++, p);
+            }
         }
+        
+        List<Integer> removed = new ArrayList<>();
+        for (PlatformPlacement eraser : erasers) {
+            Iterator<Map.Entry<Integer, PlatformPlacement>> it = objects.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Integer, PlatformPlacement> entry = it.next();
+                if (overlaps(eraser, entry.getValue())) {
+                    it.remove();
+                    // 同一回合加入又被擦掉的物件不必送出
+                    if (added.remove(entry.getKey()) == null) removed.add(entry.getKey());
+                }
+            }
+        }
+        
+        int[] removedIds = removed.stream().mapToInt(Integer::intValue).toArray();
+        int[] addedIds = added.keySet().stream().mapToInt(Integer::intValue).toArray();
+        return new LevelSnapshot(round, removedIds, addedIds, new ArrayList<>(added.values()), objects.size());
     }
     
-    public List<String> getPlayerIds() {
-        synchronized (lock) {
-            return new ArrayList<>(info.playerIds);
+    int size() {
+        return objects.size();
+    }
+    
+    private static boolean overlaps(PlatformPlacement a, PlatformPlacement b) {
+        return !(a.x + a.width < b.x || a.x > b.x + b.width ||
+                 a.y + a.height < b.y || a.y > b.y + b.height);
+    }
+}
+
+/**
+ * 房間的不可變快照：每次變更後由房間執行緒發布，其他執行緒讀取時不需要鎖也不需要複製。
+ * 送給客戶端的 RoomInfo 與 RoomUpdateMessage 訊框在第一次需要時建立，同一版本之後都共用。
+ */
+final class RoomView {
+    final long version;
+    final String roomCode;
+    final String hostId;
+    final List<String> playerIds;
+    final int maxPlayers;
+    final RoomState state;
+    final int currentRound;
+    final int totalRounds;
+    final Map<String, Boolean> readyStatus;
+    final RoomType roomType;
+    final GamePhase phase;
+    
+    // 延遲建立；多條執行緒同時建立也只是多做一次，結果相同
+    private volatile RoomInfo info;
+    private volatile BroadcastFrame updateFrame;
+    
+    RoomView(long version, String roomCode, String hostId, List<String> playerIds, int maxPlayers, RoomState state,
+             int currentRound, int totalRounds, Map<String, Boolean> readyStatus,
+             RoomType roomType, GamePhase phase) {
+        this.version = version;
+        this.roomCode = roomCode;
+        this.hostId = hostId;
+        this.playerIds = playerIds;
+        this.maxPlayers = maxPlayers;
+        this.state = state;
+        this.currentRound = currentRound;
+        this.totalRounds = totalRounds;
+        this.readyStatus = readyStatus;
+        this.roomType = roomType;
+        this.phase = phase;
+    }
+    
+    /**
+     * 送給客戶端的 RoomInfo（每個版本只建立一次，呼叫端不可修改）
+     */
+    RoomInfo info() {
+        RoomInfo result = info;
+        if (result == null) {
+            result = new RoomInfo(roomCode, hostId, maxPlayers, roomType);
+            result.playerIds = new ArrayList<>(playerIds);
+            result.state = state;
+            result.currentRound = currentRound;
+            result.totalRounds = totalRounds;
+            result.readyStatus = new HashMap<>(readyStatus);
+            info = result;
         }
+        return result;
     }
     
-    public RoomState getState() {
-        synchronized (lock) {
-            return info.state;
+    /**
+     * 只有階段變更時 RoomInfo 內容相同，沿用上一版已建立的 RoomInfo 與訊框
+     */
+    void inheritEncoded(RoomView previous) {
+        if (previous == null) return;
+        if (Objects.equals(hostId, previous.hostId) && state == previous.state
+                && currentRound == previous.currentRound && playerIds.equals(previous.playerIds)
+                && readyStatus.equals(previous.readyStatus)) {
+            info = previous.info;
+            updateFrame = previous.updateFrame;
         }
     }
     
-    public int getCurrentRound() {
-        synchronized (lock) {
-            return info.currentRound;
+    /**
+     * 這個版本的 RoomUpdateMessage 訊框，編碼結果由 BroadcastFrame 快取
+     */
+    BroadcastFrame updateFrame() {
+        BroadcastFrame result = updateFrame;
+        if (result == null) {
+            result = new BroadcastFrame(new RoomUpdateMessage(info()));
+            updateFrame = result;
         }
+        return result;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,164 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 已載入的地圖（不可變）
+ * 平台清單轉成 PlatformPlacement 一次並計算內容雜湊。遊戲開始時只廣播 announce（雜湊），
+ * 客戶端快取沒有這張地圖才會索取 data；兩個訊框都是所有房間共用，第一次送出時編碼。
+ */
+final class LoadedMap {
+    final String fileName;
+    final long version;
+    final String hash;
+    final List<PlatformPlacement> placements;   // 唯讀
+    final BroadcastFrame announce;              // 沒有平台時為 null
+    final BroadcastFrame data;
+
+    LoadedMap(String fileName, long version, List<PlatformPlacement> placements) {
+        this.fileName = fileName;
+        this.version = version;
+        this.hash = MapConfig.contentHash(MapConfig.encodePlacements(placements));
+        this.placements = Collections.unmodifiableList(placements);
+        this.announce = placements.isEmpty() ? null : new BroadcastFrame(new MapAnnounceMessage(hash, placements.size()));
+        this.data = new BroadcastFrame(new MapDataMessage(hash, this.placements));
+    }
+
+    boolean isEmpty() {
+        return placements.isEmpty();
+    }
+}
+
+/**
+ * 伺服器共用的地圖快取
+ * 每個地圖檔只在第一次使用與檔案變更時讀取，遊戲開始時不再碰磁碟。
+ * 監看執行緒用 WatchService 盯著地圖檔所在的資料夾，MapEditorGUI 儲存後自動重新載入；
+ * 讀到寫一半的檔案時保留舊版本，等下一個變更事件再讀。
+ * 最近的幾個版本也依雜湊保留，重新載入前開始的遊戲仍能回覆客戶端的 MapRequest。
+ */
+class MapCache {
+    private static final long SETTLE_MILLIS = 200;  // 同一次儲存會觸發多個事件，安靜一段時間後才重新載入
+    private static final int KEPT_VERSIONS = 8;
+    private static final Map<String, LoadedMap> maps = new ConcurrentHashMap<>();
+    private static final Map<String, LoadedMap> byHash = Collections.synchronizedMap(
+        new LinkedHashMap<String, LoadedMap>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, LoadedMap> eldest) {
+                return size() > KEPT_VERSIONS;
+            }
+        });
+    private static final AtomicLong versions = new AtomicLong();
+    private static final AtomicLong reloads = new AtomicLong();
+    private static final AtomicLong served = new AtomicLong();
+    private static Thread watcher;
+
+    /**
+     * 預設地圖
+     */
+    public static LoadedMap get() {
+        return get(MapConfig.MAP_FILE);
+    }
+
+    public static LoadedMap get(String fileName) {
+        LoadedMap map = maps.get(fileName);
+        if (map == null) {
+            map = maps.computeIfAbsent(fileName, MapCache::load);
+        }
+        return map;
+    }
+
+    /**
+     * 依內容雜湊找地圖（回覆 MapRequest），找不到時回傳 null
+     */
+    public static LoadedMap byHash(String hash) {
+        LoadedMap map = byHash.get(hash);
+        if (map != null) served.incrementAndGet();
+        return map;
+    }
+
+    // 讀檔失敗時沿用舊版本（沒有舊版本就是空地圖）
+    private static LoadedMap load(String fileName) {
+        List<PlatformPlacement> placements = new ArrayList<>();
+        try {
+            for (MapPlatform mp : MapConfig.readPlatforms(new File(fileName))) {
+                placements.add(new PlatformPlacement(-1, mp.x, mp.y, mp.width, mp.height, mp.color, mp.rotation));
+            }
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            LoadedMap previous = maps.get(fileName);
+            System.out.println("[MAP] Failed to load " + fileName + " (" + e.getMessage() + ")" +
+                               (previous != null ? ", keeping v" + previous.version : ", using empty map"));
+            if (previous != null) return previous;
+        }
+        LoadedMap map = new LoadedMap(fileName, versions.incrementAndGet(), placements);
+        byHash.put(map.hash, map);
+        System.out.println("[MAP] Cached " + fileName + " v" + map.version + " with " + placements.size() +
+                           " platforms (" + map.hash.substring(0, 8) + ")");
+        return map;
+    }
+
+    /**
+     * 啟動檔案監看（目前工作目錄，地圖檔都放在這裡）
+     */
+    public static synchronized void startWatching() {
+        if (watcher != null) return;
+        Path dir = Paths.get("").toAbsolutePath();
+        WatchService service;
+        try {
+            service = dir.getFileSystem().newWatchService();
+            dir.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+                         StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (IOException e) {
+            System.err.println("[MAP ERROR] Cannot watch " + dir + ", map changes need a restart: " + e.getMessage());
+            return;
+        }
+        watcher = new Thread(() -> watch(service), "map-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+        System.out.println("[MAP] Watching " + dir + " for map changes");
+    }
+
+    private static void watch(WatchService service) {
+        Set<String> changed = new HashSet<>();
+        try {
+            while (true) {
+                // 有待處理的變更時只等 SETTLE_MILLIS，沒有新事件就重新載入
+                WatchKey key = changed.isEmpty() ? service.take()
+                                                 : service.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+                if (key == null) {
+                    for (String fileName : changed) {
+                        reload(fileName);
+                    }
+                    changed.clear();
+                    continue;
+                }
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.context() instanceof Path path && maps.containsKey(path.toString())) {
+                        changed.add(path.toString());
+                    }
+                }
+                key.reset();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // 伺服器關閉
+        }
+    }
+
+    private static void reload(String fileName) {
+        LoadedMap map = load(fileName);
+        maps.put(fileName, map);
+        reloads.incrementAndGet();
+    }
+
+    public static String describe() {
+        StringBuilder sb = new StringBuilder("maps:");
+        for (LoadedMap map : maps.values()) {
+            sb.append(" ").append(map.fileName).append("[v").append(map.version)
+              .append(" ").append(map.hash, 0, 8)
+              .append(" platforms=").append(map.placements.size()).append("]");
+        }
+        return sb.append(" reloads=").append(reloads.get()).append(" served=").append(served.get()).toString();
+    }
+}
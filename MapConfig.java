@@ -1,4 +1,8 @@
 import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
 
 /**
@@ -30,7 +34,7 @@ class MapPlatform implements Serializable {
 }
 
 public class MapConfig {
-    private static final String MAP_FILE = "map_config.dat";
+    static final String MAP_FILE = "map_config.dat";
     private List<MapPlatform> platforms;
     
     public MapConfig() {
@@ -62,7 +66,6 @@ public class MapConfig {
         }
     }
     
-    @SuppressWarnings("unchecked")
     public void load() throws IOException, ClassNotFoundException {
         File file = new File(MAP_FILE);
         if (!file.exists()) {
@@ -70,9 +73,44 @@ public class MapConfig {
             return;
         }
         
-        try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(file))) {
-            platforms = (List<MapPlatform>) in.readObject();
-            System.out.println("[MAP] Loaded " + platforms.size() + " platforms from " + MAP_FILE);
+        platforms = readPlatforms(file);
+        System.out.println("[MAP] Loaded " + platforms.size() + " platforms from " + MAP_FILE);
+    }
+    
+    /**
+     * 讀取地圖檔的平台清單，檔案不存在時回傳空清單（伺服器的 MapCache 也用這個）
+     */
+    @SuppressWarnings("unchecked")
+    static List<MapPlatform> readPlatforms(File file) throws IOException, ClassNotFoundException {
+        if (!file.exists()) {
+            return new ArrayList<>();
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            return (List<MapPlatform>) in.readObject();
+        }
+    }
+    
+    /**
+     * 地圖內容的標準編碼：平台清單的 RandomPlatformsMessage 二進位內容
+     * 伺服器與客戶端用同一個編碼算雜湊，客戶端磁碟快取也直接存這些位元組。
+     */
+    static byte[] encodePlacements(List<PlatformPlacement> placements) {
+        return WireCodec.encode(new RandomPlatformsMessage(placements));
+    }
+    
+    /**
+     * 內容雜湊：SHA-256 前 16 位元組的十六進位字串
+     */
+    static String contentHash(byte[] encoded) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(encoded);
+            StringBuilder sb = new StringBuilder(32);
+            for (int i = 0; i < 16; i++) {
+                sb.append(String.format("%02x", digest[i]));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
         }
     }
     
@@ -116,3 +154,93 @@ public class MapConfig {
         System.out.println("[MAP] Created default map with " + platforms.size() + " platforms");
     }
 }
+
+/**
+ * 客戶端的地圖磁碟快取 - 以內容雜湊為鍵
+ * 每張地圖一個檔案 <雜湊>.map，內容是 MapConfig.encodePlacements 的位元組，
+ * 讀取時重新計算雜湊，檔案損壞或被改過就當作沒有快取。
+ * 超過 MAX_ENTRIES 時刪掉最久沒用到的檔案（命中時更新修改時間）。
+ */
+class MapDiskCache {
+    private static final String SUFFIX = ".map";
+    private static final int MAX_ENTRIES = 32;
+    private final Path dir;
+    
+    public MapDiskCache(String dir) {
+        this.dir = Paths.get(dir);
+    }
+    
+    /**
+     * 取出快取的平台清單，沒有或內容不符時回傳 null
+     */
+    public List<PlatformPlacement> load(String mapHash) {
+        if (!isValidHash(mapHash)) return null;
+        Path path = dir.resolve(mapHash + SUFFIX);
+        try {
+            byte[] data = Files.readAllBytes(path);
+            if (!MapConfig.contentHash(data).equals(mapHash)) {
+                System.out.println("[MAP CACHE] Corrupted entry " + mapHash + ", discarding");
+                Files.deleteIfExists(path);
+                return null;
+            }
+            Object msg = WireCodec.decode(data, 0, data.length);
+            if (!(msg instanceof RandomPlatformsMessage map)) return null;
+            Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+            return map.randomPlatforms;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            System.err.println("[MAP CACHE ERROR] Read " + mapHash + ": " + e.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * 伺服器送來的地圖內容是否符合公告的雜湊
+     */
+    public static boolean matches(String mapHash, List<PlatformPlacement> platforms) {
+        return isValidHash(mapHash) && MapConfig.contentHash(MapConfig.encodePlacements(platforms)).equals(mapHash);
+    }
+    
+    /**
+     * 存入伺服器送來的地圖，內容與雜湊不符時回傳 false（不存）
+     */
+    public boolean store(String mapHash, List<PlatformPlacement> platforms) {
+        byte[] data = MapConfig.encodePlacements(platforms);
+        if (!isValidHash(mapHash) || !MapConfig.contentHash(data).equals(mapHash)) {
+            return false;
+        }
+        try {
+            Files.createDirectories(dir);
+            Path tmp = Files.createTempFile(dir, mapHash, ".tmp");
+            Files.write(tmp, data);
+            Files.move(tmp, dir.resolve(mapHash + SUFFIX), StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+            evict();
+        } catch (IOException e) {
+            System.err.println("[MAP CACHE ERROR] Write " + mapHash + ": " + e.getMessage());
+        }
+        return true;
+    }
+    
+    private void evict() throws IOException {
+        List<Path> entries = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+            for (Path path : stream) entries.add(path);
+        }
+        if (entries.size() <= MAX_ENTRIES) return;
+        Map<Path, Long> modified = new HashMap<>();
+        for (Path path : entries) {
+            modified.put(path, path.toFile().lastModified());
+        }
+        entries.sort(Comparator.comparing(modified::get));
+        for (int i = 0; i < entries.size() - MAX_ENTRIES; i++) {
+            Files.deleteIfExists(entries.get(i));
+        }
+    }
+    
+    // 雜湊當作檔名，只接受十六進位字元
+    private static boolean isValidHash(String mapHash) {
+        return mapHash != null && mapHash.matches("[0-9a-f]{32}");
+    }
+}
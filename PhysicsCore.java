@@ -0,0 +1,674 @@
+import java.util.*;
+
+/**
+ * 無畫面的物理核心 - 玩家移動、平台碰撞與彈跳
+ * 只用一般的 Java 物件（PlatformBody 陣列與 PlatformGrid），不依賴 JavaFX / FXGL：
+ * 客戶端的 PlayerControl 與各平台元件只是把這裡的結果畫到畫面上，伺服器可以用同一套規則模擬。
+ * 所有數值都是以 STEP（1/60 秒）為單位的固定步長，與 PhysicsClock 相同。
+ */
+final class PhysicsCore {
+    static final int STEPS_PER_SECOND = 60;
+    static final double STEP = 1.0 / STEPS_PER_SECOND;
+
+    // 關卡固定的起點與終點（與 GameClient 的起點、FINISH_X - 200 的終點平台相同）
+    static final double START_X = 100;
+    static final double START_Y = 900;
+    static final double FINISH_ZONE_LEFT = 3800;
+    static final double GROUND_TOP = 930;        // 起點與終點平台的頂面（SCREEN_HEIGHT - 150）
+
+    private static final int REPORT_TOLERANCE_STEPS = 2;
+
+    private static long minimumFinishSteps = -1;
+
+    private PhysicsCore() {
+    }
+
+    /**
+     * 從起點到終點最少需要的步數
+     * 在一整片平地上一直按住右鍵模擬出來；水平速度固定、彈跳與移動平台都不會加快水平移動，
+     * 任何地圖上的實際完成時間都不可能比這更短。只算一次。
+     */
+    static synchronized long minimumFinishSteps() {
+        if (minimumFinishSteps < 0) {
+            PlatformGrid grid = new PlatformGrid();
+            grid.insert(new PlatformBody(0, GROUND_TOP, PlayerBody.RIGHT_BOUNDARY + PlayerBody.RADIUS, 30, 0));
+            PlayerBody player = new PlayerBody();
+            player.reset(START_X, START_Y);
+            long steps = 0;
+            while (player.getX() < FINISH_ZONE_LEFT && steps < STEPS_PER_SECOND * 600L) {
+                player.step(grid, PlayerBody.SPEED);
+                steps++;
+            }
+            minimumFinishSteps = steps;
+        }
+        return minimumFinishSteps;
+    }
+
+    static long minimumFinishMillis() {
+        return minimumFinishSteps() * 1000 / STEPS_PER_SECOND;
+    }
+
+    /**
+     * 回報的完成時間是否可能
+     * 回報的時間不能少於最短時間（容許 REPORT_TOLERANCE_STEPS 步的計時誤差：客戶端的第一步可能比一個完整步長早執行）；
+     * 伺服器從回合開始量到的經過時間加上 slackMillis 也不能少於最短時間。
+     * 網路延遲只會讓伺服器量到的時間變長，所以延遲高的玩家不會被誤判。
+     */
+    static boolean isPossibleFinish(long reportedMillis, long elapsedMillis, long slackMillis) {
+        long minimum = minimumFinishMillis();
+        long tolerance = REPORT_TOLERANCE_STEPS * 1000L / STEPS_PER_SECOND;
+        return reportedMillis + tolerance >= minimum && elapsedMillis + slackMillis >= minimum;
+    }
+}
+
+// 碰撞方向枚舉
+enum CollisionSide {
+    NONE, TOP, BOTTOM, LEFT, RIGHT
+}
+
+// 碰撞資訊類別（由呼叫端持有並重複使用，PlatformBody.checkCollision 寫入結果）
+class CollisionInfo {
+    boolean collided;
+    CollisionSide side = CollisionSide.NONE;
+
+    public CollisionInfo() {
+    }
+
+    public CollisionInfo(boolean collided, CollisionSide side) {
+        this.collided = collided;
+        this.side = side;
+    }
+
+    boolean set(boolean collided, CollisionSide side) {
+        this.collided = collided;
+        this.side = side;
+        return collided;
+    }
+}
+
+/**
+ * 平台的物理資料：位置、大小、角度、彈跳與移動
+ * 位置或角度改變時重新計算變換快取與外接矩形，碰撞檢查不再算三角函數；
+ * 改變後由持有者呼叫 PlatformGrid.update 更新格子。
+ */
+class PlatformBody {
+    private final double width;
+    private final double height;
+    private final double halfW, halfH;
+
+    private double posX, posY;
+    private double rotation;                    // 角度（度）
+    private double bounceStrength = 0;          // 0 表示不是彈跳平台
+
+    // 變換快取（見 computeBounds）
+    private double cachedAngle = Double.NaN;
+    private boolean rotated;                    // 角度超過 0.1 度才當作旋轉平台
+    private double localCos, localSin;          // 世界座標轉平台局部座標（旋轉 -angle）
+    private double extentX, extentY;            // 外接矩形的半寬與半高
+    private double centerX, centerY;
+
+    // 來回移動（移動平台）
+    private boolean moving = false;
+    private boolean horizontal;
+    private double moveSpeed, moveRange;
+    private double startX, startY;
+    private double elapsed;
+    private double prevX, prevY;                // 上一步的位置（內插用）
+
+    // 寬相位索引用（由 PlatformGrid 維護）
+    double minX, minY, maxX, maxY;              // 含旋轉的外接矩形
+    int cellX0, cellY0, cellX1, cellY1;         // 目前登記的格子範圍
+    long order;                                 // 建立順序，查詢結果依此排序
+    int queryStamp;                             // 同一次查詢去除重複
+
+    public PlatformBody(double x, double y, double width, double height, double rotation) {
+        this.width = width;
+        this.height = height;
+        this.halfW = width / 2.0;
+        this.halfH = height / 2.0;
+        this.posX = prevX = x;
+        this.posY = prevY = y;
+        this.rotation = rotation;
+        computeBounds();
+    }
+
+    void setPosition(double x, double y) {
+        posX = x;
+        posY = y;
+        computeBounds();
+    }
+
+    void setRotation(double rotation) {
+        this.rotation = rotation;
+        computeBounds();
+    }
+
+    public double getX() {
+        return posX;
+    }
+
+    public double getY() {
+        return posY;
+    }
+
+    public double getPrevX() {
+        return prevX;
+    }
+
+    public double getPrevY() {
+        return prevY;
+    }
+
+    public double getWidth() {
+        return width;
+    }
+
+    public double getHeight() {
+        return height;
+    }
+
+    /**
+     * 踩到頂面時往上彈的速度，0 表示不是彈跳平台
+     */
+    public double getBounceStrength() {
+        return bounceStrength;
+    }
+
+    void setBounceStrength(double bounceStrength) {
+        this.bounceStrength = bounceStrength;
+    }
+
+    /**
+     * 從目前位置開始以正弦來回移動（speed 為每秒的相位變化，range 為全程距離）
+     */
+    void setMotion(boolean horizontal, double speed, double range) {
+        this.moving = true;
+        this.horizontal = horizontal;
+        this.moveSpeed = speed;
+        this.moveRange = range;
+        this.startX = prevX = posX;
+        this.startY = prevY = posY;
+        this.elapsed = 0;
+    }
+
+    void clearMotion() {
+        moving = false;
+    }
+
+    boolean isMoving() {
+        return moving;
+    }
+
+    /**
+     * 移動平台前進一步
+     */
+    void stepMotion(double dt) {
+        prevX = posX;
+        prevY = posY;
+        elapsed += dt;
+        double offset = Math.sin(elapsed * moveSpeed) * moveRange / 2;
+        if (horizontal) {
+            setPosition(startX + offset, posY);
+        } else {
+            setPosition(posX, startY + offset);
+        }
+    }
+
+    /**
+     * 重新計算變換快取與外接矩形（旋轉以中心為軸，與 checkRotatedCollision 相同）
+     * 角度沒變（例如移動平台）只平移中心
+     */
+    private void computeBounds() {
+        if (rotation != cachedAngle) {
+            cachedAngle = rotation;
+            rotated = Math.abs(rotation) > 0.1;
+            if (rotated) {
+                double angle = Math.toRadians(-rotation);
+                localCos = Math.cos(angle);
+                localSin = Math.sin(angle);
+                extentX = halfW * Math.abs(localCos) + halfH * Math.abs(localSin);
+                extentY = halfW * Math.abs(localSin) + halfH * Math.abs(localCos);
+            }
+        }
+        double x = posX;
+        double y = posY;
+        centerX = x + halfW;
+        centerY = y + halfH;
+        if (rotated) {
+            minX = centerX - extentX;
+            maxX = centerX + extentX;
+            minY = centerY - extentY;
+            maxY = centerY + extentY;
+        } else {
+            minX = x;
+            maxX = x + width;
+            minY = y;
+            maxY = y + height;
+        }
+    }
+
+    /**
+     * 修復後的碰撞檢測 - 支持旋轉平台
+     * 結果寫入呼叫端重複使用的 result（每步對每個候選平台都會呼叫，不配置物件），回傳是否碰撞
+     */
+    public boolean checkCollision(double playerX, double playerY, double radius, double velocityY, CollisionInfo result) {
+        // 如果平台有旋轉，使用旋轉碰撞檢測
+        if (rotated) {
+            return checkRotatedCollision(playerX, playerY, radius, velocityY, result);
+        }
+
+        // 無旋轉的平台使用原本的 AABB 碰撞檢測（外接矩形就是平台本身）
+        double platformLeft = minX;
+        double platformRight = maxX;
+        double platformTop = minY;
+        double platformBottom = maxY;
+
+        double playerLeft = playerX - radius;
+        double playerRight = playerX + radius;
+        double playerTop = playerY - radius;
+        double playerBottom = playerY + radius;
+
+        boolean overlapping = !(playerRight < platformLeft ||
+                                playerLeft > platformRight ||
+                                playerBottom < platformTop ||
+                                playerTop > platformBottom);
+
+        if (!overlapping) {
+            return result.set(false, CollisionSide.NONE);
+        }
+
+        double overlapLeft = playerRight - platformLeft;
+        double overlapRight = platformRight - playerLeft;
+        double overlapTop = playerBottom - platformTop;
+        double overlapBottom = platformBottom - playerTop;
+
+        double minOverlap = Math.min(Math.min(overlapLeft, overlapRight),
+                                     Math.min(overlapTop, overlapBottom));
+
+        CollisionSide side = CollisionSide.NONE;
+
+        if (minOverlap == overlapTop && velocityY >= 0) {
+            side = CollisionSide.TOP;
+        } else if (minOverlap == overlapBottom && velocityY <= 0) {
+            side = CollisionSide.BOTTOM;
+        } else if (minOverlap == overlapLeft) {
+            side = CollisionSide.LEFT;
+        } else if (minOverlap == overlapRight) {
+            side = CollisionSide.RIGHT;
+        }
+
+        return result.set(true, side);
+    }
+
+    /**
+     * 旋轉平台的碰撞檢測（修復版本）
+     * 使用圓形與旋轉矩形的精確碰撞檢測
+     */
+    private boolean checkRotatedCollision(double playerX, double playerY, double radius, double velocityY, CollisionInfo result) {
+    // 新方法：使用局部座標 + 單純頂面判定，避免高速旋轉穿透
+    // 中心與旋轉基底來自變換快取，這裡只剩乘加
+    // 玩家底部點（更貼近踩踏感）
+    double playerBottomX = playerX;
+    double playerBottomY = playerY + radius * 0.6; // 若半徑 25，採底部偏上些減少誤判
+
+    double dx = playerBottomX - centerX;
+    double dy = playerBottomY - centerY;
+    double localX = dx * localCos - dy * localSin;
+    double localY = dx * localSin + dy * localCos;
+
+    // 是否在矩形投影範圍內（含少量邊界緩衝）
+    double padding = 4.0;
+    boolean insideProj = localX >= -halfW - padding && localX <= halfW + padding &&
+                         localY >= -halfH - padding && localY <= halfH + padding;
+    if (!insideProj) {
+        return result.set(false, CollisionSide.NONE);
+    }
+
+    // 僅處理頂面著地：玩家局部座標需要在頂面上方且正在下落
+    boolean falling = velocityY >= 0;
+    boolean aboveTopSurface = localY <= -halfH + 6; // 距離頂面容忍值
+    if (falling && aboveTopSurface) {
+        return result.set(true, CollisionSide.TOP);
+    }
+
+    // 其餘僅當作側面/底面簡化：不改變 Y，但阻擋 X（此處不細分，回傳一般碰撞）
+    return result.set(true, CollisionSide.NONE);
+    }
+}
+
+/**
+ * 平台的寬相位索引 - 空間雜湊
+ * 平台依外接矩形登記在 CELL_SIZE 大小的格子，格子座標雜湊到固定大小的桶陣列；
+ * 不同格子落在同一個桶只會多出幾個候選，之後仍由 checkCollision 做精確判定。
+ * 平台移動時只有跨到不同格子才搬動，查詢只看玩家附近的幾格，地圖再大每步成本也不變。
+ * 不是執行緒安全的：客戶端只在 FX 執行緒使用，伺服器每個模擬各用一個。
+ */
+class PlatformGrid {
+    private static final double CELL_SIZE = 128;
+    private static final int BUCKET_COUNT = 1024;          // 2 的次方
+    private static final int MAX_CELLS_PER_PLATFORM = 256;  // 超過的大平台放在 oversized，每次查詢都列入
+    private static final double BOUNDS_PADDING = 6;         // 旋轉平台判定的緩衝（見 checkRotatedCollision）
+
+    private final PlatformBody[][] buckets = new PlatformBody[BUCKET_COUNT][];
+    private final int[] bucketSizes = new int[BUCKET_COUNT];
+    private final List<PlatformBody> oversized = new ArrayList<>();
+    private PlatformBody[] results = new PlatformBody[32];
+    private int resultCount = 0;
+    private int stamp = 0;
+    private long nextOrder = 0;
+    private int size = 0;
+
+    void insert(PlatformBody body) {
+        body.order = nextOrder++;
+        computeCells(body);
+        addToCells(body);
+        size++;
+    }
+
+    void remove(PlatformBody body) {
+        removeFromCells(body);
+        size--;
+    }
+
+    /**
+     * 平台位置或角度改變後呼叫：格子範圍不變時什麼都不用做
+     */
+    void update(PlatformBody body) {
+        int x0 = body.cellX0, y0 = body.cellY0, x1 = body.cellX1, y1 = body.cellY1;
+        computeCells(body);
+        if (body.cellX0 == x0 && body.cellY0 == y0 && body.cellX1 == x1 && body.cellY1 == y1) return;
+        int nx0 = body.cellX0, ny0 = body.cellY0, nx1 = body.cellX1, ny1 = body.cellY1;
+        body.cellX0 = x0; body.cellY0 = y0; body.cellX1 = x1; body.cellY1 = y1;
+        removeFromCells(body);
+        body.cellX0 = nx0; body.cellY0 = ny0; body.cellX1 = nx1; body.cellY1 = ny1;
+        addToCells(body);
+    }
+
+    /**
+     * 找出外接矩形與查詢範圍重疊的平台，依加入順序排列
+     * 回傳數量，結果用 result(i) 取得，下次查詢前有效
+     */
+    int query(double minX, double minY, double maxX, double maxY) {
+        stamp++;
+        resultCount = 0;
+        for (PlatformBody body : oversized) {
+            collect(body, minX, minY, maxX, maxY);
+        }
+        int x0 = cell(minX), y0 = cell(minY), x1 = cell(maxX), y1 = cell(maxY);
+        for (int cy = y0; cy <= y1; cy++) {
+            for (int cx = x0; cx <= x1; cx++) {
+                int b = bucket(cx, cy);
+                PlatformBody[] list = buckets[b];
+                for (int i = 0, n = bucketSizes[b]; i < n; i++) {
+                    collect(list[i], minX, minY, maxX, maxY);
+                }
+            }
+        }
+        // 候選通常只有幾個，插入排序即可
+        for (int i = 1; i < resultCount; i++) {
+            PlatformBody body = results[i];
+            int j = i - 1;
+            while (j >= 0 && results[j].order > body.order) {
+                results[j + 1] = results[j];
+                j--;
+            }
+            results[j + 1] = body;
+        }
+        return resultCount;
+    }
+
+    PlatformBody result(int index) {
+        return results[index];
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void collect(PlatformBody body, double minX, double minY, double maxX, double maxY) {
+        if (body.queryStamp == stamp) return;
+        body.queryStamp = stamp;
+        if (body.maxX + BOUNDS_PADDING < minX || body.minX - BOUNDS_PADDING > maxX ||
+            body.maxY + BOUNDS_PADDING < minY || body.minY - BOUNDS_PADDING > maxY) {
+            return;
+        }
+        if (resultCount == results.length) {
+            results = Arrays.copyOf(results, results.length * 2);
+        }
+        results[resultCount++] = body;
+    }
+
+    private void computeCells(PlatformBody body) {
+        body.cellX0 = cell(body.minX - BOUNDS_PADDING);
+        body.cellY0 = cell(body.minY - BOUNDS_PADDING);
+        body.cellX1 = cell(body.maxX + BOUNDS_PADDING);
+        body.cellY1 = cell(body.maxY + BOUNDS_PADDING);
+    }
+
+    private boolean isOversized(PlatformBody body) {
+        long cells = (long) (body.cellX1 - body.cellX0 + 1) * (body.cellY1 - body.cellY0 + 1);
+        return cells > MAX_CELLS_PER_PLATFORM;
+    }
+
+    private void addToCells(PlatformBody body) {
+        if (isOversized(body)) {
+            oversized.add(body);
+            return;
+        }
+        for (int cy = body.cellY0; cy <= body.cellY1; cy++) {
+            for (int cx = body.cellX0; cx <= body.cellX1; cx++) {
+                int b = bucket(cx, cy);
+                PlatformBody[] list = buckets[b];
+                int n = bucketSizes[b];
+                // 同一個桶可能涵蓋平台的多個格子，只放一次
+                if (indexOf(list, n, body) >= 0) continue;
+                if (list == null) {
+                    list = buckets[b] = new PlatformBody[4];
+                } else if (n == list.length) {
+                    list = buckets[b] = Arrays.copyOf(list, n * 2);
+                }
+                list[n] = body;
+                bucketSizes[b] = n + 1;
+            }
+        }
+    }
+
+    private void removeFromCells(PlatformBody body) {
+        if (isOversized(body)) {
+            oversized.remove(body);
+            return;
+        }
+        for (int cy = body.cellY0; cy <= body.cellY1; cy++) {
+            for (int cx = body.cellX0; cx <= body.cellX1; cx++) {
+                int b = bucket(cx, cy);
+                PlatformBody[] list = buckets[b];
+                int n = bucketSizes[b];
+                int i = indexOf(list, n, body);
+                if (i < 0) continue;
+                list[i] = list[n - 1];
+                list[n - 1] = null;
+                bucketSizes[b] = n - 1;
+            }
+        }
+    }
+
+    private static int indexOf(PlatformBody[] list, int n, PlatformBody body) {
+        for (int i = 0; i < n; i++) {
+            if (list[i] == body) return i;
+        }
+        return -1;
+    }
+
+    private static int cell(double coord) {
+        return (int) Math.floor(coord / CELL_SIZE);
+    }
+
+    private static int bucket(int cx, int cy) {
+        return ((cx * 73856093) ^ (cy * 19349663)) & (BUCKET_COUNT - 1);
+    }
+}
+
+/**
+ * 玩家的物理狀態與每一步的移動、碰撞
+ * 先移動 X 並檢查側面，再移動 Y 處理站立、撞頭與彈跳，最後套用關卡邊界。
+ */
+class PlayerBody {
+    static final double SPEED = 8.0;
+    static final double JUMP_STRENGTH = 20.0;
+    static final double GRAVITY = 1.0;
+    static final double RADIUS = 25;
+    static final double MAX_VELOCITY_Y = 25;
+    static final double LEFT_BOUNDARY = RADIUS;
+    static final double RIGHT_BOUNDARY = 5000 - RADIUS;  // 使用整個關卡寬度
+    static final double TOP_BOUNDARY = RADIUS;
+    private static final double QUERY_MARGIN = 16;      // 站上平台時 Y 會被校正，多取一點範圍
+
+    private final CollisionInfo collision = new CollisionInfo();  // 每次檢查重複使用
+    private double posX, posY;
+    private double prevX, prevY;      // 上一步的位置（內插用）
+    private double velocityX = 0;
+    private double velocityY = 0;
+    private boolean onGround = false;
+
+    /**
+     * 放到指定位置並清除速度，不做內插
+     */
+    void reset(double x, double y) {
+        posX = prevX = x;
+        posY = prevY = y;
+        velocityX = 0;
+        velocityY = 0;
+        onGround = false;
+    }
+
+    void stop() {
+        velocityX = 0;
+        velocityY = 0;
+    }
+
+    void jump() {
+        if (onGround) {
+            velocityY = -JUMP_STRENGTH;
+            onGround = false;
+        }
+    }
+
+    public double getX() {
+        return posX;
+    }
+
+    public double getY() {
+        return posY;
+    }
+
+    public double getPrevX() {
+        return prevX;
+    }
+
+    public double getPrevY() {
+        return prevY;
+    }
+
+    public double getVelocityY() {
+        return velocityY;
+    }
+
+    public boolean isOnGround() {
+        return onGround;
+    }
+
+    /**
+     * 前進一步，inputX 為這一步的水平速度（-SPEED、0 或 SPEED）
+     */
+    void step(PlatformGrid platforms, double inputX) {
+        prevX = posX;
+        prevY = posY;
+        velocityX = inputX;
+
+        velocityY += GRAVITY;
+
+        if (velocityY > MAX_VELOCITY_Y) velocityY = MAX_VELOCITY_Y;
+        if (velocityY < -MAX_VELOCITY_Y) velocityY = -MAX_VELOCITY_Y;
+
+        // 寬相位：只取這一步移動範圍附近的平台
+        double oldX = posX;
+        double oldY = posY;
+        double reach = RADIUS + QUERY_MARGIN;
+        int candidates = platforms.query(Math.min(oldX, oldX + velocityX) - reach, Math.min(oldY, oldY + velocityY) - reach,
+                                         Math.max(oldX, oldX + velocityX) + reach, Math.max(oldY, oldY + velocityY) + reach);
+
+        // 先移動X
+        posX += velocityX;
+
+        // 檢查X方向碰撞
+        boolean xCollision = false;
+        for (int i = 0; i < candidates; i++) {
+            PlatformBody body = platforms.result(i);
+            body.checkCollision(posX, posY, RADIUS, velocityY, collision);
+
+            if (collision.collided && (collision.side == CollisionSide.LEFT || collision.side == CollisionSide.RIGHT)) {
+                posX = oldX;  // 恢復到舊位置
+                velocityX = 0;
+                xCollision = true;
+                break;
+            }
+        }
+
+        // 再移動Y
+        posY += velocityY;
+
+        onGround = false;
+
+        // 檢查Y方向碰撞
+        for (int i = 0; i < candidates; i++) {
+            PlatformBody body = platforms.result(i);
+
+            if (body.checkCollision(posX, posY, RADIUS, velocityY, collision)) {
+                switch (collision.side) {
+                    case TOP:
+                        // 站立在平台上
+                        posY = body.getY() - RADIUS;
+
+                        if (velocityY > 0) velocityY = 0;
+                        onGround = true;
+
+                        // 彈跳平台
+                        if (body.getBounceStrength() > 0) {
+                            velocityY = -body.getBounceStrength();
+                            onGround = false;  // 彈跳時離地
+                        }
+                        break;
+
+                    case BOTTOM:
+                        posY = oldY;
+                        if (velocityY < 0) velocityY = 0;
+                        break;
+
+                    case LEFT:
+                    case RIGHT:
+                        if (!xCollision) {
+                            posX = oldX;
+                            velocityX = 0;
+                        }
+                        break;
+                }
+            }
+        }
+
+        // 邊界檢查
+        if (posX < LEFT_BOUNDARY) {
+            posX = LEFT_BOUNDARY;
+            velocityX = 0;
+        }
+        if (posX > RIGHT_BOUNDARY) {
+            posX = RIGHT_BOUNDARY;
+            velocityX = 0;
+        }
+        if (posY < TOP_BOUNDARY) {
+            posY = TOP_BOUNDARY;
+            velocityY = 0;
+        }
+
+        velocityX = 0;
+    }
+}
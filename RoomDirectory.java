@@ -0,0 +1,233 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * 房間目錄 - 多個 GameServer 行程（節點）共用
+ * 每個房間代碼登記在建立它的節點，其他節點收到找不到的房間代碼或沒有可加入的公共房間時，
+ * 到目錄查詢並回覆 RoomRedirectMessage，客戶端改連到擁有房間的節點。
+ *
+ * 目錄只用在配對，房間本身的狀態與流量都留在所屬節點。
+ */
+interface RoomDirectory {
+    /**
+     * 登記房間代碼，代碼已被其他節點使用時回傳 false
+     */
+    boolean register(String roomCode, NodeAddress node);
+
+    void unregister(String roomCode, NodeAddress node);
+
+    /**
+     * 公共房間的可加入狀態
+     */
+    void updateOpen(String roomCode, NodeAddress node, boolean joinable, int freeSlots);
+
+    /**
+     * 房間所在節點，找不到時回傳 null
+     */
+    NodeAddress lookup(String roomCode);
+
+    /**
+     * 隨機挑一個其他節點上可加入的公共房間，沒有時回傳 null
+     */
+    DirectoryEntry findOpenRoom(NodeAddress exclude);
+
+    /**
+     * 清除某個節點的所有登記（節點重啟時清掉上次留下的紀錄）
+     */
+    void removeNode(NodeAddress node);
+
+    String describe();
+
+    /**
+     * 依設定建立目錄，格式 file:目錄路徑
+     */
+    static RoomDirectory open(String spec) throws IOException {
+        if (spec.startsWith("file:")) {
+            return new FileRoomDirectory(Paths.get(spec.substring("file:".length())));
+        }
+        throw new IllegalArgumentException("Unknown room directory: " + spec);
+    }
+}
+
+/**
+ * 節點位址（客戶端連線用的主機與埠）
+ */
+final class NodeAddress {
+    final String host;
+    final int port;
+
+    public NodeAddress(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    public static NodeAddress parse(String text) {
+        int colon = text.lastIndexOf(':');
+        if (colon <= 0) throw new IllegalArgumentException("Invalid node address: " + text);
+        return new NodeAddress(text.substring(0, colon), Integer.parseInt(text.substring(colon + 1)));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof NodeAddress other && other.port == port && other.host.equals(host);
+    }
+
+    @Override
+    public int hashCode() {
+        return host.hashCode() * 31 + port;
+    }
+
+    @Override
+    public String toString() {
+        return host + ":" + port;
+    }
+}
+
+/**
+ * 目錄中的一筆房間紀錄
+ */
+final class DirectoryEntry {
+    final String roomCode;
+    final NodeAddress node;
+    final boolean joinable;
+    final int freeSlots;
+
+    public DirectoryEntry(String roomCode, NodeAddress node, boolean joinable, int freeSlots) {
+        this.roomCode = roomCode;
+        this.node = node;
+        this.joinable = joinable;
+        this.freeSlots = freeSlots;
+    }
+}
+
+/**
+ * 以共用資料夾實作的目錄（單機多行程測試用）
+ * 每個房間一個檔案 <代碼>.room，內容為「節點 可加入 空位」一行。
+ * 登記用 CREATE_NEW 建檔，建檔本身是原子的，同一個代碼只有一個節點能登記成功；
+ * 更新先寫暫存檔再以 ATOMIC_MOVE 取代，讀取端不會看到寫一半的內容。
+ */
+class FileRoomDirectory implements RoomDirectory {
+    private static final String SUFFIX = ".room";
+    private final Path dir;
+    private final Random random = new Random();
+
+    public FileRoomDirectory(Path dir) throws IOException {
+        this.dir = dir;
+        Files.createDirectories(dir);
+    }
+
+    @Override
+    public boolean register(String roomCode, NodeAddress node) {
+        try {
+            Files.write(pathOf(roomCode), format(node, false, 0), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            return false;
+        } catch (IOException e) {
+            System.err.println("[DIRECTORY ERROR] Register " + roomCode + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public void unregister(String roomCode, NodeAddress node) {
+        DirectoryEntry entry = read(pathOf(roomCode));
+        if (entry == null || !entry.node.equals(node)) return;  // 已經被別的節點重新登記
+        try {
+            Files.deleteIfExists(pathOf(roomCode));
+        } catch (IOException e) {
+            System.err.println("[DIRECTORY ERROR] Unregister " + roomCode + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void updateOpen(String roomCode, NodeAddress node, boolean joinable, int freeSlots) {
+        Path target = pathOf(roomCode);
+        DirectoryEntry entry = read(target);
+        if (entry == null || !entry.node.equals(node)) return;
+        try {
+            Path tmp = Files.createTempFile(dir, roomCode, ".tmp");
+            Files.write(tmp, format(node, joinable, freeSlots));
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            System.err.println("[DIRECTORY ERROR] Update " + roomCode + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public NodeAddress lookup(String roomCode) {
+        DirectoryEntry entry = read(pathOf(roomCode));
+        return entry != null ? entry.node : null;
+    }
+
+    @Override
+    public DirectoryEntry findOpenRoom(NodeAddress exclude) {
+        List<DirectoryEntry> candidates = new ArrayList<>();
+        for (DirectoryEntry entry : list()) {
+            if (entry.joinable && entry.freeSlots > 0 && !entry.node.equals(exclude)) {
+                candidates.add(entry);
+            }
+        }
+        return candidates.isEmpty() ? null : candidates.get(random.nextInt(candidates.size()));
+    }
+
+    @Override
+    public void removeNode(NodeAddress node) {
+        int removed = 0;
+        for (DirectoryEntry entry : list()) {
+            if (entry.node.equals(node)) {
+                try {
+                    Files.deleteIfExists(pathOf(entry.roomCode));
+                    removed++;
+                } catch (IOException e) {
+                    // 下次再清
+                }
+            }
+        }
+        if (removed > 0) {
+            System.out.println("[DIRECTORY] Removed " + removed + " stale rooms of " + node);
+        }
+    }
+
+    @Override
+    public String describe() {
+        return "directory: file " + dir;
+    }
+
+    private Path pathOf(String roomCode) {
+        return dir.resolve(roomCode + SUFFIX);
+    }
+
+    private List<DirectoryEntry> list() {
+        List<DirectoryEntry> entries = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+            for (Path path : stream) {
+                DirectoryEntry entry = read(path);
+                if (entry != null) entries.add(entry);
+            }
+        } catch (IOException e) {
+            System.err.println("[DIRECTORY ERROR] List: " + e.getMessage());
+        }
+        return entries;
+    }
+
+    private static byte[] format(NodeAddress node, boolean joinable, int freeSlots) {
+        return (node + " " + joinable + " " + freeSlots + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    // 檔案不存在或剛建立還沒寫入內容時回傳 null
+    private static DirectoryEntry read(Path path) {
+        try {
+            String[] parts = new String(Files.readAllBytes(path), StandardCharsets.UTF_8).trim().split(" ");
+            if (parts.length != 3) return null;
+            String name = path.getFileName().toString();
+            return new DirectoryEntry(name.substring(0, name.length() - SUFFIX.length()),
+                                      NodeAddress.parse(parts[0]), Boolean.parseBoolean(parts[1]),
+                                      Integer.parseInt(parts[2]));
+        } catch (IOException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
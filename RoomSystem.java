@@ -1,6 +1,9 @@
 import java.io.Serializable;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
 
 /**
  * 房間系統相關類別
@@ -144,87 +147,406 @@ class LeaveRoomRequest implements Serializable {
     private static final long serialVersionUID = 1L;
 }
 
+// 房間在其他節點：客戶端改連到 host:port 後再以 roomCode 加入
+class RoomRedirectMessage implements Serializable {
+    private static final long serialVersionUID = 1L;
+    String host;
+    int port;
+    String roomCode;
+    
+    public RoomRedirectMessage(String host, int port, String roomCode) {
+        this.host = host;
+        this.port = port;
+        this.roomCode = roomCode;
+    }
+}
+
 /**
  * 房間管理器
  */
+/**
+ * 可加入的公共房間索引
+ * 依剩餘座位數分桶，隨機加入時從最接近滿員的桶子隨機挑一間（讓房間盡快湊滿），
+ * 非空桶子用位元遮罩記錄，挑選、更新、移除都是 O(1)。
+ *
+ * 挑選時會先替加入者保留一個座位，直到房間執行緒處理完加入為止，
+ * 所以最後一個座位不會同時分給兩個人。
+ */
+class OpenRoomIndex {
+    private static class Entry {
+        final Room room;
+        int free;          // 房間回報的空位
+        int reserved;      // 已分配但房間還沒處理的加入
+        boolean joinable;  // 公共、等待中且未關閉
+        int bucket = -1;   // 目前所在的桶子，-1 表示不在索引中
+        int position;      // 在桶子中的位置（用來 O(1) 移除）
+        
+        Entry(Room room) {
+            this.room = room;
+        }
+    }
+    
+    private final Map<Room, Entry> entries = new HashMap<>();
+    private final List<List<Entry>> buckets = new ArrayList<>();  // 索引 = 可用座位數
+    private long nonEmptyBuckets = 0;
+    private final Random random = new Random();
+    
+    public OpenRoomIndex() {
+        for (int i = 0; i <= Room.MAX_SLOTS; i++) {
+            buckets.add(new ArrayList<>());
+        }
+    }
+    
+    /**
+     * 房間狀態改變時由房間執行緒回報
+     */
+    public synchronized void update(Room room, boolean joinable, int free) {
+        Entry entry = entries.get(room);
+        if (entry == null) {
+            if (!joinable) return;
+            entry = new Entry(room);
+            entries.put(room, entry);
+        }
+        entry.joinable = joinable;
+        entry.free = free;
+        rebucket(entry);
+    }
+    
+    /**
+     * 挑一間房間並保留一個座位；沒有可加入的房間時回傳 null
+     */
+    public synchronized Room reserve() {
+        if (nonEmptyBuckets == 0) return null;
+        // 第 n 個位元代表剩 n+1 個座位的桶子
+        List<Entry> bucket = buckets.get(Long.numberOfTrailingZeros(nonEmptyBuckets) + 1);
+        Entry entry = bucket.get(random.nextInt(bucket.size()));
+        entry.reserved++;
+        rebucket(entry);
+        return entry.room;
+    }
+    
+    /**
+     * 加入處理完（成功或失敗）後釋放保留的座位
+     */
+    public synchronized void release(Room room) {
+        Entry entry = entries.get(room);
+        if (entry == null || entry.reserved == 0) return;
+        entry.reserved--;
+        rebucket(entry);
+    }
+    
+    /**
+     * 目前可加入的房間數（統計用）
+     */
+    public synchronized int size() {
+        int count = 0;
+        for (List<Entry> bucket : buckets) count += bucket.size();
+        return count;
+    }
+    
+    private void rebucket(Entry entry) {
+        int available = entry.joinable ? Math.min(Room.MAX_SLOTS, entry.free - entry.reserved) : 0;
+        int target = available > 0 ? available : -1;
+        if (target == entry.bucket) return;
+        if (entry.bucket >= 0) removeFromBucket(entry);
+        if (target >= 0) {
+            List<Entry> bucket = buckets.get(target);
+            entry.bucket = target;
+            entry.position = bucket.size();
+            bucket.add(entry);
+            nonEmptyBuckets |= 1L << (target - 1);
+        } else if (!entry.joinable && entry.reserved == 0) {
+            entries.remove(entry.room);
+        }
+    }
+    
+    private void removeFromBucket(Entry entry) {
+        List<Entry> bucket = buckets.get(entry.bucket);
+        // 與最後一個交換後移除
+        Entry last = bucket.remove(bucket.size() - 1);
+        if (last != entry) {
+            bucket.set(entry.position, last);
+            last.position = entry.position;
+        }
+        if (bucket.isEmpty()) {
+            nonEmptyBuckets &= ~(1L << (entry.bucket - 1));
+        }
+        entry.bucket = -1;
+    }
+}
+
+/**
+ * 房間代碼分配器
+ * 每種長度一個預先洗牌的代碼池（環狀佇列），分配從前面取、釋放放回後面，都是 O(1)，
+ * 剛釋放的代碼要等整個池子輪過一圈才會再出現。
+ * 某個長度的使用率超過 GROW_THRESHOLD 時改用多一位數的代碼池（第一次用到才建立），
+ * 不同長度的代碼字串不會相同（"0123" 與 "00123"）。
+ */
+class RoomCodeAllocator {
+    static final int MIN_LENGTH = 4;
+    static final int MAX_LENGTH = 6;             // 10^6 個代碼，代碼池約 4MB
+    private static final double GROW_THRESHOLD = 0.75;
+    
+    private static class CodePool {
+        final int length;
+        final int[] ring;
+        int head = 0;      // 下一個可分配的位置
+        int available;     // 可分配的數量
+        
+        CodePool(int length, Random random) {
+            this.length = length;
+            int capacity = (int) Math.pow(10, length);
+            ring = new int[capacity];
+            for (int i = 0; i < capacity; i++) ring[i] = i;
+            // Fisher-Yates 洗牌
+            for (int i = capacity - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int tmp = ring[i];
+                ring[i] = ring[j];
+                ring[j] = tmp;
+            }
+            available = capacity;
+        }
+        
+        int inUse() {
+            return ring.length - available;
+        }
+        
+        String allocate() {
+            int code = ring[head];
+            head = (head + 1) % ring.length;
+            available--;
+            return format(code);
+        }
+        
+        void release(int code) {
+            ring[(head + available) % ring.length] = code;
+            available++;
+        }
+        
+        String format(int code) {
+            String digits = Integer.toString(code);
+            return "0".repeat(length - digits.length()) + digits;
+        }
+    }
+    
+    private final CodePool[] pools = new CodePool[MAX_LENGTH + 1];
+    private final int baseLength;
+    private final Random random = new Random();
+    
+    public RoomCodeAllocator(int baseLength) {
+        this.baseLength = Math.max(MIN_LENGTH, Math.min(MAX_LENGTH, baseLength));
+    }
+    
+    /**
+     * 取得一個未使用的代碼；所有長度都用完時回傳 null
+     */
+    public synchronized String allocate() {
+        CodePool fallback = null;
+        for (int length = baseLength; length <= MAX_LENGTH; length++) {
+            CodePool pool = pool(length);
+            if (pool.available == 0) continue;
+            if (pool.inUse() < pool.ring.length * GROW_THRESHOLD) return pool.allocate();
+            if (fallback == null) fallback = pool;
+            // 使用率太高，先看下一個長度
+        }
+        return fallback != null ? fallback.allocate() : null;
+    }
+    
+    /**
+     * 房間刪除後歸還代碼
+     */
+    public synchronized void release(String code) {
+        int length = code.length();
+        if (length < baseLength || length > MAX_LENGTH || pools[length] == null) return;
+        try {
+            pools[length].release(Integer.parseInt(code));
+        } catch (NumberFormatException e) {
+            // 不是這裡分配的代碼
+        }
+    }
+    
+    private CodePool pool(int length) {
+        if (pools[length] == null) {
+            pools[length] = new CodePool(length, random);
+            if (length > baseLength) {
+                System.out.println("[ROOM] Room codes grew to " + length + " digits");
+            }
+        }
+        return pools[length];
+    }
+    
+    public synchronized String describe() {
+        StringBuilder sb = new StringBuilder("codes:");
+        for (int length = baseLength; length <= MAX_LENGTH; length++) {
+            if (pools[length] != null) {
+                sb.append(" ").append(length).append("d=").append(pools[length].inUse());
+            }
+        }
+        return pools[baseLength] == null ? "codes: -" : sb.toString();
+    }
+}
+
 class RoomManager {
     private static final Map<String, Room> rooms = new ConcurrentHashMap<>();
     private static final Map<String, String> playerToRoom = new ConcurrentHashMap<>();
-    private static final Random random = new Random();
+    private static final OpenRoomIndex openRooms = new OpenRoomIndex();
+    private static final int RANDOM_JOIN_ATTEMPTS = 3;  // 保留的房間剛好開始或關閉時換一間重試
+    private static RoomCodeAllocator roomCodes = new RoomCodeAllocator(RoomCodeAllocator.MIN_LENGTH);
+    
+    // 多節點模式：房間登記在共用目錄，目錄讀寫都在 directoryWorker 上執行，不佔用房間分片
+    private static final int REGISTER_ATTEMPTS = 8;  // 代碼已被其他節點使用時換一個
+    private static RoomDirectory directory;
+    private static NodeAddress localNode;
+    private static ExecutorService directoryWorker;
+    
+    /**
+     * 設定房間代碼長度（必須在接受連線前呼叫）
+     */
+    public static void configureRoomCodes(int length) {
+        roomCodes = new RoomCodeAllocator(length);
+    }
+    
+    /**
+     * 加入共用的房間目錄（必須在接受連線前呼叫）
+     */
+    public static void configureFederation(RoomDirectory roomDirectory, NodeAddress node) {
+        directory = roomDirectory;
+        localNode = node;
+        directoryWorker = Executors.newSingleThreadExecutor(
+            Thread.ofPlatform().name("room-directory").daemon(true).factory());
+        directory.removeNode(node);
+    }
+    
+    public static boolean isFederated() {
+        return directory != null;
+    }
+    
+    public static NodeAddress getLocalNode() {
+        return localNode;
+    }
     
     /**
-     * 生成4位數房間代碼
+     * 生成房間代碼；代碼用完時回傳 null
+     * 多節點模式下同時在目錄登記，已被其他節點使用的代碼會跳過
      */
     public static String generateRoomCode() {
-        String code;
-        do {
-            code = String.format("%04d", random.nextInt(10000));
-        } while (rooms.containsKey(code));
-        return code;
+        for (int i = 0; i < REGISTER_ATTEMPTS; i++) {
+            String code = roomCodes.allocate();
+            if (code == null || directory == null || directory.register(code, localNode)) {
+                return code;
+            }
+            // 其他節點正在使用，放回池子等它釋放
+            roomCodes.release(code);
+        }
+        return null;
     }
     
     /**
-     * 創建房間
+     * 創建房間；沒有可用的房間代碼時回傳 null
      */
     public static Room createRoom(String hostId, int maxPlayers, RoomType roomType) {
         String roomCode = generateRoomCode();
-        Room room = new Room(roomCode, hostId, maxPlayers, roomType);
+        if (roomCode == null) {
+            System.out.println("[ROOM] No room codes left for " + hostId);
+            return null;
+        }
+        // 新房間放在負載最低的分片
+        RoomShard shard = ServerExecutors.leastLoadedShard();
+        Room room = new Room(roomCode, hostId, maxPlayers, roomType, shard);
+        shard.roomOpened();
         rooms.put(roomCode, room);
         playerToRoom.put(hostId, roomCode);
         System.out.println("[ROOM] Created " + roomType + " room " + roomCode + 
-                          " by " + hostId + " (max: " + maxPlayers + ")");
+                          " by " + hostId + " (max: " + maxPlayers + ", shard " + shard.getId() + ")");
         return room;
     }
     
     /**
      * 加入房間
+     * 加入由房間信箱處理，結果（成功時為房間，否則為 null）在房間執行緒回呼
      */
-    public static Room joinRoom(String playerId, String roomCode) {
+    public static void joinRoom(String playerId, String roomCode, Consumer<Room> callback) {
         Room room = rooms.get(roomCode);
         if (room == null) {
-            return null;
-        }
-        
-        if (room.addPlayer(playerId)) {
-            playerToRoom.put(playerId, roomCode);
-            System.out.println("[ROOM] " + playerId + " joined room " + roomCode);
-            return room;
+            callback.accept(null);
+            return;
         }
-        return null;
+        join(room, playerId, callback);
     }
     
     /**
      * 隨機加入公共房間
+     * 從可加入房間索引挑選（O(1)），不再掃描所有房間
      */
-    public static Room joinRandomPublicRoom(String playerId) {
-        // 找到所有等待中的公共房間
-        List<Room> availableRooms = new ArrayList<>();
-        
-        for (Room room : rooms.values()) {
-            RoomInfo info = room.getInfo();
-            if (info.roomType == RoomType.PUBLIC && 
-                info.state == RoomState.WAITING &&
-                info.playerIds.size() < info.maxPlayers) {
-                availableRooms.add(room);
-            }
-        }
-        
-        if (availableRooms.isEmpty()) {
+    public static void joinRandomPublicRoom(String playerId, Consumer<Room> callback) {
+        joinRandomPublicRoom(playerId, callback, RANDOM_JOIN_ATTEMPTS);
+    }
+    
+    private static void joinRandomPublicRoom(String playerId, Consumer<Room> callback, int attempts) {
+        Room room = openRooms.reserve();
+        if (room == null) {
             System.out.println("[ROOM] No public rooms available for " + playerId);
-            return null;
+            callback.accept(null);
+            return;
         }
         
-        // 隨機選擇一個房間
-        Room room = availableRooms.get(random.nextInt(availableRooms.size()));
-        
-        if (room.addPlayer(playerId)) {
-            playerToRoom.put(playerId, room.getInfo().roomCode);
-            System.out.println("[ROOM] " + playerId + " randomly joined public room " + 
-                             room.getInfo().roomCode);
-            return room;
+        join(room, playerId, joined -> {
+            openRooms.release(room);
+            if (joined == null && attempts > 1 && !playerToRoom.containsKey(playerId)) {
+                joinRandomPublicRoom(playerId, callback, attempts - 1);
+            } else {
+                callback.accept(joined);
+            }
+        });
+    }
+    
+    private static void join(Room room, String playerId, Consumer<Room> callback) {
+        room.execute(() -> {
+            // 同一玩家不能同時在兩個房間
+            if (playerToRoom.putIfAbsent(playerId, room.getRoomCode()) != null) {
+                callback.accept(null);
+                return;
+            }
+            if (!room.addPlayer(playerId)) {
+                playerToRoom.remove(playerId, room.getRoomCode());
+                callback.accept(null);
+                return;
+            }
+            callback.accept(room);
+        });
+    }
+    
+    /**
+     * 公共房間的成員或狀態改變時由房間執行緒呼叫
+     */
+    static void updateOpenRoom(Room room, boolean joinable, int freeSlots) {
+        openRooms.update(room, joinable, freeSlots);
+        if (directory != null) {
+            String roomCode = room.getRoomCode();
+            directoryWorker.execute(() -> directory.updateOpen(roomCode, localNode, joinable, freeSlots));
         }
-        
-        return null;
+    }
+    
+    /**
+     * 在目錄查詢不在本節點的房間（回呼在目錄執行緒，找不到或就在本節點時為 null）
+     */
+    public static void findRemoteRoom(String roomCode, Consumer<NodeAddress> callback) {
+        directoryWorker.execute(() -> {
+            NodeAddress node = directory.lookup(roomCode);
+            callback.accept(node != null && !node.equals(localNode) ? node : null);
+        });
+    }
+    
+    /**
+     * 在目錄挑一個其他節點上可加入的公共房間（回呼在目錄執行緒，沒有時為 null）
+     */
+    public static void findRemoteOpenRoom(Consumer<DirectoryEntry> callback) {
+        directoryWorker.execute(() -> callback.accept(directory.findOpenRoom(localNode)));
+    }
+    
+    public static boolean isInRoom(String playerId) {
+        return playerToRoom.containsKey(playerId);
     }
     
     /**
@@ -243,11 +565,20 @@ class RoomManager {
         if (roomCode != null) {
             Room room = rooms.get(roomCode);
             if (room != null) {
-                room.removePlayer(playerId);
-                if (room.isEmpty()) {
-                    rooms.remove(roomCode);
-                    System.out.println("[ROOM] Room " + roomCode + " deleted (empty)");
-                }
+                room.execute(() -> {
+                    if (room.removePlayer(playerId) && rooms.remove(roomCode, room)) {
+                        if (directory != null) {
+                            directoryWorker.execute(() -> {
+                                directory.unregister(roomCode, localNode);
+                                roomCodes.release(roomCode);
+                            });
+                        } else {
+                            roomCodes.release(roomCode);
+                        }
+                        room.getShard().roomClosed();
+                        System.out.println("[ROOM] Room " + roomCode + " deleted (empty)");
+                    }
+                });
             }
         }
     }
@@ -259,14 +590,20 @@ class RoomManager {
         return rooms.get(roomCode);
     }
     
+    public static String describe() {
+        return "rooms: total=" + rooms.size() + " open=" + openRooms.size() + " " + roomCodes.describe()
+             + (directory != null ? " node=" + localNode : "");
+    }
+    
     /**
      * 獲取所有公共房間數量（用於調試）
      */
     public static int getPublicRoomCount() {
         int count = 0;
         for (Room room : rooms.values()) {
-            if (room.getInfo().roomType == RoomType.PUBLIC && 
-                room.getInfo().state == RoomState.WAITING) {
+            RoomView view = room.getView();
+            if (view.roomType == RoomType.PUBLIC && 
+                view.state == RoomState.WAITING) {
                 count++;
             }
         }
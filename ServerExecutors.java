@@ -0,0 +1,305 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * 伺服器執行緒管理
+ * 所有 ClientHandler 與連線寫出都透過這裡的執行器啟動，可以在平台執行緒與虛擬執行緒之間切換；
+ * 房間信箱跑在房間分片上，房間期限統一登記在共用的時間輪。
+ */
+
+// 執行緒模式
+enum ThreadMode {
+    PLATFORM,  // 平台執行緒（預設）
+    VIRTUAL    // 虛擬執行緒
+}
+
+/**
+ * 可統計存活工作數量的執行器
+ */
+class TrackedExecutor implements Executor {
+    private final String name;
+    private final ExecutorService delegate;
+    private final AtomicInteger liveTasks = new AtomicInteger();
+    private final AtomicInteger totalTasks = new AtomicInteger();
+
+    public TrackedExecutor(String name, ThreadMode mode) {
+        this.name = name;
+        if (mode == ThreadMode.VIRTUAL) {
+            this.delegate = Executors.newThreadPerTaskExecutor(
+                Thread.ofVirtual().name(name + "-", 0).factory());
+        } else {
+            this.delegate = Executors.newCachedThreadPool(
+                Thread.ofPlatform().name(name + "-", 0).factory());
+        }
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        liveTasks.incrementAndGet();
+        totalTasks.incrementAndGet();
+        try {
+            delegate.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    liveTasks.decrementAndGet();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            liveTasks.decrementAndGet();
+            throw e;
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getLiveTasks() {
+        return liveTasks.get();
+    }
+
+    public int getTotalTasks() {
+        return totalTasks.get();
+    }
+}
+
+/**
+ * 房間信箱：同一個房間的工作依序在所屬分片的執行緒上執行，同一時間最多一條執行緒，
+ * 所以房間狀態不需要鎖。一次最多處理 BATCH 個工作後讓出執行緒，避免單一房間佔住分片。
+ */
+class RoomMailbox implements Executor {
+    private static final int BATCH = 64;
+    private final Executor executor;
+    private final Queue<Runnable> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final String name;
+
+    public RoomMailbox(String name, Executor executor) {
+        this.name = name;
+        this.executor = executor;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        queue.add(task);
+        schedule();
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            executor.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        try {
+            for (int i = 0; i < BATCH; i++) {
+                Runnable task = queue.poll();
+                if (task == null) break;
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    System.err.println("[ERROR] " + name + ": " + e.getMessage());
+                    e.printStackTrace();
+                }
+            }
+        } finally {
+            scheduled.set(false);
+            if (!queue.isEmpty()) schedule();
+        }
+    }
+
+    public int size() {
+        return queue.size();
+    }
+}
+
+/**
+ * 房間分片：一條執行緒負責一群房間
+ * NIO 模式下分片就是 I/O 事件迴圈，玩家加入房間後連線也搬到同一個迴圈，
+ * 房間的讀取、邏輯與寫出都在同一條執行緒完成；阻塞模式下每個分片有自己的執行緒。
+ * 房間數與玩家數用來把新房間放到負載最低的分片。
+ */
+class RoomShard implements Executor {
+    private final int id;
+    private final Executor executor;
+    private final NioEventLoop loop;   // 阻塞模式為 null
+    private final AtomicInteger rooms = new AtomicInteger();
+    private final AtomicInteger players = new AtomicInteger();
+    private final AtomicLong tasks = new AtomicLong();
+
+    public RoomShard(int id, NioEventLoop loop) {
+        this.id = id;
+        this.loop = loop;
+        this.executor = loop;
+    }
+
+    public RoomShard(int id) {
+        this.id = id;
+        this.loop = null;
+        this.executor = Executors.newSingleThreadExecutor(
+            Thread.ofPlatform().name("room-shard-" + id).daemon(true).factory());
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        tasks.incrementAndGet();
+        executor.execute(task);
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public NioEventLoop getLoop() {
+        return loop;
+    }
+
+    void roomOpened() {
+        rooms.incrementAndGet();
+    }
+
+    void roomClosed() {
+        rooms.decrementAndGet();
+    }
+
+    void playerJoined() {
+        players.incrementAndGet();
+    }
+
+    void playerLeft() {
+        players.decrementAndGet();
+    }
+
+    /**
+     * 負載：房間內玩家數加上房間數（每個房間都有固定頻率的 tick）
+     */
+    public int getLoad() {
+        return players.get() + rooms.get();
+    }
+
+    public String describe() {
+        return "#" + id + "[rooms=" + rooms.get() + " players=" + players.get()
+             + (loop != null ? " conns=" + loop.getConnectionCount() : "") + " tasks=" + tasks.get() + "]";
+    }
+}
+
+/**
+ * 伺服器共用執行器
+ */
+class ServerExecutors {
+    private static ThreadMode mode = ThreadMode.PLATFORM;
+    private static TrackedExecutor clientHandlers;
+    private static TrackedExecutor clientWriters;
+    private static RoomShard[] shards = new RoomShard[0];
+    private static TimerWheel timers;
+    private static ScheduledExecutorService roomTicks;
+    private static final List<Supplier<String>> statsSources = new CopyOnWriteArrayList<>();
+
+    /**
+     * 依模式建立執行器（必須在接受連線前呼叫）
+     */
+    public static void init(ThreadMode threadMode) {
+        mode = threadMode;
+        clientHandlers = new TrackedExecutor("client-handler", mode);
+        clientWriters = new TrackedExecutor("client-writer", mode);
+        // 所有房間的期限共用一個時間輪（10ms 一格，512 格）
+        timers = new TimerWheel("room-timer", 10, 512);
+        timers.start();
+        // 房間 tick 與回合期限只做合併與入列，一條平台執行緒就夠
+        roomTicks = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "room-tick");
+            t.setDaemon(true);
+            return t;
+        });
+        System.out.println("[EXEC] Thread mode: " + mode);
+    }
+
+    public static ThreadMode getMode() {
+        return mode;
+    }
+
+    public static TrackedExecutor clientHandlers() {
+        return clientHandlers;
+    }
+
+    public static TrackedExecutor clientWriters() {
+        return clientWriters;
+    }
+
+    /**
+     * 建立房間分片（必須在接受連線前呼叫）
+     * 有 NIO 事件迴圈時每個迴圈一個分片，否則依 CPU 核心數建立獨立的分片執行緒
+     */
+    public static void initShards(NioEventLoop[] loops) {
+        int count = loops != null ? loops.length : Runtime.getRuntime().availableProcessors();
+        RoomShard[] created = new RoomShard[count];
+        for (int i = 0; i < count; i++) {
+            created[i] = loops != null ? new RoomShard(i, loops[i]) : new RoomShard(i);
+        }
+        shards = created;
+        System.out.println("[EXEC] Room shards: " + count + (loops != null ? " (on NIO loops)" : ""));
+    }
+
+    /**
+     * 負載最低的分片（新房間放這裡）
+     */
+    public static RoomShard leastLoadedShard() {
+        RoomShard best = shards[0];
+        for (RoomShard shard : shards) {
+            if (shard.getLoad() < best.getLoad()) best = shard;
+        }
+        return best;
+    }
+
+    public static TimerWheel timers() {
+        return timers;
+    }
+
+    public static ScheduledExecutorService roomTicks() {
+        return roomTicks;
+    }
+
+    /**
+     * 加入額外的統計項目，會附加在 [STATS] 輸出後面
+     */
+    public static void addStatsSource(Supplier<String> source) {
+        statsSources.add(source);
+    }
+
+    /**
+     * 定期列印各執行器的存活工作數量與額外統計
+     */
+    public static void startStatsReporter(int intervalSeconds) {
+        if (intervalSeconds <= 0) return;
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "stats-reporter");
+            t.setDaemon(true);
+            return t;
+        });
+        reporter.scheduleAtFixedRate(() -> System.out.println("[STATS] " + describe()),
+                                     intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    public static String describe() {
+        StringBuilder sb = new StringBuilder("threads=" + mode);
+        for (TrackedExecutor e : List.of(clientHandlers, clientWriters)) {
+            sb.append(" | ").append(e.getName()).append(": live=").append(e.getLiveTasks())
+              .append(" total=").append(e.getTotalTasks());
+        }
+        sb.append(" | shards:");
+        for (RoomShard shard : shards) {
+            sb.append(" ").append(shard.describe());
+        }
+        sb.append(" | ").append(timers.describe());
+        for (Supplier<String> source : statsSources) {
+            sb.append(" | ").append(source.get());
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,883 @@
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 伺服器傳輸層
+ * BLOCKING：每個客戶端一條執行緒（原本的做法）
+ * NIO：Selector + 少量 I/O 執行緒多工所有連線
+ */
+
+// 傳輸模式
+enum TransportMode {
+    BLOCKING,  // 每個客戶端一條執行緒
+    NIO        // Selector 事件迴圈
+}
+
+// 輸出佇列滿時的處理方式
+enum OverflowPolicy {
+    DROP_OLDEST_POSITION,  // 丟掉最舊的快照/位置/預覽更新（沒有可丟的就斷線）
+    DISCONNECT             // 直接斷線
+}
+
+// 客戶端連線（ClientHandler 只透過這個介面送出訊息）
+// send 只負責放進輸出佇列，實際寫出由各連線的寫出端負責，不會阻塞呼叫端
+interface ClientConnection {
+    boolean send(Object obj);
+    boolean sendFrame(BroadcastFrame frame);
+    OutboundQueue getOutboundQueue();
+    void close();
+
+    // 把連線搬到房間所在的分片（阻塞模式每條連線有自己的執行緒，不需要搬）
+    default void moveTo(RoomShard shard) {
+    }
+}
+
+/**
+ * 每條連線的有界輸出佇列
+ * 尚未送出的 RoomSnapshot、同一玩家的 PlayerInfo / 預覽 PlacementMessage 會被新的直接取代，
+ * 佇列滿時依 OverflowPolicy 丟棄位置更新或要求斷線。
+ * 佇列項目是訊息物件或 BroadcastFrame。
+ */
+class OutboundQueue {
+    private static class Entry {
+        final String key;  // 可合併的訊息才有 key
+        Object item;
+
+        Entry(String key, Object item) {
+            this.key = key;
+            this.item = item;
+        }
+    }
+
+    private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+    private final Map<String, Entry> pendingByKey = new HashMap<>();
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private long dropped = 0;
+    private long coalesced = 0;
+    private boolean closed = false;
+    private boolean overflowed = false;
+
+    public OutboundQueue(int capacity, OverflowPolicy policy) {
+        this.capacity = Math.max(1, capacity);
+        this.policy = policy;
+    }
+
+    /**
+     * 加入佇列，連線已關閉或因溢位需要斷線時回傳 false
+     */
+    public synchronized boolean offer(Object item) {
+        if (closed) return false;
+
+        String key = coalesceKey(item);
+        if (key != null) {
+            Entry pending = pendingByKey.get(key);
+            if (pending != null) {
+                pending.item = item;
+                coalesced++;
+                return true;
+            }
+        }
+
+        if (entries.size() >= capacity && !makeRoom()) {
+            overflowed = true;
+            close();
+            return false;
+        }
+
+        Entry entry = new Entry(key, item);
+        entries.addLast(entry);
+        if (key != null) pendingByKey.put(key, entry);
+        notifyAll();
+        return true;
+    }
+
+    private boolean makeRoom() {
+        if (policy != OverflowPolicy.DROP_OLDEST_POSITION) return false;
+        Iterator<Entry> it = entries.iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (entry.key != null) {
+                it.remove();
+                pendingByKey.remove(entry.key);
+                dropped++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 取出下一項，佇列為空時回傳 null
+     */
+    public synchronized Object poll() {
+        Entry entry = entries.pollFirst();
+        if (entry == null) return null;
+        if (entry.key != null) pendingByKey.remove(entry.key);
+        return entry.item;
+    }
+
+    /**
+     * 等待並取出下一項，佇列關閉後回傳 null
+     */
+    public synchronized Object take() throws InterruptedException {
+        while (entries.isEmpty() && !closed) {
+            wait();
+        }
+        return closed ? null : poll();
+    }
+
+    public synchronized void close() {
+        closed = true;
+        entries.clear();
+        pendingByKey.clear();
+        notifyAll();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    public synchronized long getCoalesced() {
+        return coalesced;
+    }
+
+    public synchronized boolean isOverflowed() {
+        return overflowed;
+    }
+
+    // 會被新資料取代的訊息：房間快照、玩家位置與放置預覽
+    private static String coalesceKey(Object item) {
+        Object msg = item instanceof BroadcastFrame frame ? frame.getMessage() : item;
+        if (msg instanceof RoomSnapshot) {
+            return "snapshot";
+        }
+        if (msg instanceof PlayerInfo info) {
+            return "pos:" + info.playerId;
+        }
+        if (msg instanceof PlacementMessage placement && !placement.confirmed) {
+            return "preview:" + placement.playerId;
+        }
+        return null;
+    }
+}
+
+/**
+ * 廣播訊框 - 同一則訊息只編碼一次，所有收件者共用同一份位元組
+ * Java 序列化與二進位格式各自在第一次需要時才編碼。
+ * Java 序列化的位元組來自全新串流（去掉標頭），與 reset() 之後的串流狀態相同，
+ * 結尾再補一個 TC_RESET 讓對方清掉這則訊息的 handle，
+ * 因此可以直接接在任何連線的 ObjectOutputStream 之後。
+ */
+class BroadcastFrame {
+    private static final int STREAM_HEADER_SIZE = 4;
+    private static final AtomicLong framesCreated = new AtomicLong();
+    private static final AtomicLong encodes = new AtomicLong();
+    private static final AtomicLong deliveries = new AtomicLong();
+
+    private final Object message;
+    private byte[] javaBytes;
+    private byte[] binaryBytes;
+
+    public BroadcastFrame(Object message) {
+        this.message = message;
+        framesCreated.incrementAndGet();
+    }
+
+    public Object getMessage() {
+        return message;
+    }
+
+    public synchronized byte[] javaBytes() throws IOException {
+        if (javaBytes == null) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+            ObjectOutputStream oos = new ObjectOutputStream(buffer);
+            oos.writeObject(message);
+            oos.reset();
+            oos.flush();
+            byte[] all = buffer.toByteArray();
+            javaBytes = Arrays.copyOfRange(all, STREAM_HEADER_SIZE, all.length);
+            encodes.incrementAndGet();
+        }
+        return javaBytes;
+    }
+
+    public synchronized byte[] binaryBytes() {
+        if (binaryBytes == null) {
+            binaryBytes = WireCodec.encodeFrame(message);
+            encodes.incrementAndGet();
+        }
+        return binaryBytes;
+    }
+
+    /**
+     * 由連線在成功寫入佇列後呼叫
+     */
+    static void delivered() {
+        deliveries.incrementAndGet();
+    }
+
+    /**
+     * 省下的編碼次數 = 送出次數 - 實際編碼次數
+     */
+    public static long getEncodesSaved() {
+        return deliveries.get() - encodes.get();
+    }
+
+    public static String describe() {
+        return "broadcast: frames=" + framesCreated.get() + " encodes=" + encodes.get()
+             + " sends=" + deliveries.get() + " saved=" + getEncodesSaved();
+    }
+}
+
+/**
+ * 阻塞式連線 - 包裝 Socket 與 Object 串流
+ * 握手時若客戶端送出 CodecSwitchMessage，雙向都改用 WireCodec 二進位訊框
+ */
+class BlockingConnection implements ClientConnection {
+    private final Socket socket;
+    private final ObjectOutputStream out;
+    private final ObjectInputStream in;
+    private final boolean binaryAllowed;
+    private final OutboundQueue queue;
+    private DataInputStream binaryIn;   // 切換後只由讀取執行緒使用
+    private OutputStream binaryOut;     // 受 out 鎖保護
+
+    public BlockingConnection(Socket socket, boolean binaryAllowed, OutboundQueue queue) throws IOException {
+        this.socket = socket;
+        this.binaryAllowed = binaryAllowed;
+        this.queue = queue;
+        this.out = new ObjectOutputStream(socket.getOutputStream());
+        this.out.flush();
+        this.in = new ObjectInputStream(socket.getInputStream());
+    }
+
+    /**
+     * 啟動此連線專屬的寫出工作，負責清空輸出佇列
+     */
+    public void startWriter(Executor executor, String playerId) {
+        executor.execute(() -> {
+            try {
+                Object item;
+                while ((item = queue.take()) != null) {
+                    write(item);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                // 連線中斷，由讀取端負責清理
+            } finally {
+                if (queue.isOverflowed()) {
+                    System.out.println("[DISCONNECT] Client: " + playerId + " (outbound queue overflow)");
+                }
+                close();
+            }
+        });
+    }
+
+    public Object readObject() throws IOException, ClassNotFoundException {
+        while (true) {
+            Object obj = binaryIn != null ? WireCodec.readFrame(binaryIn) : in.readObject();
+            if (obj instanceof CodecSwitchMessage req && binaryIn == null) {
+                acceptCodecSwitch(req);
+                continue;
+            }
+            return obj;
+        }
+    }
+
+    private void acceptCodecSwitch(CodecSwitchMessage req) throws IOException {
+        if (!binaryAllowed || req.version != WireCodec.VERSION) {
+            throw new StreamCorruptedException("Unsupported wire codec version: " + req.version);
+        }
+        synchronized (out) {
+            // 確認訊息仍用 Java 序列化，之後不再 reset，避免殘留位元組混入二進位串流
+            out.writeObject(new CodecSwitchMessage(WireCodec.VERSION));
+            out.flush();
+            binaryOut = new BufferedOutputStream(socket.getOutputStream());
+        }
+        binaryIn = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+    }
+
+    @Override
+    public boolean send(Object obj) {
+        return queue.offer(obj);
+    }
+
+    @Override
+    public boolean sendFrame(BroadcastFrame frame) {
+        return queue.offer(frame);
+    }
+
+    @Override
+    public OutboundQueue getOutboundQueue() {
+        return queue;
+    }
+
+    // 僅由寫出工作呼叫
+    private void write(Object item) throws IOException {
+        try {
+            synchronized (out) {
+                if (item instanceof BroadcastFrame frame) {
+                    if (binaryOut != null) {
+                        binaryOut.write(frame.binaryBytes());
+                        binaryOut.flush();
+                    } else {
+                        // 先送出上次 reset() 留在緩衝區的 TC_RESET，再直接寫入共用位元組
+                        out.flush();
+                        OutputStream raw = socket.getOutputStream();
+                        raw.write(frame.javaBytes());
+                        raw.flush();
+                    }
+                    BroadcastFrame.delivered();
+                } else if (binaryOut != null) {
+                    WireCodec.writeFrame(binaryOut, item);
+                } else {
+                    out.writeObject(item);
+                    out.flush();
+                    out.reset();
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println("[ERROR] " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        queue.close();
+        try {
+            out.close();
+            in.close();
+            socket.close();
+        } catch (IOException e) {
+            // 忽略
+        }
+    }
+}
+
+/**
+ * 非阻塞訊息解碼器
+ * Java 序列化模式：客戶端每次 writeObject 後都會 reset()，所以每個物件都是獨立的，
+ * 可以在資料到齊後用新的 ObjectInputStream 單獨解出來；資料不足時等待下次讀取。
+ * 二進位模式：varint 長度前綴 + WireCodec 內容。
+ */
+class MessageStreamDecoder {
+    private static final int MAX_PENDING_BYTES = 1024 * 1024;  // 單一物件上限 1MB
+    private static final byte[] STREAM_HEADER = {
+        (byte) 0xAC, (byte) 0xED, 0x00, 0x05
+    };
+    private static final byte TC_RESET = 0x79;
+
+    private byte[] buffer = new byte[4096];
+    private int start = 0;
+    private int end = 0;
+    private boolean headerRead = false;
+    private boolean binary = false;
+
+    public boolean isBinary() {
+        return binary;
+    }
+
+    /**
+     * 之後的資料都是二進位訊框（緩衝區中尚未解析的部分也是）
+     */
+    public void switchToBinary() {
+        binary = true;
+    }
+
+    public void feed(ByteBuffer data) throws IOException {
+        int n = data.remaining();
+        if (end - start + n > MAX_PENDING_BYTES) {
+            throw new StreamCorruptedException("Pending object exceeds " + MAX_PENDING_BYTES + " bytes");
+        }
+        if (end + n > buffer.length) {
+            // 先壓縮，不夠再擴充
+            System.arraycopy(buffer, start, buffer, 0, end - start);
+            end -= start;
+            start = 0;
+            if (end + n > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, end + n));
+            }
+        }
+        data.get(buffer, end, n);
+        end += n;
+    }
+
+    /**
+     * 取出下一個完整物件，資料不足時回傳 null
+     */
+    public Object next() throws IOException, ClassNotFoundException {
+        if (binary) {
+            int[] header = WireCodec.peekFrameHeader(buffer, start, end - start);
+            if (header == null || end - start < header[1] + header[0]) return null;
+            Object obj = WireCodec.decode(buffer, start + header[1], header[0]);
+            start += header[1] + header[0];
+            return obj;
+        }
+        if (!headerRead) {
+            if (end - start < STREAM_HEADER.length) return null;
+            for (int i = 0; i < STREAM_HEADER.length; i++) {
+                if (buffer[start + i] != STREAM_HEADER[i]) {
+                    throw new StreamCorruptedException("Invalid stream header");
+                }
+            }
+            start += STREAM_HEADER.length;
+            headerRead = true;
+        }
+
+        while (start < end && buffer[start] == TC_RESET) {
+            start++;
+        }
+        if (start == end) return null;
+
+        CountingInputStream body = new CountingInputStream(
+            new ByteArrayInputStream(buffer, start, end - start));
+        try {
+            ObjectInputStream ois = new ObjectInputStream(
+                new SequenceInputStream(new ByteArrayInputStream(STREAM_HEADER), body));
+            Object obj = ois.readObject();
+            start += body.count;
+            return obj;
+        } catch (IOException e) {
+            // 讀到緩衝區尾端才出錯 = 物件還沒收完整，等下次資料
+            if (body.reachedEnd) return null;
+            throw e;
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        int count = 0;
+        boolean reachedEnd = false;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) count++;
+            else reachedEnd = true;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) count += n;
+            else if (len > 0) reachedEnd = true;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += (int) skipped;
+            return skipped;
+        }
+    }
+}
+
+/**
+ * NIO 連線 - 由所屬的 NioEventLoop 負責讀寫
+ */
+class NioConnection implements ClientConnection {
+    private final SocketChannel channel;
+    private final GameServer.ClientHandler handler;
+    private volatile NioEventLoop loop;   // 加入房間後會搬到房間所在的迴圈
+    private final MessageStreamDecoder decoder = new MessageStreamDecoder();
+    private final OutboundQueue queue;
+    // 以下只在 I/O 執行緒使用：佇列項目在寫出前才編碼
+    private final Queue<ByteBuffer> pending = new ArrayDeque<>();
+    private final ByteArrayOutputStream encodeBuffer = new ByteArrayOutputStream(512);
+    private final ObjectOutputStream encoder;
+    private final boolean binaryAllowed;
+    private boolean binaryOut = false;
+    final AtomicBoolean writeScheduled = new AtomicBoolean(false);
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    SelectionKey key;
+
+    public NioConnection(SocketChannel channel, GameServer.ClientHandler handler, NioEventLoop loop,
+                         boolean binaryAllowed, OutboundQueue queue) throws IOException {
+        this.channel = channel;
+        this.binaryAllowed = binaryAllowed;
+        this.queue = queue;
+        this.handler = handler;
+        this.loop = loop;
+        // 串流標頭留在緩衝區，隨第一則訊息一起送出
+        this.encoder = new ObjectOutputStream(encodeBuffer);
+    }
+
+    public GameServer.ClientHandler getHandler() {
+        return handler;
+    }
+
+    public SocketChannel getChannel() {
+        return channel;
+    }
+
+    NioEventLoop getLoop() {
+        return loop;
+    }
+
+    void setLoop(NioEventLoop loop) {
+        this.loop = loop;
+    }
+
+    @Override
+    public void moveTo(RoomShard shard) {
+        if (shard.getLoop() != null) {
+            migrateTo(shard.getLoop());
+        }
+    }
+
+    // 請目前的迴圈把連線交給 target（任何執行緒皆可呼叫）
+    void migrateTo(NioEventLoop target) {
+        NioEventLoop current = loop;
+        if (target != current) {
+            current.execute(() -> current.handOff(this, target));
+        }
+    }
+
+    @Override
+    public boolean send(Object obj) {
+        return enqueue(obj);
+    }
+
+    @Override
+    public boolean sendFrame(BroadcastFrame frame) {
+        return enqueue(frame);
+    }
+
+    private boolean enqueue(Object item) {
+        if (closed.get()) return false;
+        boolean accepted = queue.offer(item);
+        // 溢位時也要喚醒事件迴圈，由它負責斷線
+        loop.requestWrite(this);
+        return accepted;
+    }
+
+    @Override
+    public OutboundQueue getOutboundQueue() {
+        return queue;
+    }
+
+    boolean isOverflowed() {
+        return queue.isOverflowed();
+    }
+
+    private void acceptCodecSwitch(CodecSwitchMessage req) throws IOException {
+        if (!binaryAllowed || req.version != WireCodec.VERSION) {
+            throw new StreamCorruptedException("Unsupported wire codec version: " + req.version);
+        }
+        decoder.switchToBinary();
+        // 確認訊息仍用 Java 序列化，之後不再 reset；佇列中尚未編碼的訊息都會以二進位送出
+        encoder.writeObject(new CodecSwitchMessage(WireCodec.VERSION));
+        encoder.flush();
+        drainEncoder();
+        binaryOut = true;
+        loop.requestWrite(this);
+    }
+
+    // 將一個佇列項目編碼到待寫出緩衝（僅在 I/O 執行緒呼叫）
+    private void encode(Object item) throws IOException {
+        try {
+            if (item instanceof BroadcastFrame frame) {
+                if (binaryOut) {
+                    pending.add(ByteBuffer.wrap(frame.binaryBytes()).asReadOnlyBuffer());
+                } else {
+                    // 串流標頭或上次 reset() 的 TC_RESET 要排在共用位元組之前
+                    encoder.flush();
+                    drainEncoder();
+                    pending.add(ByteBuffer.wrap(frame.javaBytes()).asReadOnlyBuffer());
+                }
+                BroadcastFrame.delivered();
+            } else if (binaryOut) {
+                pending.add(ByteBuffer.wrap(WireCodec.encodeFrame(item)));
+            } else {
+                encoder.writeObject(item);
+                encoder.flush();
+                encoder.reset();
+                drainEncoder();
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println("[ERROR] " + e.getMessage());
+        }
+    }
+
+    private void drainEncoder() {
+        if (encodeBuffer.size() > 0) {
+            pending.add(ByteBuffer.wrap(encodeBuffer.toByteArray()));
+            encodeBuffer.reset();
+        }
+    }
+
+    /**
+     * 讀取並分派所有完整訊息（僅在 I/O 執行緒呼叫）
+     */
+    void onReadable(ByteBuffer readBuffer) throws IOException, ClassNotFoundException {
+        readBuffer.clear();
+        int n = channel.read(readBuffer);
+        if (n < 0) throw new EOFException();
+        readBuffer.flip();
+        decoder.feed(readBuffer);
+
+        Object obj;
+        while (!closed.get() && (obj = decoder.next()) != null) {
+            if (obj instanceof CodecSwitchMessage req && !decoder.isBinary()) {
+                acceptCodecSwitch(req);
+                continue;
+            }
+            handler.handleMessage(obj);
+        }
+    }
+
+    /**
+     * 盡量寫出佇列中的資料，全部寫完回傳 true（僅在 I/O 執行緒呼叫）
+     */
+    boolean flushOutbound() throws IOException {
+        while (true) {
+            ByteBuffer buf = pending.peek();
+            if (buf == null) {
+                Object item = queue.poll();
+                if (item == null) return true;
+                encode(item);
+                continue;
+            }
+            channel.write(buf);
+            if (buf.hasRemaining()) return false;
+            pending.poll();
+        }
+    }
+
+    boolean isClosed() {
+        return closed.get();
+    }
+
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) return;
+        queue.close();
+        if (key != null) {
+            key.cancel();
+            loop.connectionClosed();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // 忽略
+        }
+    }
+}
+
+/**
+ * NIO 事件迴圈 - 一條執行緒 + 一個 Selector，負責多條連線
+ * 同時也是房間分片：房間信箱的工作放進 tasks，在處理完讀取事件後執行
+ */
+class NioEventLoop implements Runnable, Executor {
+    private static final int MAX_TASKS_PER_ROUND = 1024;
+    private final Selector selector;
+    private final Queue<NioConnection> pendingRegistrations = new ConcurrentLinkedQueue<>();
+    private final Queue<NioConnection> pendingMigrations = new ConcurrentLinkedQueue<>();
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final Queue<NioConnection> pendingWrites = new ConcurrentLinkedQueue<>();
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(64 * 1024);
+    private final String name;
+    private final AtomicInteger connectionCount = new AtomicInteger();
+
+    public NioEventLoop(String name) throws IOException {
+        this.name = name;
+        this.selector = Selector.open();
+    }
+
+    public int getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    void connectionClosed() {
+        connectionCount.decrementAndGet();
+    }
+
+    /**
+     * 將新連線交給此迴圈（任何執行緒皆可呼叫）
+     */
+    public void register(SocketChannel channel, GameServer.ClientHandler handler) throws IOException {
+        NioConnection conn = new NioConnection(channel, handler, this, GameServer.isBinaryCodecEnabled(),
+                                               GameServer.newOutboundQueue());
+        handler.attach(conn);
+        pendingRegistrations.add(conn);
+        selector.wakeup();
+    }
+
+    /**
+     * 在此迴圈的執行緒上執行工作（房間分片的信箱）
+     */
+    @Override
+    public void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * 把連線交給另一個迴圈（僅在目前擁有連線的 I/O 執行緒呼叫）
+     * 舊的 SelectionKey 取消後由目標迴圈重新登記，解碼器與待寫出資料跟著連線走
+     */
+    void handOff(NioConnection conn, NioEventLoop target) {
+        if (conn.isClosed()) return;
+        if (conn.getLoop() != this) {
+            // 前一次搬移已經把連線交出去，改由新的擁有者處理
+            conn.migrateTo(target);
+            return;
+        }
+        if (target == this) return;
+        if (conn.key != null) {
+            conn.key.cancel();
+            conn.key = null;
+        }
+        connectionCount.decrementAndGet();
+        conn.setLoop(target);
+        target.pendingMigrations.add(conn);
+        target.selector.wakeup();
+    }
+
+    void requestWrite(NioConnection conn) {
+        if (conn.writeScheduled.compareAndSet(false, true)) {
+            pendingWrites.add(conn);
+            selector.wakeup();
+        }
+    }
+
+    @Override
+    public void run() {
+        System.out.println("[NIO] " + name + " started");
+        while (true) {
+            try {
+                selector.select();
+                processRegistrations();
+                processMigrations();
+                processWrites();
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    NioConnection conn = (NioConnection) key.attachment();
+                    if (!key.isValid()) continue;
+
+                    try {
+                        if (key.isReadable()) {
+                            conn.onReadable(readBuffer);
+                        }
+                        if (key.isValid() && key.isWritable() && conn.flushOutbound()) {
+                            key.interestOps(SelectionKey.OP_READ);
+                        }
+                    } catch (EOFException | SocketException e) {
+                        System.out.println("[DISCONNECT] Client: " + conn.getHandler().getPlayerId());
+                        disconnect(conn);
+                    } catch (StreamCorruptedException e) {
+                        System.out.println("[ERROR] Stream corrupted for client: " + conn.getHandler().getPlayerId());
+                        disconnect(conn);
+                    } catch (Exception e) {
+                        System.out.println("[ERROR] Client " + conn.getHandler().getPlayerId() + ": " + e.getMessage());
+                        disconnect(conn);
+                    }
+                }
+                // 房間工作送出的訊息在同一輪寫出
+                processTasks();
+                processWrites();
+            } catch (Exception e) {
+                System.err.println("[NIO ERROR] " + name + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void processRegistrations() {
+        NioConnection conn;
+        while ((conn = pendingRegistrations.poll()) != null) {
+            try {
+                conn.getChannel().configureBlocking(false);
+                conn.key = conn.getChannel().register(selector, SelectionKey.OP_READ, conn);
+                connectionCount.incrementAndGet();
+                conn.getHandler().onConnected();
+            } catch (IOException e) {
+                System.out.println("[ERROR] Client " + conn.getHandler().getPlayerId() + ": " + e.getMessage());
+                disconnect(conn);
+            }
+        }
+    }
+
+    private void processMigrations() {
+        NioConnection conn;
+        while ((conn = pendingMigrations.poll()) != null) {
+            if (conn.isClosed()) continue;
+            try {
+                conn.key = conn.getChannel().register(selector, SelectionKey.OP_READ, conn);
+                connectionCount.incrementAndGet();
+                // 搬移期間放進佇列的訊息
+                requestWrite(conn);
+            } catch (IOException e) {
+                System.out.println("[ERROR] Client " + conn.getHandler().getPlayerId() + ": " + e.getMessage());
+                disconnect(conn);
+            }
+        }
+    }
+
+    // 每輪最多執行 MAX_TASKS_PER_ROUND 個工作，剩下的留到下一輪（execute 已經喚醒 Selector）
+    private void processTasks() {
+        for (int i = 0; i < MAX_TASKS_PER_ROUND; i++) {
+            Runnable task = tasks.poll();
+            if (task == null) return;
+            try {
+                task.run();
+            } catch (Exception e) {
+                System.err.println("[NIO ERROR] " + name + " task: " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void processWrites() {
+        NioConnection conn;
+        while ((conn = pendingWrites.poll()) != null) {
+            conn.writeScheduled.set(false);
+            if (conn.isClosed()) continue;
+            if (conn.getLoop() != this) {
+                // 已經搬到別的迴圈，交給新的擁有者寫出
+                conn.getLoop().requestWrite(conn);
+                continue;
+            }
+            if (conn.key == null || !conn.key.isValid()) continue;
+            if (conn.isOverflowed()) {
+                System.out.println("[DISCONNECT] Client: " + conn.getHandler().getPlayerId() + " (outbound queue overflow)");
+                disconnect(conn);
+                continue;
+            }
+            try {
+                if (!conn.flushOutbound()) {
+                    conn.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                }
+            } catch (IOException e) {
+                System.out.println("[DISCONNECT] Client: " + conn.getHandler().getPlayerId());
+                disconnect(conn);
+            }
+        }
+    }
+
+    private void disconnect(NioConnection conn) {
+        if (conn.isClosed()) return;
+        conn.getHandler().cleanup();
+    }
+}
@@ -28,10 +28,44 @@ class InitMessage implements Serializable {
     private static final long serialVersionUID = 1L;
     String playerId;
     String colorHex;
+    int wireCodecVersion;  // 伺服器支援的二進位編碼版本（0 = 只支援 Java 序列化）
+    int udpPort;           // 伺服器 UDP 埠（0 = 未開啟）
+    long udpToken;         // UDP 封包識別用的金鑰
     
     public InitMessage(String playerId, String colorHex) {
+        this(playerId, colorHex, 0);
+    }
+    
+    public InitMessage(String playerId, String colorHex, int wireCodecVersion) {
+        this(playerId, colorHex, wireCodecVersion, 0, 0);
+    }
+    
+    public InitMessage(String playerId, String colorHex, int wireCodecVersion, int udpPort, long udpToken) {
         this.playerId = playerId;
         this.colorHex = colorHex;
+        this.wireCodecVersion = wireCodecVersion;
+        this.udpPort = udpPort;
+        this.udpToken = udpToken;
+    }
+}
+
+// UDP 狀態（客戶端 -> 伺服器，經 TCP）：UDP 握手成功後啟用，收不到 UDP 時關閉
+class UdpStatusMessage implements Serializable {
+    private static final long serialVersionUID = 1L;
+    boolean enabled;
+    
+    public UdpStatusMessage(boolean enabled) {
+        this.enabled = enabled;
+    }
+}
+
+// 編碼切換訊息（客戶端請求 / 伺服器確認，之後該方向改用 WireCodec 二進位訊框）
+class CodecSwitchMessage implements Serializable {
+    private static final long serialVersionUID = 1L;
+    int version;
+    
+    public CodecSwitchMessage(int version) {
+        this.version = version;
     }
 }
 
@@ -55,6 +89,41 @@ class RandomPlatformsMessage implements Serializable {
     }
 }
 
+// 地圖公告（伺服器 -> 客戶端，遊戲開始時送出）
+// 只有內容雜湊，客戶端磁碟快取沒有這張地圖時才送 MapRequest 取回內容。
+class MapAnnounceMessage implements Serializable {
+    private static final long serialVersionUID = 1L;
+    String mapHash;
+    int platformCount;
+    
+    public MapAnnounceMessage(String mapHash, int platformCount) {
+        this.mapHash = mapHash;
+        this.platformCount = platformCount;
+    }
+}
+
+// 索取地圖內容（客戶端 -> 伺服器）
+class MapRequest implements Serializable {
+    private static final long serialVersionUID = 1L;
+    String mapHash;
+    
+    public MapRequest(String mapHash) {
+        this.mapHash = mapHash;
+    }
+}
+
+// 地圖內容（伺服器 -> 客戶端，回覆 MapRequest）
+class MapDataMessage implements Serializable {
+    private static final long serialVersionUID = 1L;
+    String mapHash;
+    List<PlatformPlacement> platforms;
+    
+    public MapDataMessage(String mapHash, List<PlatformPlacement> platforms) {
+        this.mapHash = mapHash;
+        this.platforms = platforms;
+    }
+}
+
 // 物件資訊
 class GameObjectInfo implements Serializable {
     private static final long serialVersionUID = 1L;
@@ -154,6 +223,26 @@ class PlacementMessage implements Serializable {
     }
 }
 
+// 回合關卡（伺服器 -> 客戶端，進入 PLAYING 時送一次）
+// 伺服器已經套用本回合所有放置與橡皮擦，客戶端只需移除 removedIds 並建立 added。
+// levelId：地圖平台依 RandomPlatformsMessage / MapDataMessage 的順序為 0..M-1，之後的玩家物件接續編號。
+class LevelSnapshot implements Serializable {
+    private static final long serialVersionUID = 1L;
+    int round;
+    int[] removedIds;                // 被橡皮擦移除的物件
+    int[] addedIds;                  // 與 added 同順序
+    List<PlatformPlacement> added;   // 本回合新增的物件（不含橡皮擦）
+    int objectCount;                 // 套用後關卡物件總數，供客戶端核對
+    
+    public LevelSnapshot(int round, int[] removedIds, int[] addedIds, List<PlatformPlacement> added, int objectCount) {
+        this.round = round;
+        this.removedIds = removedIds;
+        this.addedIds = addedIds;
+        this.added = added;
+        this.objectCount = objectCount;
+    }
+}
+
 // 玩家資訊
 class PlayerInfo implements Serializable {
     private static final long serialVersionUID = 1L;
@@ -174,6 +263,34 @@ class PlayerInfo implements Serializable {
     }
 }
 
+// 房間快照（伺服器每個 tick 送出一次，位置經量化與差分編碼，見 SnapshotCodec）
+class RoomSnapshot implements Serializable {
+    private static final long serialVersionUID = 1L;
+    long tick;
+    long baseTick;             // 差分基準（客戶端確認過的 tick），0 = 完整快照
+    List<String> playerIds;    // 只有完整快照才有：slot 對應的玩家
+    List<String> colors;
+    byte[] data;               // 量化後的位置資料
+    
+    public RoomSnapshot(long tick, long baseTick, List<String> playerIds, List<String> colors, byte[] data) {
+        this.tick = tick;
+        this.baseTick = baseTick;
+        this.playerIds = playerIds;
+        this.colors = colors;
+        this.data = data;
+    }
+}
+
+// 快照確認（客戶端 -> 伺服器），tick 為 0 表示找不到差分基準、需要完整快照
+class SnapshotAck implements Serializable {
+    private static final long serialVersionUID = 1L;
+    long tick;
+    
+    public SnapshotAck(long tick) {
+        this.tick = tick;
+    }
+}
+
 // 斷線訊息
 class DisconnectMessage implements Serializable {
     private static final long serialVersionUID = 1L;
@@ -0,0 +1,192 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * 位置快照的量化與差分編碼
+ * 座標量化為 1/8 px 存成 16 位元，蹲下與 scaleY 合併成一個旗標位元組。
+ * 完整快照：slot 表（玩家 id / 顏色）+ 每個 slot 的 x、y、旗標。
+ * 差分快照：只送與基準不同的玩家，每筆 = (slot << 3 | 變動欄位) + 各欄位的 zigzag 差值。
+ * 差值以 16 位元取模計算，所以任何位移都能表示。
+ */
+class SnapshotState {
+    static final double QUANT_SCALE = 8.0;        // 1/8 px
+    static final double QUANT_ORIGIN = -1024.0;   // 可表示 -1024 ~ 7167.875 px
+    static final double SCALE_Y_STEP = 64.0;      // scaleY 精度 1/64，最大 127/64
+    static final int CROUCH_BIT = 0x80;
+
+    final long tick;
+    final String[] playerIds;
+    final String[] colors;
+    final int[] x;       // 無號 16 位元
+    final int[] y;       // 無號 16 位元
+    final int[] flags;   // bit7 = 蹲下，bit0-6 = scaleY
+
+    SnapshotState(long tick, String[] playerIds, String[] colors) {
+        this.tick = tick;
+        this.playerIds = playerIds;
+        this.colors = colors;
+        this.x = new int[playerIds.length];
+        this.y = new int[playerIds.length];
+        this.flags = new int[playerIds.length];
+    }
+
+    public int size() {
+        return playerIds.length;
+    }
+
+    /**
+     * 從 PlayerInfo 建立量化後的快照（伺服器端）
+     */
+    public static SnapshotState capture(long tick, List<PlayerInfo> players) {
+        int n = players.size();
+        String[] ids = new String[n];
+        String[] colors = new String[n];
+        for (int i = 0; i < n; i++) {
+            ids[i] = players.get(i).playerId;
+            colors[i] = players.get(i).colorHex;
+        }
+        SnapshotState state = new SnapshotState(tick, ids, colors);
+        for (int i = 0; i < n; i++) {
+            PlayerInfo p = players.get(i);
+            state.x[i] = quantize(p.x);
+            state.y[i] = quantize(p.y);
+            int scale = (int) Math.max(0, Math.min(127, Math.round(p.scaleY * SCALE_Y_STEP)));
+            state.flags[i] = (p.crouching ? CROUCH_BIT : 0) | scale;
+        }
+        return state;
+    }
+
+    /**
+     * 還原成 PlayerInfo，交給客戶端原本的 updateOtherPlayer 使用
+     */
+    public List<PlayerInfo> toPlayerInfos() {
+        List<PlayerInfo> list = new ArrayList<>(size());
+        for (int i = 0; i < size(); i++) {
+            list.add(new PlayerInfo(playerIds[i], colors[i],
+                                    dequantize(x[i]), dequantize(y[i]),
+                                    (flags[i] & CROUCH_BIT) != 0,
+                                    (flags[i] & 0x7F) / SCALE_Y_STEP));
+        }
+        return list;
+    }
+
+    public boolean sameRoster(SnapshotState other) {
+        return other != null && Arrays.equals(playerIds, other.playerIds);
+    }
+
+    static int quantize(double v) {
+        long q = Math.round((v - QUANT_ORIGIN) * QUANT_SCALE);
+        return (int) Math.max(0, Math.min(0xFFFF, q));
+    }
+
+    static double dequantize(int q) {
+        return q / QUANT_SCALE + QUANT_ORIGIN;
+    }
+}
+
+/**
+ * RoomSnapshot 編碼 / 解碼
+ */
+class SnapshotCodec {
+    private static final int FIELD_X = 1;
+    private static final int FIELD_Y = 2;
+    private static final int FIELD_FLAGS = 4;
+
+    /**
+     * base 為 null 或名單不同時輸出完整快照，否則只輸出有變動的玩家
+     */
+    public static RoomSnapshot encode(SnapshotState current, SnapshotState base) {
+        WireWriter w = new WireWriter(8 + current.size() * 5);
+        if (!current.sameRoster(base)) {
+            for (int i = 0; i < current.size(); i++) {
+                w.writeFixedShort(current.x[i]);
+                w.writeFixedShort(current.y[i]);
+                w.writeByte(current.flags[i]);
+            }
+            return new RoomSnapshot(current.tick, 0,
+                                    Arrays.asList(current.playerIds), Arrays.asList(current.colors),
+                                    w.toByteArray());
+        }
+
+        for (int i = 0; i < current.size(); i++) {
+            int mask = 0;
+            if (current.x[i] != base.x[i]) mask |= FIELD_X;
+            if (current.y[i] != base.y[i]) mask |= FIELD_Y;
+            if (current.flags[i] != base.flags[i]) mask |= FIELD_FLAGS;
+            if (mask == 0) continue;  // 靜止的玩家不送
+
+            w.writeVarInt((i << 3) | mask);
+            if ((mask & FIELD_X) != 0) w.writeZigZag((short) (current.x[i] - base.x[i]));
+            if ((mask & FIELD_Y) != 0) w.writeZigZag((short) (current.y[i] - base.y[i]));
+            if ((mask & FIELD_FLAGS) != 0) w.writeByte(current.flags[i]);
+        }
+        return new RoomSnapshot(current.tick, base.tick, null, null, w.toByteArray());
+    }
+
+    /**
+     * 差分快照需要對應 baseTick 的基準；資料不合法時丟出 IOException
+     */
+    public static SnapshotState decode(RoomSnapshot msg, SnapshotState base) throws IOException {
+        byte[] data = msg.data == null ? new byte[0] : msg.data;
+        WireReader r = new WireReader(data, 0, data.length);
+
+        if (msg.baseTick == 0) {
+            if (msg.playerIds == null || msg.colors == null || msg.playerIds.size() != msg.colors.size()) {
+                throw new StreamCorruptedException("Full snapshot without roster");
+            }
+            SnapshotState state = new SnapshotState(msg.tick,
+                                                    msg.playerIds.toArray(new String[0]),
+                                                    msg.colors.toArray(new String[0]));
+            for (int i = 0; i < state.size(); i++) {
+                state.x[i] = r.readFixedShort();
+                state.y[i] = r.readFixedShort();
+                state.flags[i] = r.readByte() & 0xFF;
+            }
+            return state;
+        }
+
+        if (base == null || base.tick != msg.baseTick) {
+            throw new StreamCorruptedException("Missing snapshot base " + msg.baseTick);
+        }
+        SnapshotState state = new SnapshotState(msg.tick, base.playerIds, base.colors);
+        System.arraycopy(base.x, 0, state.x, 0, base.size());
+        System.arraycopy(base.y, 0, state.y, 0, base.size());
+        System.arraycopy(base.flags, 0, state.flags, 0, base.size());
+        while (r.remaining() > 0) {
+            int header = r.readVarInt();
+            int slot = header >>> 3;
+            if (slot >= state.size()) throw new StreamCorruptedException("Bad snapshot slot " + slot);
+            if ((header & FIELD_X) != 0) state.x[slot] = (state.x[slot] + r.readZigZagInt()) & 0xFFFF;
+            if ((header & FIELD_Y) != 0) state.y[slot] = (state.y[slot] + r.readZigZagInt()) & 0xFFFF;
+            if ((header & FIELD_FLAGS) != 0) state.flags[slot] = r.readByte() & 0xFF;
+        }
+        return state;
+    }
+}
+
+/**
+ * 最近幾個快照（依 tick 查詢差分基準）
+ */
+class SnapshotHistory {
+    private final SnapshotState[] ring;
+    private SnapshotState latest;
+
+    public SnapshotHistory(int capacity) {
+        this.ring = new SnapshotState[capacity];
+    }
+
+    public void put(SnapshotState state) {
+        ring[(int) (state.tick % ring.length)] = state;
+        latest = state;
+    }
+
+    public SnapshotState get(long tick) {
+        if (tick <= 0) return null;
+        SnapshotState state = ring[(int) (tick % ring.length)];
+        return state != null && state.tick == tick ? state : null;
+    }
+
+    public SnapshotState latest() {
+        return latest;
+    }
+}
@@ -0,0 +1,208 @@
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 伺服器共用的雜湊時間輪
+ * 一條執行緒每 tickMillis 前進一格，所有房間的期限（回合時間上限、排行榜停留等）都登記在這裡，
+ * 不再為每個等待中的房間佔用一條睡眠中的執行緒。
+ *
+ * 排程與取消都是 O(1)：任何執行緒都只把工作放進佇列，由時間輪執行緒掛進 / 移出對應的格子
+ * （每格是雙向串列）。超過一圈的期限記錄剩餘圈數，轉到時再減一。
+ * 到期的工作在時間輪執行緒上執行，必須很短（只做判斷與入列）。
+ */
+class TimerWheel implements Runnable {
+    private final String name;
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final ConcurrentLinkedQueue<Timeout> additions = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Timeout> cancellations = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicLong fired = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+    private volatile long startTime;
+    private long tick = 0;           // 只在時間輪執行緒使用
+    private Thread worker;
+
+    /**
+     * wheelSize 會進位到 2 的次方
+     */
+    public TimerWheel(String name, long tickMillis, int wheelSize) {
+        if (tickMillis <= 0) throw new IllegalArgumentException("tickMillis must be positive");
+        int size = 1;
+        while (size < wheelSize) size <<= 1;
+        this.name = name;
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) wheel[i] = new Bucket();
+        this.mask = size - 1;
+    }
+
+    public synchronized void start() {
+        if (worker != null) return;
+        startTime = System.nanoTime();
+        worker = new Thread(this, name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * 排程一次性工作，回傳可取消的 Timeout
+     */
+    public Timeout schedule(long delay, TimeUnit unit, Runnable task) {
+        long deadline = System.nanoTime() - startTime + Math.max(0, unit.toNanos(delay));
+        Timeout timeout = new Timeout(this, task, deadline);
+        pending.incrementAndGet();
+        additions.add(timeout);
+        return timeout;
+    }
+
+    public int getPending() {
+        return pending.get();
+    }
+
+    public String describe() {
+        return name + ": pending=" + pending.get() + " fired=" + fired.get() + " cancelled=" + cancelled.get();
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            long deadline = tickNanos * (tick + 1);
+            long sleepNanos = deadline - (System.nanoTime() - startTime);
+            if (sleepNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            processCancellations();
+            transferAdditions();
+            wheel[(int) (tick & mask)].expire(deadline);
+            tick++;
+        }
+    }
+
+    private void transferAdditions() {
+        // 每格最多搬十萬筆，避免大量排程時卡住整個時間輪
+        for (int i = 0; i < 100_000; i++) {
+            Timeout timeout = additions.poll();
+            if (timeout == null) return;
+            if (timeout.state.get() != Timeout.ST_INIT) continue;  // 還沒入格就被取消
+            long calculated = timeout.deadline / tickNanos;
+            timeout.remainingRounds = (calculated - tick) / wheel.length;
+            long ticks = Math.max(calculated, tick);  // 已經過期的放到目前這格
+            wheel[(int) (ticks & mask)].add(timeout);
+        }
+    }
+
+    private void processCancellations() {
+        Timeout timeout;
+        while ((timeout = cancellations.poll()) != null) {
+            if (timeout.bucket != null) timeout.bucket.remove(timeout);
+        }
+    }
+
+    private void expired(Timeout timeout) {
+        pending.decrementAndGet();
+        fired.incrementAndGet();
+        try {
+            timeout.task.run();
+        } catch (Exception e) {
+            System.err.println("[TIMER ERROR] " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 一個已排程的期限
+     */
+    static class Timeout {
+        private static final int ST_INIT = 0;
+        private static final int ST_CANCELLED = 1;
+        private static final int ST_EXPIRED = 2;
+
+        private final TimerWheel timer;
+        private final Runnable task;
+        private final long deadline;   // 相對於 startTime 的奈秒
+        private final AtomicInteger state = new AtomicInteger(ST_INIT);
+        // 以下只在時間輪執行緒使用
+        private long remainingRounds;
+        private Timeout next;
+        private Timeout prev;
+        private Bucket bucket;
+
+        private Timeout(TimerWheel timer, Runnable task, long deadline) {
+            this.timer = timer;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * 取消尚未執行的工作；已執行或已取消時回傳 false
+         */
+        public boolean cancel() {
+            if (!state.compareAndSet(ST_INIT, ST_CANCELLED)) return false;
+            timer.pending.decrementAndGet();
+            timer.cancelled.incrementAndGet();
+            timer.cancellations.add(this);
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return state.get() == ST_CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return state.get() == ST_EXPIRED;
+        }
+    }
+
+    /**
+     * 時間輪的一格：Timeout 的雙向串列
+     */
+    private class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        void expire(long deadline) {
+            Timeout timeout = head;
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.remainingRounds > 0) {
+                    timeout.remainingRounds--;
+                } else if (timeout.deadline <= deadline) {
+                    remove(timeout);
+                    if (timeout.state.compareAndSet(Timeout.ST_INIT, Timeout.ST_EXPIRED)) {
+                        expired(timeout);
+                    }
+                }
+                timeout = next;
+            }
+        }
+
+        void remove(Timeout timeout) {
+            if (timeout.bucket != this) return;
+            if (timeout.prev != null) timeout.prev.next = timeout.next;
+            else head = timeout.next;
+            if (timeout.next != null) timeout.next.prev = timeout.prev;
+            else tail = timeout.prev;
+            timeout.next = timeout.prev = null;
+            timeout.bucket = null;
+        }
+    }
+}
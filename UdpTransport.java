@@ -0,0 +1,208 @@
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * UDP 旁路通道
+ * 只承載高頻率、可遺失的資料（玩家位置、房間快照與其確認），
+ * 房間與階段等可靠訊息仍走 TCP，不會被過期的位置資料卡住。
+ *
+ * 封包格式：型別(1) + 金鑰(8) + [DATA: 序號 varint + WireCodec 訊框]
+ * 金鑰由伺服器在 InitMessage 中發給客戶端，用來辨識封包屬於哪個玩家；
+ * 序號每個方向各自遞增，收到比較舊的序號直接丟棄。
+ */
+class UdpPacket {
+    static final byte HELLO = 1;       // 客戶端 -> 伺服器：登記 UDP 位址
+    static final byte HELLO_ACK = 2;   // 伺服器 -> 客戶端：登記成功
+    static final byte DATA = 3;        // 雙向：一個 WireCodec 訊框
+    static final byte HEARTBEAT = 4;   // 伺服器 -> 客戶端：讓客戶端確認 UDP 仍然暢通
+    static final int MAX_DATAGRAM = 1200;  // 避免 IP 分片
+
+    final byte type;
+    final long token;
+    final long seq;
+    private final byte[] data;
+    private final int frameOffset;
+
+    private UdpPacket(byte type, long token, long seq, byte[] data, int frameOffset) {
+        this.type = type;
+        this.token = token;
+        this.seq = seq;
+        this.data = data;
+        this.frameOffset = frameOffset;
+    }
+
+    public static byte[] control(byte type, long token) {
+        WireWriter w = new WireWriter(9);
+        w.writeByte(type);
+        w.writeFixedLong(token);
+        return w.toByteArray();
+    }
+
+    public static byte[] data(long token, long seq, byte[] frame) {
+        WireWriter w = new WireWriter(frame.length + 19);
+        w.writeByte(DATA);
+        w.writeFixedLong(token);
+        w.writeVarLong(seq);
+        w.writeBytes(frame, 0, frame.length);
+        return w.toByteArray();
+    }
+
+    public static UdpPacket parse(ByteBuffer buf) throws IOException {
+        byte[] data = new byte[buf.remaining()];
+        buf.get(data);
+        WireReader r = new WireReader(data, 0, data.length);
+        byte type = r.readByte();
+        long token = r.readFixedLong();
+        long seq = 0;
+        if (type == DATA) {
+            seq = r.readVarLong();
+        } else if (type != HELLO && type != HELLO_ACK && type != HEARTBEAT) {
+            throw new StreamCorruptedException("Unknown datagram type: " + type);
+        }
+        return new UdpPacket(type, token, seq, data, data.length - r.remaining());
+    }
+
+    /**
+     * 解出 DATA 封包中的訊息
+     */
+    public Object decodeMessage() throws IOException {
+        int[] header = WireCodec.peekFrameHeader(data, frameOffset, data.length - frameOffset);
+        if (header == null || frameOffset + header[1] + header[0] != data.length) {
+            throw new StreamCorruptedException("Truncated datagram frame");
+        }
+        return WireCodec.decode(data, frameOffset + header[1], header[0]);
+    }
+}
+
+/**
+ * 伺服器 UDP 端點 - 一條執行緒接收，任何執行緒都可以送出
+ */
+class UdpServer implements Runnable {
+    private final DatagramChannel channel;
+    private final int port;
+    private final Map<Long, GameServer.ClientHandler> clientsByToken = new ConcurrentHashMap<>();
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong stale = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    public UdpServer(int port) throws IOException {
+        this.channel = DatagramChannel.open();
+        this.channel.bind(new InetSocketAddress(port));
+        this.port = ((InetSocketAddress) channel.getLocalAddress()).getPort();
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public void register(GameServer.ClientHandler handler) {
+        clientsByToken.put(handler.getUdpToken(), handler);
+    }
+
+    public void unregister(GameServer.ClientHandler handler) {
+        clientsByToken.remove(handler.getUdpToken());
+    }
+
+    /**
+     * 每秒送心跳給已啟用 UDP 的客戶端
+     */
+    public void startHeartbeat() {
+        ServerExecutors.roomTicks().scheduleAtFixedRate(() -> {
+            for (GameServer.ClientHandler handler : clientsByToken.values()) {
+                SocketAddress address = handler.getUdpAddress();
+                if (handler.isUdpActive() && address != null) {
+                    sendRaw(UdpPacket.control(UdpPacket.HEARTBEAT, handler.getUdpToken()), address);
+                }
+            }
+        }, 1, 1, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void run() {
+        System.out.println("[UDP] Listening on port " + port);
+        ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+        while (channel.isOpen()) {
+            try {
+                buf.clear();
+                SocketAddress source = channel.receive(buf);
+                buf.flip();
+                handleDatagram(source, buf);
+            } catch (IOException e) {
+                System.err.println("[UDP ERROR] " + e.getMessage());
+            }
+        }
+    }
+
+    private void handleDatagram(SocketAddress source, ByteBuffer buf) {
+        UdpPacket packet;
+        try {
+            packet = UdpPacket.parse(buf);
+        } catch (IOException e) {
+            rejected.incrementAndGet();
+            return;
+        }
+        GameServer.ClientHandler handler = clientsByToken.get(packet.token);
+        if (handler == null) {
+            rejected.incrementAndGet();
+            return;
+        }
+        received.incrementAndGet();
+
+        if (packet.type == UdpPacket.HELLO) {
+            handler.setUdpAddress(source);
+            sendRaw(UdpPacket.control(UdpPacket.HELLO_ACK, packet.token), source);
+        } else if (packet.type == UdpPacket.DATA) {
+            if (!handler.acceptUdpSequence(packet.seq)) {
+                stale.incrementAndGet();
+                return;
+            }
+            // 客戶端位址可能因 NAT 改變，以最新封包為準
+            handler.setUdpAddress(source);
+            try {
+                handler.handleDatagram(packet.decodeMessage());
+            } catch (IOException e) {
+                rejected.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * 以 UDP 送出共用訊框，太大或送出失敗時回傳 false（由呼叫端改走 TCP）
+     */
+    public boolean send(GameServer.ClientHandler handler, SocketAddress address, BroadcastFrame frame) {
+        byte[] frameBytes;
+        try {
+            frameBytes = frame.binaryBytes();
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        byte[] datagram = UdpPacket.data(handler.getUdpToken(), handler.nextUdpSequence(), frameBytes);
+        if (datagram.length > UdpPacket.MAX_DATAGRAM || !sendRaw(datagram, address)) {
+            return false;
+        }
+        BroadcastFrame.delivered();
+        return true;
+    }
+
+    private boolean sendRaw(byte[] datagram, SocketAddress address) {
+        try {
+            channel.send(ByteBuffer.wrap(datagram), address);
+            sent.incrementAndGet();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public String describe() {
+        return "udp: clients=" + clientsByToken.size() + " in=" + received.get() + " out=" + sent.get()
+             + " stale=" + stale.get() + " rejected=" + rejected.get();
+    }
+}
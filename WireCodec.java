@@ -0,0 +1,930 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+// 線路編碼格式
+enum WireFormat {
+    JAVA,    // ObjectOutputStream（舊客戶端相容）
+    BINARY   // WireCodec 二進位訊框
+}
+
+/**
+ * 二進位訊息編碼
+ * 每個訊息 = 型別標籤 + 欄位（varint / 固定長度），串流上再加 varint 長度前綴。
+ * 取代 ObjectOutputStream，避免每 50ms 的位置更新都重送類別描述與欄位名稱。
+ * 握手時在 InitMessage 協商（見 CodecSwitchMessage）。
+ */
+class WireCodec {
+    public static final int VERSION = 1;
+    public static final int MAX_FRAME_SIZE = 4 * 1024 * 1024;
+
+    // 型別標籤
+    static final byte TAG_INIT = 1;
+    static final byte TAG_PHASE_CHANGE = 2;
+    static final byte TAG_RANDOM_PLATFORMS = 3;
+    static final byte TAG_GAME_OBJECT_INFO = 4;
+    static final byte TAG_OBJECT_LIST = 5;
+    static final byte TAG_SELECTION = 6;
+    static final byte TAG_PLATFORM_PLACEMENT = 7;
+    static final byte TAG_PLACEMENT = 8;
+    static final byte TAG_PLAYER_INFO = 9;
+    static final byte TAG_DISCONNECT = 10;
+    static final byte TAG_FINISH = 11;
+    static final byte TAG_FAIL = 12;
+    static final byte TAG_SCORE_UPDATE = 13;
+    static final byte TAG_ROUND_END = 14;
+    static final byte TAG_CODEC_SWITCH = 15;
+    static final byte TAG_ROOM_SNAPSHOT = 16;
+    static final byte TAG_SNAPSHOT_ACK = 17;
+    static final byte TAG_UDP_STATUS = 18;
+    static final byte TAG_LEVEL_SNAPSHOT = 19;
+    static final byte TAG_MAP_ANNOUNCE = 20;
+    static final byte TAG_MAP_REQUEST = 21;
+    static final byte TAG_MAP_DATA = 22;
+    static final byte TAG_ROOM_INFO = 32;
+    static final byte TAG_CREATE_ROOM_REQUEST = 33;
+    static final byte TAG_CREATE_ROOM_RESPONSE = 34;
+    static final byte TAG_JOIN_ROOM_REQUEST = 35;
+    static final byte TAG_JOIN_RANDOM_ROOM_REQUEST = 36;
+    static final byte TAG_JOIN_ROOM_RESPONSE = 37;
+    static final byte TAG_ROOM_UPDATE = 38;
+    static final byte TAG_PLAYER_READY = 39;
+    static final byte TAG_START_GAME_REQUEST = 40;
+    static final byte TAG_RETURN_TO_ROOM = 41;
+    static final byte TAG_LEAVE_ROOM_REQUEST = 42;
+    static final byte TAG_ROOM_REDIRECT = 43;
+
+    /**
+     * 編碼為帶長度前綴的完整訊框
+     */
+    public static byte[] encodeFrame(Object msg) {
+        WireWriter body = new WireWriter(32);
+        writeMessage(body, msg);
+        WireWriter frame = new WireWriter(body.size() + 5);
+        frame.writeVarInt(body.size());
+        frame.writeBytes(body.buffer(), 0, body.size());
+        return frame.toByteArray();
+    }
+
+    /**
+     * 編碼訊息內容（不含長度前綴）
+     */
+    public static byte[] encode(Object msg) {
+        WireWriter w = new WireWriter(32);
+        writeMessage(w, msg);
+        return w.toByteArray();
+    }
+
+    public static Object decode(byte[] data, int offset, int length) throws IOException {
+        WireReader r = new WireReader(data, offset, length);
+        Object msg = readMessage(r);
+        if (r.remaining() != 0) {
+            throw new StreamCorruptedException("Trailing bytes in frame: " + r.remaining());
+        }
+        return msg;
+    }
+
+    public static void writeFrame(OutputStream out, Object msg) throws IOException {
+        out.write(encodeFrame(msg));
+        out.flush();
+    }
+
+    public static Object readFrame(DataInputStream in) throws IOException {
+        int length = readVarInt(in);
+        if (length < 0 || length > MAX_FRAME_SIZE) {
+            throw new StreamCorruptedException("Invalid frame length: " + length);
+        }
+        byte[] data = new byte[length];
+        in.readFully(data);
+        return decode(data, 0, length);
+    }
+
+    /**
+     * 從緩衝區解析訊框長度前綴
+     * 回傳 {長度, 前綴位元組數}，資料不足時回傳 null
+     */
+    public static int[] peekFrameHeader(byte[] buf, int offset, int available) throws IOException {
+        int value = 0;
+        for (int i = 0; i < 5; i++) {
+            if (i >= available) return null;
+            int b = buf[offset + i] & 0xFF;
+            value |= (b & 0x7F) << (7 * i);
+            if ((b & 0x80) == 0) {
+                if (value < 0 || value > MAX_FRAME_SIZE) {
+                    throw new StreamCorruptedException("Invalid frame length: " + value);
+                }
+                return new int[] { value, i + 1 };
+            }
+        }
+        throw new StreamCorruptedException("Frame length varint too long");
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int i = 0; i < 5; i++) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << (7 * i);
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new StreamCorruptedException("Varint too long");
+    }
+
+    // ==================== 編碼 ====================
+
+    private static void writeMessage(WireWriter w, Object msg) {
+        if (msg instanceof PlayerInfo m) {
+            w.writeByte(TAG_PLAYER_INFO);
+            writePlayerInfo(w, m);
+        } else if (msg instanceof RoomSnapshot m) {
+            w.writeByte(TAG_ROOM_SNAPSHOT);
+            w.writeVarLong(m.tick);
+            w.writeVarLong(m.baseTick);
+            writeStringList(w, m.playerIds);
+            writeStringList(w, m.colors);
+            if (m.data == null) {
+                w.writeVarInt(0);
+            } else {
+                w.writeVarInt(m.data.length + 1);
+                w.writeBytes(m.data, 0, m.data.length);
+            }
+        } else if (msg instanceof SnapshotAck m) {
+            w.writeByte(TAG_SNAPSHOT_ACK);
+            w.writeVarLong(m.tick);
+        } else if (msg instanceof UdpStatusMessage m) {
+            w.writeByte(TAG_UDP_STATUS);
+            w.writeBoolean(m.enabled);
+        } else if (msg instanceof PlacementMessage m) {
+            w.writeByte(TAG_PLACEMENT);
+            w.writeString(m.playerId);
+            writePlacement(w, m.placement);
+            w.writeBoolean(m.confirmed);
+        } else if (msg instanceof InitMessage m) {
+            w.writeByte(TAG_INIT);
+            w.writeString(m.playerId);
+            w.writeString(m.colorHex);
+            w.writeVarInt(m.wireCodecVersion);
+            w.writeVarInt(m.udpPort);
+            w.writeFixedLong(m.udpToken);
+        } else if (msg instanceof PhaseChangeMessage m) {
+            w.writeByte(TAG_PHASE_CHANGE);
+            w.writeEnum(m.phase);
+        } else if (msg instanceof LevelSnapshot m) {
+            w.writeByte(TAG_LEVEL_SNAPSHOT);
+            w.writeZigZag(m.round);
+            writeIntArray(w, m.removedIds);
+            writeIntArray(w, m.addedIds);
+            writePlacementList(w, m.added);
+            w.writeVarInt(m.objectCount);
+        } else if (msg instanceof RandomPlatformsMessage m) {
+            w.writeByte(TAG_RANDOM_PLATFORMS);
+            writePlacementList(w, m.randomPlatforms);
+        } else if (msg instanceof MapAnnounceMessage m) {
+            w.writeByte(TAG_MAP_ANNOUNCE);
+            w.writeString(m.mapHash);
+            w.writeVarInt(m.platformCount);
+        } else if (msg instanceof MapRequest m) {
+            w.writeByte(TAG_MAP_REQUEST);
+            w.writeString(m.mapHash);
+        } else if (msg instanceof MapDataMessage m) {
+            w.writeByte(TAG_MAP_DATA);
+            w.writeString(m.mapHash);
+            writePlacementList(w, m.platforms);
+        } else if (msg instanceof GameObjectInfo m) {
+            w.writeByte(TAG_GAME_OBJECT_INFO);
+            writeObjectInfo(w, m);
+        } else if (msg instanceof ObjectListMessage m) {
+            w.writeByte(TAG_OBJECT_LIST);
+            if (m.objects == null) {
+                w.writeVarInt(0);
+            } else {
+                w.writeVarInt(m.objects.size() + 1);
+                for (GameObjectInfo o : m.objects) writeObjectInfo(w, o);
+            }
+        } else if (msg instanceof SelectionMessage m) {
+            w.writeByte(TAG_SELECTION);
+            w.writeString(m.playerId);
+            w.writeZigZag(m.objectId);
+        } else if (msg instanceof PlatformPlacement m) {
+            w.writeByte(TAG_PLATFORM_PLACEMENT);
+            writePlacement(w, m);
+        } else if (msg instanceof DisconnectMessage m) {
+            w.writeByte(TAG_DISCONNECT);
+            w.writeString(m.playerId);
+        } else if (msg instanceof FinishMessage m) {
+            w.writeByte(TAG_FINISH);
+            w.writeString(m.playerId);
+            w.writeZigZag(m.finishTime);
+        } else if (msg instanceof FailMessage m) {
+            w.writeByte(TAG_FAIL);
+            w.writeString(m.playerId);
+        } else if (msg instanceof ScoreUpdateMessage m) {
+            w.writeByte(TAG_SCORE_UPDATE);
+            writeScoreMap(w, m.scores);
+        } else if (msg instanceof RoundEndMessage m) {
+            w.writeByte(TAG_ROUND_END);
+            writeScoreMap(w, m.roundScores);
+            writeScoreMap(w, m.totalScores);
+            writeStringList(w, m.finishOrder);
+            w.writeZigZag(m.currentRound);
+            w.writeZigZag(m.totalRounds);
+        } else if (msg instanceof CodecSwitchMessage m) {
+            w.writeByte(TAG_CODEC_SWITCH);
+            w.writeVarInt(m.version);
+        } else if (msg instanceof RoomInfo m) {
+            w.writeByte(TAG_ROOM_INFO);
+            writeRoomInfo(w, m);
+        } else if (msg instanceof CreateRoomRequest m) {
+            w.writeByte(TAG_CREATE_ROOM_REQUEST);
+            w.writeZigZag(m.maxPlayers);
+            w.writeEnum(m.roomType);
+        } else if (msg instanceof CreateRoomResponse m) {
+            w.writeByte(TAG_CREATE_ROOM_RESPONSE);
+            w.writeBoolean(m.success);
+            w.writeString(m.roomCode);
+            w.writeString(m.message);
+        } else if (msg instanceof JoinRoomRequest m) {
+            w.writeByte(TAG_JOIN_ROOM_REQUEST);
+            w.writeString(m.roomCode);
+        } else if (msg instanceof JoinRandomRoomRequest) {
+            w.writeByte(TAG_JOIN_RANDOM_ROOM_REQUEST);
+        } else if (msg instanceof JoinRoomResponse m) {
+            w.writeByte(TAG_JOIN_ROOM_RESPONSE);
+            w.writeBoolean(m.success);
+            w.writeString(m.message);
+            writeRoomInfo(w, m.roomInfo);
+        } else if (msg instanceof RoomUpdateMessage m) {
+            w.writeByte(TAG_ROOM_UPDATE);
+            writeRoomInfo(w, m.roomInfo);
+        } else if (msg instanceof PlayerReadyMessage m) {
+            w.writeByte(TAG_PLAYER_READY);
+            w.writeString(m.playerId);
+            w.writeBoolean(m.ready);
+        } else if (msg instanceof StartGameRequest) {
+            w.writeByte(TAG_START_GAME_REQUEST);
+        } else if (msg instanceof ReturnToRoomMessage m) {
+            w.writeByte(TAG_RETURN_TO_ROOM);
+            w.writeString(m.message);
+        } else if (msg instanceof LeaveRoomRequest) {
+            w.writeByte(TAG_LEAVE_ROOM_REQUEST);
+        } else if (msg instanceof RoomRedirectMessage m) {
+            w.writeByte(TAG_ROOM_REDIRECT);
+            w.writeString(m.host);
+            w.writeVarInt(m.port);
+            w.writeString(m.roomCode);
+        } else {
+            throw new IllegalArgumentException("No wire encoding for " +
+                (msg == null ? "null" : msg.getClass().getName()));
+        }
+    }
+
+    private static void writePlacement(WireWriter w, PlatformPlacement p) {
+        w.writeBoolean(p != null);
+        if (p == null) return;
+        w.writeZigZag(p.id);
+        w.writeDouble(p.x);
+        w.writeDouble(p.y);
+        w.writeZigZag(p.width);
+        w.writeZigZag(p.height);
+        w.writeString(p.color);
+        w.writeDouble(p.rotation);
+    }
+
+    private static void writePlayerInfo(WireWriter w, PlayerInfo m) {
+        w.writeString(m.playerId);
+        w.writeString(m.colorHex);
+        w.writeBoolean(m.crouching);
+        w.writeDouble(m.x);
+        w.writeDouble(m.y);
+        w.writeDouble(m.scaleY);
+    }
+
+    private static void writePlacementList(WireWriter w, List<PlatformPlacement> list) {
+        if (list == null) {
+            w.writeVarInt(0);
+            return;
+        }
+        w.writeVarInt(list.size() + 1);
+        for (PlatformPlacement p : list) writePlacement(w, p);
+    }
+
+    // 關卡物件編號是小的非負整數，varint 大多一個位元組
+    private static void writeIntArray(WireWriter w, int[] values) {
+        if (values == null) {
+            w.writeVarInt(0);
+            return;
+        }
+        w.writeVarInt(values.length + 1);
+        for (int v : values) w.writeVarInt(v);
+    }
+
+    private static void writeObjectInfo(WireWriter w, GameObjectInfo o) {
+        w.writeBoolean(o != null);
+        if (o == null) return;
+        w.writeZigZag(o.id);
+        w.writeZigZag(o.width);
+        w.writeZigZag(o.height);
+        w.writeString(o.color);
+        w.writeEnum(o.type);
+        w.writeBoolean(o.selected);
+        w.writeDouble(o.moveSpeed);
+        w.writeDouble(o.moveRange);
+        w.writeDouble(o.fireRate);
+    }
+
+    private static void writeRoomInfo(WireWriter w, RoomInfo info) {
+        w.writeBoolean(info != null);
+        if (info == null) return;
+        w.writeString(info.roomCode);
+        w.writeString(info.hostId);
+        writeStringList(w, info.playerIds);
+        w.writeZigZag(info.maxPlayers);
+        w.writeEnum(info.state);
+        w.writeZigZag(info.currentRound);
+        w.writeZigZag(info.totalRounds);
+        if (info.readyStatus == null) {
+            w.writeVarInt(0);
+        } else {
+            w.writeVarInt(info.readyStatus.size() + 1);
+            for (Map.Entry<String, Boolean> e : info.readyStatus.entrySet()) {
+                w.writeString(e.getKey());
+                w.writeByte(e.getValue() == null ? 2 : e.getValue() ? 1 : 0);
+            }
+        }
+        w.writeEnum(info.roomType);
+    }
+
+    private static void writeStringList(WireWriter w, List<String> list) {
+        if (list == null) {
+            w.writeVarInt(0);
+            return;
+        }
+        w.writeVarInt(list.size() + 1);
+        for (String s : list) w.writeString(s);
+    }
+
+    private static void writeScoreMap(WireWriter w, Map<String, Integer> map) {
+        if (map == null) {
+            w.writeVarInt(0);
+            return;
+        }
+        w.writeVarInt(map.size() + 1);
+        for (Map.Entry<String, Integer> e : map.entrySet()) {
+            w.writeString(e.getKey());
+            Integer v = e.getValue();
+            // 0 = null，其餘為 zigzag + 1
+            w.writeVarLong(v == null ? 0 : zigZag(v) + 1);
+        }
+    }
+
+    // ==================== 解碼 ====================
+
+    private static Object readMessage(WireReader r) throws IOException {
+        byte tag = r.readByte();
+        switch (tag) {
+            case TAG_PLAYER_INFO:
+                return readPlayerInfo(r);
+            case TAG_ROOM_SNAPSHOT: {
+                long tick = r.readVarLong();
+                long baseTick = r.readVarLong();
+                List<String> playerIds = readStringList(r);
+                List<String> colors = readStringList(r);
+                int n = readCount(r, "Snapshot data");
+                byte[] data = n == 0 ? null : r.readBytes(n - 1);
+                return new RoomSnapshot(tick, baseTick, playerIds, colors, data);
+            }
+            case TAG_SNAPSHOT_ACK:
+                return new SnapshotAck(r.readVarLong());
+            case TAG_UDP_STATUS:
+                return new UdpStatusMessage(r.readBoolean());
+            case TAG_PLACEMENT: {
+                String playerId = r.readString();
+                PlatformPlacement placement = readPlacement(r);
+                return new PlacementMessage(playerId, placement, r.readBoolean());
+            }
+            case TAG_INIT: {
+                String playerId = r.readString();
+                String colorHex = r.readString();
+                int version = r.readVarInt();
+                int udpPort = r.readVarInt();
+                return new InitMessage(playerId, colorHex, version, udpPort, r.readFixedLong());
+            }
+            case TAG_PHASE_CHANGE:
+                return new PhaseChangeMessage(r.readEnum(GamePhase.values()));
+            case TAG_LEVEL_SNAPSHOT: {
+                int round = r.readZigZagInt();
+                int[] removedIds = readIntArray(r);
+                int[] addedIds = readIntArray(r);
+                List<PlatformPlacement> added = readPlacementList(r);
+                return new LevelSnapshot(round, removedIds, addedIds, added, r.readVarInt());
+            }
+            case TAG_RANDOM_PLATFORMS:
+                return new RandomPlatformsMessage(readPlacementList(r));
+            case TAG_MAP_ANNOUNCE: {
+                String mapHash = r.readString();
+                return new MapAnnounceMessage(mapHash, r.readVarInt());
+            }
+            case TAG_MAP_REQUEST:
+                return new MapRequest(r.readString());
+            case TAG_MAP_DATA: {
+                String mapHash = r.readString();
+                return new MapDataMessage(mapHash, readPlacementList(r));
+            }
+            case TAG_GAME_OBJECT_INFO:
+                return readObjectInfo(r);
+            case TAG_OBJECT_LIST: {
+                int n = readCount(r, "Object list");
+                List<GameObjectInfo> objects = null;
+                if (n > 0) {
+                    objects = new ArrayList<>(n - 1);
+                    for (int i = 0; i < n - 1; i++) objects.add(readObjectInfo(r));
+                }
+                return new ObjectListMessage(objects);
+            }
+            case TAG_SELECTION: {
+                String playerId = r.readString();
+                return new SelectionMessage(playerId, r.readZigZagInt());
+            }
+            case TAG_PLATFORM_PLACEMENT:
+                return readPlacement(r);
+            case TAG_DISCONNECT:
+                return new DisconnectMessage(r.readString());
+            case TAG_FINISH: {
+                String playerId = r.readString();
+                return new FinishMessage(playerId, r.readZigZagLong());
+            }
+            case TAG_FAIL:
+                return new FailMessage(r.readString());
+            case TAG_SCORE_UPDATE:
+                return new ScoreUpdateMessage(readScoreMap(r));
+            case TAG_ROUND_END: {
+                Map<String, Integer> roundScores = readScoreMap(r);
+                Map<String, Integer> totalScores = readScoreMap(r);
+                List<String> finishOrder = readStringList(r);
+                int currentRound = r.readZigZagInt();
+                int totalRounds = r.readZigZagInt();
+                return new RoundEndMessage(roundScores, totalScores, finishOrder, currentRound, totalRounds);
+            }
+            case TAG_CODEC_SWITCH:
+                return new CodecSwitchMessage(r.readVarInt());
+            case TAG_ROOM_INFO:
+                return readRoomInfo(r);
+            case TAG_CREATE_ROOM_REQUEST: {
+                int maxPlayers = r.readZigZagInt();
+                return new CreateRoomRequest(maxPlayers, r.readEnum(RoomType.values()));
+            }
+            case TAG_CREATE_ROOM_RESPONSE: {
+                boolean success = r.readBoolean();
+                String roomCode = r.readString();
+                return new CreateRoomResponse(success, roomCode, r.readString());
+            }
+            case TAG_JOIN_ROOM_REQUEST:
+                return new JoinRoomRequest(r.readString());
+            case TAG_JOIN_RANDOM_ROOM_REQUEST:
+                return new JoinRandomRoomRequest();
+            case TAG_JOIN_ROOM_RESPONSE: {
+                boolean success = r.readBoolean();
+                String message = r.readString();
+                return new JoinRoomResponse(success, message, readRoomInfo(r));
+            }
+            case TAG_ROOM_UPDATE:
+                return new RoomUpdateMessage(readRoomInfo(r));
+            case TAG_PLAYER_READY: {
+                String playerId = r.readString();
+                return new PlayerReadyMessage(playerId, r.readBoolean());
+            }
+            case TAG_START_GAME_REQUEST:
+                return new StartGameRequest();
+            case TAG_RETURN_TO_ROOM:
+                return new ReturnToRoomMessage(r.readString());
+            case TAG_LEAVE_ROOM_REQUEST:
+                return new LeaveRoomRequest();
+            case TAG_ROOM_REDIRECT: {
+                String host = r.readString();
+                int port = r.readVarInt();
+                return new RoomRedirectMessage(host, port, r.readString());
+            }
+            default:
+                throw new StreamCorruptedException("Unknown message tag: " + tag);
+        }
+    }
+
+    private static PlayerInfo readPlayerInfo(WireReader r) throws IOException {
+        String playerId = r.readString();
+        String colorHex = r.readString();
+        boolean crouching = r.readBoolean();
+        double x = r.readDouble();
+        double y = r.readDouble();
+        double scaleY = r.readDouble();
+        return new PlayerInfo(playerId, colorHex, x, y, crouching, scaleY);
+    }
+
+    private static PlatformPlacement readPlacement(WireReader r) throws IOException {
+        if (!r.readBoolean()) return null;
+        int id = r.readZigZagInt();
+        double x = r.readDouble();
+        double y = r.readDouble();
+        int width = r.readZigZagInt();
+        int height = r.readZigZagInt();
+        String color = r.readString();
+        double rotation = r.readDouble();
+        return new PlatformPlacement(id, x, y, width, height, color, rotation);
+    }
+
+    private static List<PlatformPlacement> readPlacementList(WireReader r) throws IOException {
+        int n = readCount(r, "Placement list");
+        if (n == 0) return null;
+        List<PlatformPlacement> list = new ArrayList<>(n - 1);
+        for (int i = 0; i < n - 1; i++) list.add(readPlacement(r));
+        return list;
+    }
+
+    private static int[] readIntArray(WireReader r) throws IOException {
+        int n = readCount(r, "Int array");
+        if (n == 0) return null;
+        int[] values = new int[n - 1];
+        for (int i = 0; i < values.length; i++) values[i] = r.readVarInt();
+        return values;
+    }
+
+    private static GameObjectInfo readObjectInfo(WireReader r) throws IOException {
+        if (!r.readBoolean()) return null;
+        int id = r.readZigZagInt();
+        int width = r.readZigZagInt();
+        int height = r.readZigZagInt();
+        String color = r.readString();
+        ObjectType type = r.readEnum(ObjectType.values());
+        boolean selected = r.readBoolean();
+        double moveSpeed = r.readDouble();
+        double moveRange = r.readDouble();
+        double fireRate = r.readDouble();
+        GameObjectInfo o = new GameObjectInfo(id, width, height, color, type, moveSpeed, moveRange, fireRate);
+        o.selected = selected;
+        return o;
+    }
+
+    private static RoomInfo readRoomInfo(WireReader r) throws IOException {
+        if (!r.readBoolean()) return null;
+        String roomCode = r.readString();
+        String hostId = r.readString();
+        List<String> playerIds = readStringList(r);
+        int maxPlayers = r.readZigZagInt();
+        RoomState state = r.readEnum(RoomState.values());
+        int currentRound = r.readZigZagInt();
+        int totalRounds = r.readZigZagInt();
+        Map<String, Boolean> readyStatus = null;
+        int n = readCount(r, "Ready status");
+        if (n > 0) {
+            readyStatus = new HashMap<>();
+            for (int i = 0; i < n - 1; i++) {
+                String key = r.readString();
+                byte v = r.readByte();
+                readyStatus.put(key, v == 2 ? null : v == 1);
+            }
+        }
+        RoomType roomType = r.readEnum(RoomType.values());
+
+        RoomInfo info = new RoomInfo(roomCode, hostId, maxPlayers, roomType);
+        info.playerIds = playerIds;
+        info.state = state;
+        info.currentRound = currentRound;
+        info.totalRounds = totalRounds;
+        info.readyStatus = readyStatus;
+        return info;
+    }
+
+    private static List<String> readStringList(WireReader r) throws IOException {
+        int n = readCount(r, "String list");
+        if (n == 0) return null;
+        List<String> list = new ArrayList<>(n - 1);
+        for (int i = 0; i < n - 1; i++) list.add(r.readString());
+        return list;
+    }
+
+    private static Map<String, Integer> readScoreMap(WireReader r) throws IOException {
+        int n = readCount(r, "Score map");
+        if (n == 0) return null;
+        Map<String, Integer> map = new HashMap<>();
+        for (int i = 0; i < n - 1; i++) {
+            String key = r.readString();
+            long v = r.readVarLong();
+            map.put(key, v == 0 ? null : (int) unZigZag(v - 1));
+        }
+        return map;
+    }
+
+    // 集合與陣列的長度欄位是「元素數 + 1」（0 代表 null）。每個元素至少佔一個位元組，
+    // 所以超過訊框剩餘長度的數量一定是損壞或惡意的資料，要在配置之前就拒絕，
+    // 否則 new ArrayList<>(0x7FFFFFFF) 之類的 OutOfMemoryError 會穿過 catch (Exception) 讓整個 I/O 執行緒死掉
+    private static int readCount(WireReader r, String what) throws IOException {
+        int n = r.readVarInt();
+        if (n < 0 || n - 1 > r.remaining()) {
+            throw new StreamCorruptedException(what + " length exceeds frame: " + (n - 1));
+        }
+        return n;
+    }
+
+    static long zigZag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    static long unZigZag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+}
+
+/**
+ * 二進位寫入器
+ * 字串：header = (長度 << 2) | 種類；種類 0=UTF-8、1=#RRGGBB 顏色(3 bytes)、2=小寫十六進位、3=null
+ * 浮點數：整數值寫 zigzag varint << 1；可無損轉 float 時寫 3 + 4 bytes；其餘寫 1 + 8 bytes
+ */
+class WireWriter {
+    private static final int STR_UTF8 = 0;
+    private static final int STR_COLOR = 1;
+    private static final int STR_HEX = 2;
+    private static final int STR_NULL = 3;
+
+    private byte[] buf;
+    private int size = 0;
+
+    public WireWriter(int capacity) {
+        this.buf = new byte[Math.max(16, capacity)];
+    }
+
+    private void ensure(int extra) {
+        if (size + extra > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + extra));
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public byte[] buffer() {
+        return buf;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buf, size);
+    }
+
+    public void reset() {
+        size = 0;
+    }
+
+    public void writeByte(int b) {
+        ensure(1);
+        buf[size++] = (byte) b;
+    }
+
+    public void writeBytes(byte[] src, int off, int len) {
+        ensure(len);
+        System.arraycopy(src, off, buf, size, len);
+        size += len;
+    }
+
+    public void writeBoolean(boolean b) {
+        writeByte(b ? 1 : 0);
+    }
+
+    public void writeVarInt(int v) {
+        writeVarLong(v & 0xFFFFFFFFL);
+    }
+
+    public void writeVarLong(long v) {
+        ensure(10);
+        while ((v & ~0x7FL) != 0) {
+            buf[size++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        buf[size++] = (byte) v;
+    }
+
+    public void writeZigZag(long v) {
+        writeVarLong(WireCodec.zigZag(v));
+    }
+
+    public void writeFixedShort(int v) {
+        ensure(2);
+        buf[size++] = (byte) (v >>> 8);
+        buf[size++] = (byte) v;
+    }
+
+    public void writeFixedInt(int v) {
+        ensure(4);
+        buf[size++] = (byte) (v >>> 24);
+        buf[size++] = (byte) (v >>> 16);
+        buf[size++] = (byte) (v >>> 8);
+        buf[size++] = (byte) v;
+    }
+
+    public void writeFixedLong(long v) {
+        writeFixedInt((int) (v >>> 32));
+        writeFixedInt((int) v);
+    }
+
+    public void writeDouble(double d) {
+        long bits = Double.doubleToRawLongBits(d);
+        if (Math.abs(d) < 1e15 && d == Math.rint(d) && bits != Double.doubleToRawLongBits(-0.0)) {
+            writeVarLong(WireCodec.zigZag((long) d) << 1);
+        } else if (Double.doubleToRawLongBits((double) (float) d) == bits) {
+            writeByte(3);
+            writeFixedInt(Float.floatToRawIntBits((float) d));
+        } else {
+            writeByte(1);
+            writeFixedLong(bits);
+        }
+    }
+
+    public <E extends Enum<E>> void writeEnum(E e) {
+        writeVarInt(e == null ? 0 : e.ordinal() + 1);
+    }
+
+    public void writeString(String s) {
+        if (s == null) {
+            writeVarInt(STR_NULL);
+        } else if (isColor(s)) {
+            writeVarInt(STR_COLOR);
+            for (int i = 1; i < 7; i += 2) {
+                writeByte((hexValue(s.charAt(i)) << 4) | hexValue(s.charAt(i + 1)));
+            }
+        } else if (isLowerHex(s)) {
+            writeVarInt(((s.length() / 2) << 2) | STR_HEX);
+            for (int i = 0; i < s.length(); i += 2) {
+                writeByte((hexValue(s.charAt(i)) << 4) | hexValue(s.charAt(i + 1)));
+            }
+        } else {
+            byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+            writeVarInt((utf8.length << 2) | STR_UTF8);
+            writeBytes(utf8, 0, utf8.length);
+        }
+    }
+
+    // "#RRGGBB"（大寫，才能原樣還原）
+    private static boolean isColor(String s) {
+        if (s.length() != 7 || s.charAt(0) != '#') return false;
+        for (int i = 1; i < 7; i++) {
+            char c = s.charAt(i);
+            if (!((c >= '0' && c <= '9') || (c >= 'A' && c <= 'F'))) return false;
+        }
+        return true;
+    }
+
+    // 偶數長度的小寫十六進位字串（例如玩家ID）
+    private static boolean isLowerHex(String s) {
+        if (s.isEmpty() || (s.length() & 1) != 0) return false;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'))) return false;
+        }
+        return true;
+    }
+
+    private static int hexValue(char c) {
+        if (c <= '9') return c - '0';
+        if (c <= 'F') return c - 'A' + 10;
+        return c - 'a' + 10;
+    }
+}
+
+/**
+ * 二進位讀取器
+ */
+class WireReader {
+    private static final char[] UPPER_HEX = "0123456789ABCDEF".toCharArray();
+    private static final char[] LOWER_HEX = "0123456789abcdef".toCharArray();
+
+    private final byte[] buf;
+    private int pos;
+    private final int end;
+
+    public WireReader(byte[] buf, int offset, int length) {
+        this.buf = buf;
+        this.pos = offset;
+        this.end = offset + length;
+    }
+
+    public int remaining() {
+        return end - pos;
+    }
+
+    private void require(int n) throws IOException {
+        if (end - pos < n) throw new EOFException("Frame truncated");
+    }
+
+    public byte readByte() throws IOException {
+        require(1);
+        return buf[pos++];
+    }
+
+    public boolean readBoolean() throws IOException {
+        return readByte() != 0;
+    }
+
+    public byte[] readBytes(int n) throws IOException {
+        require(n);
+        byte[] out = Arrays.copyOfRange(buf, pos, pos + n);
+        pos += n;
+        return out;
+    }
+
+    public int readVarInt() throws IOException {
+        return (int) readVarLong();
+    }
+
+    public long readVarLong() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte() & 0xFF;
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new StreamCorruptedException("Varint too long");
+    }
+
+    public int readZigZagInt() throws IOException {
+        return (int) WireCodec.unZigZag(readVarLong());
+    }
+
+    public long readZigZagLong() throws IOException {
+        return WireCodec.unZigZag(readVarLong());
+    }
+
+    // 無號 16 位元
+    public int readFixedShort() throws IOException {
+        require(2);
+        int v = ((buf[pos] & 0xFF) << 8) | (buf[pos + 1] & 0xFF);
+        pos += 2;
+        return v;
+    }
+
+    public int readFixedInt() throws IOException {
+        require(4);
+        int v = ((buf[pos] & 0xFF) << 24) | ((buf[pos + 1] & 0xFF) << 16)
+              | ((buf[pos + 2] & 0xFF) << 8) | (buf[pos + 3] & 0xFF);
+        pos += 4;
+        return v;
+    }
+
+    public long readFixedLong() throws IOException {
+        long hi = readFixedInt() & 0xFFFFFFFFL;
+        long lo = readFixedInt() & 0xFFFFFFFFL;
+        return (hi << 32) | lo;
+    }
+
+    public double readDouble() throws IOException {
+        long header = readVarLong();
+        if ((header & 1) == 0) {
+            return (double) WireCodec.unZigZag(header >>> 1);
+        } else if (header == 3) {
+            return Float.intBitsToFloat(readFixedInt());
+        } else if (header == 1) {
+            return Double.longBitsToDouble(readFixedLong());
+        }
+        throw new StreamCorruptedException("Invalid double header: " + header);
+    }
+
+    public <E extends Enum<E>> E readEnum(E[] values) throws IOException {
+        int v = readVarInt();
+        if (v == 0) return null;
+        if (v < 0 || v > values.length) throw new StreamCorruptedException("Invalid enum ordinal: " + (v - 1));
+        return values[v - 1];
+    }
+
+    public String readString() throws IOException {
+        int header = readVarInt();
+        int kind = header & 3;
+        int len = header >>> 2;
+        switch (kind) {
+            case 3:
+                return null;
+            case 1: {
+                require(3);
+                char[] chars = new char[7];
+                chars[0] = '#';
+                for (int i = 0; i < 3; i++) {
+                    int b = buf[pos++] & 0xFF;
+                    chars[1 + i * 2] = UPPER_HEX[b >>> 4];
+                    chars[2 + i * 2] = UPPER_HEX[b & 0xF];
+                }
+                return new String(chars);
+            }
+            case 2: {
+                require(len);
+                char[] chars = new char[len * 2];
+                for (int i = 0; i < len; i++) {
+                    int b = buf[pos++] & 0xFF;
+                    chars[i * 2] = LOWER_HEX[b >>> 4];
+                    chars[i * 2 + 1] = LOWER_HEX[b & 0xF];
+                }
+                return new String(chars);
+            }
+            default: {
+                require(len);
+                String s = new String(buf, pos, len, StandardCharsets.UTF_8);
+                pos += len;
+                return s;
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+import java.lang.management.ManagementFactory;
+
+/**
+ * 碰撞檢查不配置物件
+ * 暖機後在迴圈中呼叫 PlatformBody.checkCollision（一般與旋轉平台）以及完整的 PlayerBody.step，
+ * 以 ThreadMXBean.getCurrentThreadAllocatedBytes 比對前後，配置量必須為 0。
+ *
+ * 執行（類別路徑與 cmd 相同）：
+ *   javac -cp ".;fxgl-21.1-uber.jar" -d test-out *.java test/CollisionAllocationTest.java
+ *   java -cp "test-out;fxgl-21.1-uber.jar" CollisionAllocationTest
+ */
+public class CollisionAllocationTest {
+    private static final int ITERATIONS = 1_000_000;
+    private static int failures = 0;
+    private static int sink = 0;  // 避免 JIT 把迴圈整個拿掉
+
+    public static void main(String[] args) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            System.out.println("[TEST] CollisionAllocationTest: allocation counting not supported, skipped");
+            return;
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        PlatformBody flat = new PlatformBody(400, 900, 200, 30, 0);
+        PlatformBody rotated = new PlatformBody(700, 850, 200, 20, 30);
+        CollisionInfo result = new CollisionInfo();
+
+        check(threads, "checkCollision (flat)", () -> {
+            for (int i = 0; i < ITERATIONS; i++) {
+                if (flat.checkCollision(380 + (i & 255), 880, 25, (i & 1) == 0 ? 2 : -2, result)) sink++;
+            }
+        });
+        check(threads, "checkCollision (rotated)", () -> {
+            for (int i = 0; i < ITERATIONS; i++) {
+                if (rotated.checkCollision(700 + (i & 255), 850, 25, 2, result)) sink++;
+            }
+        });
+
+        // 完整的一步：寬相位查詢 + 兩次碰撞判定 + 彈跳
+        PlatformGrid grid = new PlatformGrid();
+        grid.insert(new PlatformBody(0, 930, 5000, 30, 0));
+        grid.insert(flat);
+        grid.insert(rotated);
+        PlatformBody bounce = new PlatformBody(1000, 880, 150, 20, 0);
+        bounce.setBounceStrength(30);
+        grid.insert(bounce);
+        PlayerBody player = new PlayerBody();
+        check(threads, "PlayerBody.step", () -> {
+            player.reset(PhysicsCore.START_X, PhysicsCore.START_Y);
+            for (int i = 0; i < ITERATIONS; i++) {
+                if (player.getX() >= 1500) player.reset(PhysicsCore.START_X, PhysicsCore.START_Y);
+                if (i % 40 == 0) player.jump();
+                player.step(grid, PlayerBody.SPEED);
+            }
+            sink += (int) player.getX();
+        });
+
+        System.out.println("(sink " + sink + ")");
+        if (failures > 0) {
+            System.out.println("[TEST] CollisionAllocationTest: " + failures + " failures");
+            System.exit(1);
+        }
+        System.out.println("[TEST] CollisionAllocationTest: all passed");
+    }
+
+    private static void check(com.sun.management.ThreadMXBean threads, String name, Runnable loop) {
+        // 暖機：讓 JIT 編譯完成、查詢結果陣列長到足夠大
+        for (int i = 0; i < 3; i++) {
+            loop.run();
+        }
+        long before = threads.getCurrentThreadAllocatedBytes();
+        loop.run();
+        long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+        if (allocated == 0) {
+            System.out.println("ok   " + name + ": 0 bytes in " + ITERATIONS + " calls");
+        } else {
+            System.out.println("FAIL " + name + ": " + allocated + " bytes in " + ITERATIONS + " calls");
+            failures++;
+        }
+    }
+}
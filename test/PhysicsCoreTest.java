@@ -0,0 +1,147 @@
+/**
+ * 無畫面物理核心的測試
+ * 在已知的平台配置上跑 PlayerBody.step，檢查落地、跳躍高度、撞牆、彈跳、旋轉平台與移動平台，
+ * 以及最短完成時間與伺服器拒絕不可能完成時間的判定（PhysicsCore.isPossibleFinish）。
+ * 只用到 PhysicsCore.java，不需要 JavaFX / FXGL。
+ *
+ * 執行：
+ *   javac -d test-out PhysicsCore.java test/PhysicsCoreTest.java
+ *   java -cp test-out PhysicsCoreTest
+ */
+public class PhysicsCoreTest {
+    private static final double GROUND_STAND_Y = PhysicsCore.GROUND_TOP - PlayerBody.RADIUS;
+    private static int failures = 0;
+
+    public static void main(String[] args) {
+        minimumFinish();
+        landing();
+        jumpApex();
+        wall();
+        bounce();
+        rotatedPlatform();
+        movingPlatform();
+        finishValidation();
+
+        if (failures > 0) {
+            System.out.println("[TEST] PhysicsCoreTest: " + failures + " failures");
+            System.exit(1);
+        }
+        System.out.println("[TEST] PhysicsCoreTest: all passed");
+    }
+
+    // 水平速度固定 8，從 x=100 到 3800 需要 ceil(3700 / 8) = 463 步
+    private static void minimumFinish() {
+        check(PhysicsCore.minimumFinishSteps() == 463, "minimum finish steps " + PhysicsCore.minimumFinishSteps());
+        check(PhysicsCore.minimumFinishMillis() == 7716, "minimum finish millis " + PhysicsCore.minimumFinishMillis());
+    }
+
+    private static PlatformGrid ground() {
+        PlatformGrid grid = new PlatformGrid();
+        grid.insert(new PlatformBody(0, PhysicsCore.GROUND_TOP, 5000, 30, 0));
+        return grid;
+    }
+
+    private static void landing() {
+        PlatformGrid grid = ground();
+        PlayerBody player = new PlayerBody();
+        player.reset(300, 700);
+        for (int i = 0; i < 60; i++) player.step(grid, 0);
+        check(player.getY() == GROUND_STAND_Y && player.getVelocityY() == 0 && player.isOnGround(),
+              "lands on the ground at y=" + player.getY());
+        check(player.getX() == 300, "no horizontal drift without input");
+    }
+
+    // 起跳速度 20、重力 1：上升 19 + 18 + ... + 1 = 190
+    private static void jumpApex() {
+        PlatformGrid grid = ground();
+        PlayerBody player = new PlayerBody();
+        player.reset(300, GROUND_STAND_Y);
+        player.step(grid, 0);
+        player.jump();
+        double top = player.getY();
+        int airborne = 0;
+        do {
+            player.step(grid, 0);
+            top = Math.min(top, player.getY());
+            airborne++;
+        } while (!player.isOnGround() && airborne < 200);
+        check(top == GROUND_STAND_Y - 190, "jump apex " + (GROUND_STAND_Y - top) + " px");
+        check(player.getY() == GROUND_STAND_Y, "lands back after " + airborne + " steps");
+    }
+
+    private static void wall() {
+        PlatformGrid grid = ground();
+        grid.insert(new PlatformBody(500, 700, 40, 230, 0));
+        PlayerBody player = new PlayerBody();
+        player.reset(400, GROUND_STAND_Y);
+        for (int i = 0; i < 60; i++) player.step(grid, PlayerBody.SPEED);
+        check(player.getX() == 472, "blocked by the wall at x=" + player.getX());
+        check(player.getY() == GROUND_STAND_Y, "still standing next to the wall");
+    }
+
+    private static void bounce() {
+        PlatformGrid grid = ground();
+        PlatformBody pad = new PlatformBody(200, 880, 200, 20, 0);
+        pad.setBounceStrength(30);
+        grid.insert(pad);
+        PlayerBody player = new PlayerBody();
+        player.reset(300, 700);
+        int steps = 0;
+        while (player.getVelocityY() >= 0 && steps < 100) {
+            player.step(grid, 0);
+            steps++;
+        }
+        check(player.getVelocityY() == -30 && !player.isOnGround(), "bounce pad launches at " + player.getVelocityY());
+        check(player.getY() == pad.getY() - PlayerBody.RADIUS, "bounce starts from the pad top");
+    }
+
+    private static void rotatedPlatform() {
+        PlatformGrid grid = new PlatformGrid();
+        PlatformBody ramp = new PlatformBody(200, 600, 200, 20, 20);
+        grid.insert(ramp);
+        PlayerBody player = new PlayerBody();
+        player.reset(300, 450);
+        boolean landed = false;
+        for (int i = 0; i < 120; i++) {
+            player.step(grid, 0);
+            landed |= player.isOnGround();
+        }
+        check(landed, "lands on a rotated platform");
+        check(player.getY() < ramp.maxY, "does not fall through a rotated platform (y=" + player.getY() + ")");
+    }
+
+    private static void movingPlatform() {
+        PlatformGrid grid = new PlatformGrid();
+        PlatformBody mover = new PlatformBody(1000, 500, 200, 20, 0);
+        grid.insert(mover);
+        mover.setMotion(true, 1.0, 600);
+        for (int i = 0; i < 90; i++) {
+            mover.stepMotion(PhysicsCore.STEP);
+            grid.update(mover);
+        }
+        double expected = 1000 + Math.sin(90 * PhysicsCore.STEP) * 300;
+        check(Math.abs(mover.getX() - expected) < 1e-9, "moving platform at x=" + mover.getX());
+        int n = grid.query(mover.getX() + 50, 490, mover.getX() + 60, 510);
+        check(n == 1 && grid.result(0) == mover, "grid finds the platform at its new cells");
+        check(grid.query(1000, 490, 1010, 510) == 0, "grid no longer reports the old cells");
+    }
+
+    private static void finishValidation() {
+        long minimum = PhysicsCore.minimumFinishMillis();
+        check(!PhysicsCore.isPossibleFinish(1234, 300, 1000), "rejects an instant finish");
+        check(!PhysicsCore.isPossibleFinish(minimum - 500, minimum + 2000, 1000), "rejects a reported time below the minimum");
+        check(!PhysicsCore.isPossibleFinish(minimum + 100, minimum - 1500, 1000), "rejects a finish the server received too early");
+        check(PhysicsCore.isPossibleFinish(minimum, minimum, 1000), "accepts a perfect run");
+        check(PhysicsCore.isPossibleFinish(minimum - 20, minimum - 900, 1000), "tolerates client step timing");
+        check(PhysicsCore.isPossibleFinish(minimum + 500, minimum + 4000, 1000), "accepts a slow connection without rewriting");
+    }
+
+    private static void check(boolean ok, String what) {
+        if (ok) {
+            System.out.println("ok   " + what);
+        } else {
+            System.out.println("FAIL " + what);
+            failures++;
+        }
+    }
+}
@@ -0,0 +1,258 @@
+import java.io.*;
+import java.lang.reflect.*;
+import java.util.*;
+
+/**
+ * WireCodec 往返測試
+ * 每個 SharedMessages / RoomSystem 訊息都用 WireCodec 編碼再解碼，逐欄位比對同一個物件經過
+ * ObjectOutputStream / ObjectInputStream 讀回的結果；並檢查每個型別標籤都有測到、PlayerInfo 訊框小於 20 位元組。
+ *
+ * 執行（類別路徑與 cmd 相同）：
+ *   javac -cp ".;fxgl-21.1-uber.jar" -d test-out *.java test/WireCodecTest.java
+ *   java -cp "test-out;fxgl-21.1-uber.jar" WireCodecTest
+ */
+public class WireCodecTest {
+    private static int failures = 0;
+
+    public static void main(String[] args) throws Exception {
+        Set<Integer> tags = new TreeSet<>();
+        for (Object msg : samples()) {
+            byte[] body = WireCodec.encode(msg);
+            tags.add(body[0] & 0xFF);
+
+            Object expected = javaRoundTrip(msg);
+            Object decoded = WireCodec.decode(body, 0, body.length);
+            compare(msg.getClass().getSimpleName(), expected, decoded);
+
+            // 串流訊框：長度前綴 + 內容
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            WireCodec.writeFrame(stream, msg);
+            Object framed = WireCodec.readFrame(new DataInputStream(new ByteArrayInputStream(stream.toByteArray())));
+            compare(msg.getClass().getSimpleName() + " (frame)", expected, framed);
+        }
+
+        // 每個型別標籤都至少有一個樣本
+        for (Field f : WireCodec.class.getDeclaredFields()) {
+            if (f.getName().startsWith("TAG_") && f.getType() == byte.class) {
+                f.setAccessible(true);
+                int tag = f.getByte(null) & 0xFF;
+                check(tags.contains(tag), "sample for " + f.getName());
+            }
+        }
+
+        // 站在平台上的玩家：x 每步移動 8，y = 平台頂面 - 半徑，都是整數
+        PlayerInfo position = new PlayerInfo("d0d73f26", "#FF0000", 1236, 905, false, 1.0);
+        int wireBytes = WireCodec.encodeFrame(position).length;
+        check(wireBytes < 20, "PlayerInfo frame " + wireBytes + " bytes (java " + javaBytes(position) + ")");
+
+        malformedCounts();
+
+        try {
+            WireCodec.encode(new Object());
+            check(false, "unknown type rejected");
+        } catch (IllegalArgumentException e) {
+            check(true, "unknown type rejected");
+        }
+
+        if (failures > 0) {
+            System.out.println("[TEST] WireCodecTest: " + failures + " failures");
+            System.exit(1);
+        }
+        System.out.println("[TEST] WireCodecTest: all passed");
+    }
+
+    // 每個可編碼的型別，包含 null、空集合、負數與非 ASCII 字串等邊界值
+    private static List<Object> samples() {
+        PlatformPlacement plain = new PlatformPlacement(3, 512.25, 700, 120, 20, "#8B4513");
+        PlatformPlacement rotated = new PlatformPlacement(-1, -40.5, 1e9, 200, 30, "red", 37.123456789);
+        PlatformPlacement noColor = new PlatformPlacement(0, 0, 0, 0, 0, null, 0);
+        List<PlatformPlacement> placements = Arrays.asList(plain, rotated, noColor);
+
+        GameObjectInfo normal = new GameObjectInfo(1, 100, 20, "#FFFFFF");
+        GameObjectInfo moving = new GameObjectInfo(2, 150, 20, "#00FF00", ObjectType.MOVING_H, 1.5, 120, 0);
+        GameObjectInfo turret = new GameObjectInfo(3, 40, 40, "#ff8800", ObjectType.TURRET, 0, 0, 2.25);
+        turret.selected = true;
+
+        RoomInfo room = new RoomInfo("48213", "host-1", 4, RoomType.PUBLIC);
+        room.playerIds.add("玩家二");
+        room.readyStatus.put("玩家二", true);
+        room.state = RoomState.PLAYING;
+        room.currentRound = 3;
+        RoomInfo privateRoom = new RoomInfo("0007", "h", 2, RoomType.PRIVATE);
+
+        Map<String, Integer> scores = new LinkedHashMap<>();
+        scores.put("a1b2c3d4", 100);
+        scores.put("e5f6", -20);
+        scores.put("x", null);
+
+        List<Object> list = new ArrayList<>();
+        list.add(new InitMessage("d0d73f26", "#FF00FF"));
+        list.add(new InitMessage("d0d73f26", "#00FFFF", WireCodec.VERSION, 40123, 0x1234_5678_9ABC_DEF0L));
+        list.add(new UdpStatusMessage(true));
+        list.add(new UdpStatusMessage(false));
+        list.add(new CodecSwitchMessage(WireCodec.VERSION));
+        list.add(new PhaseChangeMessage(GamePhase.PLAYING));
+        list.add(new PhaseChangeMessage(null));
+        list.add(new RandomPlatformsMessage(placements));
+        list.add(new RandomPlatformsMessage(new ArrayList<>()));
+        list.add(new MapAnnounceMessage("00112233445566778899aabbccddeeff", 42));
+        list.add(new MapRequest("00112233445566778899aabbccddeeff"));
+        list.add(new MapDataMessage("00112233445566778899aabbccddeeff", placements));
+        list.add(normal);
+        list.add(new ObjectListMessage(Arrays.asList(normal, moving, turret)));
+        list.add(new ObjectListMessage(null));
+        list.add(new SelectionMessage("d0d73f26", 7));
+        list.add(plain);
+        list.add(new PlacementMessage("d0d73f26", rotated, true));
+        list.add(new PlacementMessage("d0d73f26", null, false));
+        list.add(new LevelSnapshot(2, new int[] { 4, 9 }, new int[] { 11, 12, 13 }, placements, 17));
+        list.add(new LevelSnapshot(0, new int[0], new int[0], new ArrayList<>(), 0));
+        list.add(new PlayerInfo("d0d73f26", "#FF0000", 104.5, 900, true, 0.5));
+        list.add(new PlayerInfo("P1", "#FF0000", Double.NaN, -0.0, false, 1.0 / 3.0));
+        list.add(new RoomSnapshot(120, 118, Arrays.asList("a", "b"), Arrays.asList("#FF0000", "#00FF00"), new byte[] { 1, -2, 3 }));
+        list.add(new RoomSnapshot(1, 0, new ArrayList<>(), new ArrayList<>(), null));
+        list.add(new SnapshotAck(Long.MAX_VALUE));
+        list.add(new DisconnectMessage("d0d73f26"));
+        list.add(new FinishMessage("d0d73f26", 7716));
+        list.add(new FinishMessage("d0d73f26", -1));
+        list.add(new FailMessage("d0d73f26"));
+        list.add(new ScoreUpdateMessage(scores));
+        list.add(new ScoreUpdateMessage(null));
+        list.add(new RoundEndMessage(scores, scores, Arrays.asList("a1b2c3d4", "e5f6"), 2, 5));
+        list.add(room);
+        list.add(new CreateRoomRequest(4, RoomType.PUBLIC));
+        list.add(new CreateRoomResponse(true, "123456", "Room created"));
+        list.add(new CreateRoomResponse(false, null, "No free room codes"));
+        list.add(new JoinRoomRequest("4821"));
+        list.add(new JoinRandomRoomRequest());
+        list.add(new JoinRoomResponse(true, "Joined", room));
+        list.add(new JoinRoomResponse(false, "Room not found", null));
+        list.add(new RoomUpdateMessage(privateRoom));
+        list.add(new PlayerReadyMessage("d0d73f26", true));
+        list.add(new StartGameRequest());
+        list.add(new ReturnToRoomMessage("Game over"));
+        list.add(new LeaveRoomRequest());
+        list.add(new RoomRedirectMessage("192.168.1.10", 36459, "4821"));
+        return list;
+    }
+
+    // 長度欄位超過訊框的訊息必須在配置前以 StreamCorruptedException 拒絕，不能變成 OutOfMemoryError
+    private static void malformedCounts() {
+        byte[] huge = { (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07 };      // 0x7FFFFFFF
+        byte[] negative = { (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F };  // -1
+        byte[] pastEnd = { 0x05, 0x00 };                                                   // 4 個元素，只剩 1 位元組
+        Map<String, byte[]> prefixes = new LinkedHashMap<>();
+        prefixes.put("ObjectListMessage", new byte[] { WireCodec.TAG_OBJECT_LIST });
+        prefixes.put("RandomPlatformsMessage", new byte[] { WireCodec.TAG_RANDOM_PLATFORMS });
+        prefixes.put("MapDataMessage", new byte[] { WireCodec.TAG_MAP_DATA, 3 });
+        prefixes.put("RoomSnapshot players", new byte[] { WireCodec.TAG_ROOM_SNAPSHOT, 0, 0 });
+        prefixes.put("RoomSnapshot data", new byte[] { WireCodec.TAG_ROOM_SNAPSHOT, 0, 0, 0, 0 });
+        prefixes.put("LevelSnapshot", new byte[] { WireCodec.TAG_LEVEL_SNAPSHOT, 0 });
+        prefixes.put("ScoreUpdateMessage", new byte[] { WireCodec.TAG_SCORE_UPDATE });
+        prefixes.put("RoomInfo players", new byte[] { WireCodec.TAG_ROOM_INFO, 1, 3, 3 });
+        prefixes.put("RoomInfo ready status", new byte[] { WireCodec.TAG_ROOM_INFO, 1, 3, 3, 0, 0, 0, 0, 0 });
+        for (Map.Entry<String, byte[]> e : prefixes.entrySet()) {
+            rejectsCount(e.getKey() + " count 0x7FFFFFFF", concat(e.getValue(), huge));
+            rejectsCount(e.getKey() + " negative count", concat(e.getValue(), negative));
+            rejectsCount(e.getKey() + " count past the frame", concat(e.getValue(), pastEnd));
+        }
+    }
+
+    private static void rejectsCount(String what, byte[] body) {
+        try {
+            WireCodec.decode(body, 0, body.length);
+            check(false, what + " rejected");
+        } catch (StreamCorruptedException e) {
+            check(true, what + " rejected");
+        } catch (Throwable t) {
+            check(false, what + " rejected (got " + t + ")");
+        }
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] out = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, out, a.length, b.length);
+        return out;
+    }
+
+    private static Object javaRoundTrip(Object msg) throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(msg);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            return in.readObject();
+        }
+    }
+
+    private static int javaBytes(Object msg) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(msg);
+        }
+        return bytes.size();
+    }
+
+    private static void compare(String name, Object expected, Object actual) {
+        List<String> diffs = new ArrayList<>();
+        deepCompare(name, expected, actual, diffs);
+        check(diffs.isEmpty(), name + (diffs.isEmpty() ? "" : " " + diffs));
+    }
+
+    // 逐欄位比對（含父類別欄位），集合與陣列逐一比對元素，浮點數比對位元
+    private static void deepCompare(String path, Object a, Object b, List<String> diffs) {
+        if (a == null || b == null) {
+            if (a != b) diffs.add(path + ": " + a + " != " + b);
+            return;
+        }
+        if (a.getClass() != b.getClass() && !(a instanceof List && b instanceof List) && !(a instanceof Map && b instanceof Map)) {
+            diffs.add(path + ": " + a.getClass().getSimpleName() + " != " + b.getClass().getSimpleName());
+            return;
+        }
+        if (a instanceof String || a instanceof Number || a instanceof Boolean || a instanceof Character || a instanceof Enum) {
+            if (!a.equals(b)) diffs.add(path + ": " + a + " != " + b);
+        } else if (a.getClass().isArray()) {
+            int n = Array.getLength(a);
+            if (n != Array.getLength(b)) {
+                diffs.add(path + ": length " + n + " != " + Array.getLength(b));
+                return;
+            }
+            for (int i = 0; i < n; i++) deepCompare(path + "[" + i + "]", Array.get(a, i), Array.get(b, i), diffs);
+        } else if (a instanceof List<?> la) {
+            List<?> lb = (List<?>) b;
+            if (la.size() != lb.size()) {
+                diffs.add(path + ": size " + la.size() + " != " + lb.size());
+                return;
+            }
+            for (int i = 0; i < la.size(); i++) deepCompare(path + "[" + i + "]", la.get(i), lb.get(i), diffs);
+        } else if (a instanceof Map<?, ?> ma) {
+            Map<?, ?> mb = (Map<?, ?>) b;
+            if (!ma.keySet().equals(mb.keySet())) {
+                diffs.add(path + ": keys " + ma.keySet() + " != " + mb.keySet());
+                return;
+            }
+            for (Object key : ma.keySet()) deepCompare(path + "[" + key + "]", ma.get(key), mb.get(key), diffs);
+        } else {
+            for (Class<?> c = a.getClass(); c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field f : c.getDeclaredFields()) {
+                    if (Modifier.isStatic(f.getModifiers())) continue;
+                    f.setAccessible(true);
+                    try {
+                        deepCompare(path + "." + f.getName(), f.get(a), f.get(b), diffs);
+                    } catch (IllegalAccessException e) {
+                        diffs.add(path + "." + f.getName() + ": " + e.getMessage());
+                    }
+                }
+            }
+        }
+    }
+
+    private static void check(boolean ok, String what) {
+        if (ok) {
+            System.out.println("ok   " + what);
+        } else {
+            System.out.println("FAIL " + what);
+            failures++;
+        }
+    }
+}